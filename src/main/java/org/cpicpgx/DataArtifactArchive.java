@@ -3,6 +3,7 @@
 import org.apache.commons.cli.*;
 import org.checkerframework.checker.units.qual.C;
 import org.cpicpgx.exporter.*;
+import org.cpicpgx.util.UploadManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,6 +14,13 @@
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class represents an archive of data file artifacts generated from the CPIC database. This will write to a 
@@ -20,6 +28,10 @@
  * that will write out batches of files.
  * <p>
  * This will write to a directory with a pre-determined name that uses the current date in the name.
+ * <p>
+ * Each exporter uses its own connection and writes to its own subdirectory so they can be run at the same time with
+ * the <code>-t</code> option. When uploading, files from all exporters are uploaded as soon as they are written on a
+ * shared pool of <code>-p</code> threads.
  *
  * @author Ryan Whaley
  */
@@ -29,6 +41,9 @@ public class DataArtifactArchive {
 
   private Path m_baseDirectory;
   private boolean upload = false;
+  private int m_threads = 1;
+  private int m_uploadThreads = UploadManager.DEFAULT_THREADS;
+  private Set<OutputFormat> m_outputFormats = OutputFormat.parseList(null);
 
   public static void main(String[] args) {
     try {
@@ -44,11 +59,23 @@ private void parseArgs(String[] args) throws ParseException {
     Options options = new Options();
     options.addOption("d", true,"path to directory to write files to");
     options.addOption("u", false, "flag to upload generated files to FileStore (S3)");
+    options.addOption("t", true, "number of exporters to run at the same time (default 1)");
+    options.addOption("o", true, "comma-separated output formats: xlsx (default), csv, tsv");
+    options.addOption("p", true, "number of files to upload at the same time (default " + UploadManager.DEFAULT_THREADS + ")");
     CommandLineParser clParser = new DefaultParser();
     CommandLine cli = clParser.parse(options, args);
 
     m_baseDirectory = Paths.get(cli.getOptionValue("d"));
     upload = cli.hasOption("u");
+    m_outputFormats = OutputFormat.parseList(cli.getOptionValue("o"));
+    m_threads = Integer.parseInt(cli.getOptionValue("t", "1"));
+    if (m_threads < 1) {
+      throw new ParseException("Must have at least 1 thread");
+    }
+    m_uploadThreads = Integer.parseInt(cli.getOptionValue("p", String.valueOf(UploadManager.DEFAULT_THREADS)));
+    if (m_uploadThreads < 1) {
+      throw new ParseException("Must have at least 1 upload thread");
+    }
   }
   
   private void write() throws IOException {
@@ -74,16 +101,88 @@ private void write() throws IOException {
     exporters.add(new AlleleSummaryExporter());
     exporters.add(new ChangelogExporter());
 
+    // one upload manager for all exporters so files from every exporter share the upload threads
+    UploadManager uploadManager = upload ? new UploadManager(m_uploadThreads) : null;
     exporters.forEach(e -> {
-      Path dirPath = getDirectoryPath(e.getFileType().name().toLowerCase());
-      e.setDirectory(dirPath);
-      try {
-        e.setUpload(upload);
-        e.export();
-      } catch (Exception ex) {
-        throw new RuntimeException("Error exporting " + e.getClass().getSimpleName(), ex);
-      }
+      e.setDirectory(getDirectoryPath(e.getFileType().name().toLowerCase()));
+      e.setUpload(upload);
+      e.setUploadManager(uploadManager);
+      e.setOutputFormats(m_outputFormats);
     });
+
+    try {
+      if (m_threads > 1) {
+        writeInParallel(exporters);
+      } else {
+        exporters.forEach(e -> {
+          try {
+            export(e);
+          } catch (Exception ex) {
+            throw new RuntimeException("Error exporting " + e.getClass().getSimpleName(), ex);
+          }
+        });
+      }
+    } catch (RuntimeException ex) {
+      // still wait for the uploads that were started, but don't let an upload failure hide the export failure
+      if (uploadManager != null) {
+        try {
+          uploadManager.close();
+        } catch (RuntimeException closeEx) {
+          ex.addSuppressed(closeEx);
+        }
+      }
+      throw ex;
+    }
+    if (uploadManager != null) {
+      uploadManager.close();
+    }
+  }
+
+  /**
+   * Run exporters on a pool of threads. Failures are collected and reported together once all exporters have been
+   * tried.
+   *
+   * @param exporters the exporters to run
+   */
+  private void writeInParallel(List<BaseExporter> exporters) {
+    sf_logger.info("Running {} exporters on {} threads", exporters.size(), m_threads);
+    long start = System.currentTimeMillis();
+    Map<String, Exception> errors = new ConcurrentSkipListMap<>();
+    ExecutorService executor = Executors.newFixedThreadPool(m_threads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (BaseExporter exporter : exporters) {
+        futures.add(executor.submit(() -> {
+          try {
+            export(exporter);
+          } catch (Exception ex) {
+            sf_logger.error("Error exporting {}", exporter.getClass().getSimpleName(), ex);
+            errors.put(exporter.getClass().getSimpleName(), ex);
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException | ExecutionException ex) {
+      throw new RuntimeException("Error waiting for exporters to finish", ex);
+    } finally {
+      executor.shutdown();
+    }
+    sf_logger.info("Ran {} exporters in {} ms", exporters.size(), System.currentTimeMillis() - start);
+
+    if (!errors.isEmpty()) {
+      RuntimeException ex = new RuntimeException(errors.size() + " of " + exporters.size() + " exporters failed: " +
+          String.join(", ", errors.keySet()));
+      errors.values().forEach(ex::addSuppressed);
+      throw ex;
+    }
+  }
+
+  private void export(BaseExporter exporter) throws Exception {
+    long start = System.currentTimeMillis();
+    exporter.exportAndUpload();
+    sf_logger.info("{} finished in {} ms", exporter.getClass().getSimpleName(), System.currentTimeMillis() - start);
   }
   
   private Path getDirectoryPath(String filePath) {
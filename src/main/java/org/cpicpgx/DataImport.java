@@ -1,7 +1,8 @@
 package org.cpicpgx;
 
 import org.apache.commons.cli.*;
-import org.apache.poi.sl.draw.geom.Guide;
+import org.cpicpgx.db.ConnectionFactory;
+import org.cpicpgx.db.ReferenceDictionary;
 import org.cpicpgx.importer.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,6 +10,7 @@
 import java.lang.invoke.MethodHandles;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -16,13 +18,22 @@
 /**
  * An import task for getting all information from excel workbooks in the proper order and then inserting it into the 
  * database.
+ * <p>
+ * Each importer is declared with the tables it requires and the tables it writes to. Importers that don't depend on
+ * each other are run at the same time on a bounded pool of workers (see {@link ImportScheduler}). Importers look up
+ * drugs, genes, guidelines and phenotypes in a shared {@link ReferenceDictionary} that is reloaded after any stage that
+ * writes to those tables.
  *
  * @author Ryan Whaley
  */
 public class DataImport {
   private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
   private static final Options sf_options = new Options();
+  private static final int DEFAULT_WORKERS = 4;
   private final Path m_directory;
+  private int m_workers = DEFAULT_WORKERS;
+  private int m_fileThreads = 1;
+  private Path m_timelinePath = null;
 
   public static void main(String[] args) {
     try {
@@ -33,10 +44,34 @@ public static void main(String[] args) {
               .argName("dir")
               .required()
               .build());
+      sf_options.addOption(Option.builder("w")
+              .desc("number of importers to run at the same time, default " + DEFAULT_WORKERS + " (use 1 to run in order)")
+              .hasArg()
+              .argName("workers")
+              .build());
+      sf_options.addOption(Option.builder("f")
+              .desc("number of files each importer can process at the same time, default 1")
+              .hasArg()
+              .argName("threads")
+              .build());
+      sf_options.addOption(Option.builder("t")
+              .desc("optional CSV file to write the import timeline to")
+              .hasArg()
+              .argName("file")
+              .build());
       CommandLineParser clParser = new DefaultParser();
       CommandLine cli = clParser.parse(sf_options, args);
 
       DataImport processor = new DataImport(cli.getOptionValue("d"));
+      if (cli.hasOption("w")) {
+        processor.m_workers = Integer.parseInt(cli.getOptionValue("w"));
+      }
+      if (cli.hasOption("f")) {
+        processor.m_fileThreads = Integer.parseInt(cli.getOptionValue("f"));
+      }
+      if (cli.hasOption("t")) {
+        processor.m_timelinePath = Paths.get(cli.getOptionValue("t"));
+      }
       processor.execute();
 
     } catch (MissingOptionException ex) {
@@ -71,34 +106,117 @@ private DataImport(String directory) {
   }
 
   private void execute() throws Exception {
+    GeneReferenceImporter geneReferenceImporter = new GeneReferenceImporter();
+    DrugImporter drugImporter = new DrugImporter();
+    GuidelineImporter guidelineImporter = new GuidelineImporter();
+    AlleleDefinitionImporter alleleDefinitionImporter = new AlleleDefinitionImporter();
+    FunctionReferenceImporter functionReferenceImporter = new FunctionReferenceImporter();
+    GenePhenotypeImporter genePhenotypeImporter = new GenePhenotypeImporter();
+    GeneCdsImporter geneCdsImporter = new GeneCdsImporter();
+    AlleleFrequencyImporter alleleFrequencyImporter = new AlleleFrequencyImporter();
+    PairImporter pairImporter = new PairImporter();
+    RecommendationImporter recommendationImporter = new RecommendationImporter();
+    TestAlertImporter testAlertImporter = new TestAlertImporter();
 
     // order is important in this list, later importers may add data to previously imported data
     List<BaseDirectoryImporter> importers = new ArrayList<>();
-    importers.add(new GeneReferenceImporter().setDirectory(m_directory, null));
-    importers.add(new DrugImporter().setDirectory(m_directory, null));
-    importers.add(new GuidelineImporter().setDirectory(m_directory, null));
-    importers.add(new AlleleDefinitionImporter().setDirectory(m_directory, null));
-    importers.add(new FunctionReferenceImporter().setDirectory(m_directory, null));
-    importers.add(new GenePhenotypeImporter().setDirectory(m_directory, null));
-    importers.add(new GeneCdsImporter().setDirectory(m_directory, null));
-    importers.add(new AlleleFrequencyImporter().setDirectory(m_directory, null));
-    importers.add(new PairImporter().setDirectory(m_directory, null));
-    importers.add(new RecommendationImporter().setDirectory(m_directory, null));
-    importers.add(new TestAlertImporter().setDirectory(m_directory, null));
+    importers.add(geneReferenceImporter.setDirectory(m_directory, null));
+    importers.add(drugImporter.setDirectory(m_directory, null));
+    importers.add(guidelineImporter.setDirectory(m_directory, null));
+    importers.add(alleleDefinitionImporter.setDirectory(m_directory, null));
+    importers.add(functionReferenceImporter.setDirectory(m_directory, null));
+    importers.add(genePhenotypeImporter.setDirectory(m_directory, null));
+    importers.add(geneCdsImporter.setDirectory(m_directory, null));
+    importers.add(alleleFrequencyImporter.setDirectory(m_directory, null));
+    importers.add(pairImporter.setDirectory(m_directory, null));
+    importers.add(recommendationImporter.setDirectory(m_directory, null));
+    importers.add(testAlertImporter.setDirectory(m_directory, null));
     
+    importers.forEach(i -> i.setFileThreads(m_fileThreads));
+
     // reverse the importers before clearing data due to referential integrity
     Collections.reverse(importers);
     for (BaseDirectoryImporter importer : importers) {
       importer.clearAllData();
     }
+    ReferenceDictionary dictionary = ReferenceDictionary.getInstance();
+    reloadDictionary(dictionary);
 
-    // reverse again to put them in the "right" order for loading
-    Collections.reverse(importers);
-    for (BaseDirectoryImporter importer : importers) {
-      importer.execute();
+    // stages are declared in the "right" order for loading, a stage waits on any earlier stage that writes a table it
+    // requires or also writes
+    ImportScheduler scheduler = new ImportScheduler(m_workers);
+    // importers share one dictionary of reference data, reload it once a stage has written to what it was loaded from.
+    // the listener runs outside any transaction so stages don't have to load it while holding their own connection
+    scheduler.setStageListener((name, provides) -> {
+      if (!Collections.disjoint(provides, ReferenceDictionary.TABLES)) {
+        reloadDictionary(dictionary);
+      }
+    });
+    scheduler.add("GeneReference", geneReferenceImporter::execute,
+        tables(),
+        tables("gene"));
+    scheduler.add("Drug", drugImporter::execute,
+        tables(),
+        tables("drug"));
+    scheduler.add("Guideline", guidelineImporter::execute,
+        tables("drug"),
+        tables("guideline", "drug", "publication"));
+    scheduler.add("AlleleDefinition", alleleDefinitionImporter::execute,
+        tables("gene"),
+        tables("gene", "allele_definition", "allele", "sequence_location"));
+    scheduler.add("FunctionReference", functionReferenceImporter::execute,
+        tables("gene", "allele_definition", "allele"),
+        tables("gene", "allele_definition", "allele"));
+    scheduler.add("GenePhenotype", genePhenotypeImporter::execute,
+        tables("gene", "allele"),
+        tables("gene_result"));
+    scheduler.add("GeneCds", geneCdsImporter::execute,
+        tables("gene", "gene_result"),
+        tables("gene_result"));
+    // the calculated frequencies are only written to frequency columns of gene, allele and gene_result tables that no
+    // other stage reads or writes, so they're declared by column and don't hold up the stages that need those tables
+    scheduler.add("AlleleFrequency", alleleFrequencyImporter::execute,
+        tables("gene", "allele", "gene_result", "publication"),
+        tables("allele_frequency", "allele_frequency_summary", "population", "publication", "gene.frequencymethods",
+            "allele.frequency", "gene_result.frequency", "gene_result_diplotype.frequency"));
+    scheduler.add("Pair", pairImporter::execute,
+        tables("gene", "drug", "guideline"),
+        tables("pair", "drug", "guideline"));
+    scheduler.add("Recommendation", recommendationImporter::execute,
+        tables("gene", "drug", "guideline", "pair", "gene_result"),
+        tables("recommendation", "diplotype_recommendation"));
+    scheduler.add("TestAlert", testAlertImporter::execute,
+        tables("gene", "drug", "gene_result"),
+        tables("test_alert", "diplotype_test_alert"));
+    // load PharmVar data
+    scheduler.add("PharmVar", PharmVarApiImporter::execute,
+        tables("allele_definition"),
+        tables("allele_definition"));
+
+    try {
+      scheduler.run();
+    } finally {
+      scheduler.logTimeline();
+      ConnectionFactory.logPoolStats();
+      if (m_timelinePath != null) {
+        scheduler.writeTimeline(m_timelinePath);
+      }
     }
+  }
 
-    // load PharmVar data
-    PharmVarApiImporter.execute();
+  private static String[] tables(String... tableNames) {
+    return tableNames;
+  }
+
+  /**
+   * Drop the dictionary and load it again right away. If the load fails the next lookup tries again.
+   */
+  private static void reloadDictionary(ReferenceDictionary dictionary) {
+    dictionary.invalidate();
+    try {
+      dictionary.load();
+    } catch (SQLException ex) {
+      sf_logger.warn("Couldn't reload the reference dictionary, it will be loaded on the next lookup", ex);
+    }
   }
 }
@@ -19,6 +19,11 @@
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class fills in the gaps of frequency data that is not present when filling out an allele frequency file for a
@@ -31,37 +36,235 @@
  *
  * This class should be safe to run multiple times. It will overwrite data in tables but it will always be the most
  * recent and accurate data.
+ * <p>
+ * There are three engines that give the same results. The {@link Engine#SQL} engine (default) does each step with a
+ * single set-based statement, the {@link Engine#MEMORY} engine calculates diplotypes and phenotypes in a
+ * {@link FrequencyModel} and the {@link Engine#ROW} engine looks up and writes each allele, diplotype and phenotype
+ * individually.
+ * <p>
+ * The SQL and memory engines can also run incrementally. Everything is still calculated but only rows whose values
+ * changed are written, which keeps reruns from rewriting (and re-versioning) rows that are already correct.
  */
 public class FrequencyGenerator {
   private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
-  private static final String[] ALLOW_ALLELES = new String[]{
+  static final String[] ALLOW_ALLELES = new String[]{
       "CYP4F2",
       "HLA-A",
       "HLA-B",
       "VKORC1"
   };
+  //language=PostgreSQL
+  static final String POPULATION_SQL = "select distinct f.population, p.ethnicity\n" +
+      "from allele_frequency f\n" +
+      "    join allele a on f.alleleid = a.id\n" +
+      "    join population p on f.population = p.id\n" +
+      "where a.genesymbol=?";
+  //language=PostgreSQL
+  static final String REFERENCE_ALLELE_SQL =
+      "select a.id, a.name from allele a where a.genesymbol=? and a.inferredfrequency = true";
+  //language=PostgreSQL
+  private static final String FREQUENCY_GENES_SQL = "select distinct a.genesymbol from allele a " +
+      "where exists(select 1 from allele_frequency f where f.alleleid = a.id) order by a.genesymbol";
+  private static final int DEFAULT_THREADS = 4;
+  //language=PostgreSQL
+  private static final String REFRESH_SUMMARY_SQL = "select refresh_allele_frequency_summary(?::text[])";
+  //language=PostgreSQL
+  static final String ALLELE_SQL = "select id,name from allele a " +
+      "where a.genesymbol=? and (a.clinicalfunctionalstatus is not null or array[a.genesymbol] <@ ?) and a.name != 'Reference'";
+
+  /**
+   * The ways frequencies can be calculated
+   */
+  public enum Engine {
+    /** look up and write each allele, diplotype and phenotype one at a time */
+    ROW,
+    /** calculate each step with one set-based SQL statement */
+    SQL,
+    /** calculate allele frequencies in SQL, then diplotype and phenotype frequencies in an in-memory model */
+    MEMORY
+  }
+
+  private static class GeneSummary {
+    private final int rows;
+    private final long elapsed;
+
+    GeneSummary(int rows, long elapsed) {
+      this.rows = rows;
+      this.elapsed = elapsed;
+    }
+  }
+
   private final String f_gene;
+  private final Engine f_engine;
+  private final boolean f_incremental;
 
   public static void main(String[] args) {
     try {
       Options options = new Options();
       options.addOption("g", true,"gene to work on");
+      options.addOption("a", "all", false, "work on every gene that has allele frequency data");
+      options.addOption("t", true, "number of genes to work on at the same time when using --all (default " + DEFAULT_THREADS + ")");
+      options.addOption("e", true,"engine to use: sql (default), memory or row");
+      options.addOption("i", "incremental", false, "only write rows whose frequencies have changed (sql and memory engines)");
       CommandLineParser parser = new DefaultParser();
       CommandLine cli = parser.parse(options, args);
-      String gene = cli.getOptionValue("g");
-
-      FrequencyGenerator frequencyGenerator = new FrequencyGenerator(gene);
-      frequencyGenerator.calculate();
+      Engine engine = Engine.valueOf(cli.getOptionValue("e", Engine.SQL.name()).toUpperCase());
+      boolean incremental = cli.hasOption("i");
+
+      if (cli.hasOption("a")) {
+        int threads = Integer.parseInt(cli.getOptionValue("t", String.valueOf(DEFAULT_THREADS)));
+        calculateAll(lookupFrequencyGenes(), engine, incremental, threads);
+      } else {
+        String gene = cli.getOptionValue("g");
+        FrequencyGenerator frequencyGenerator = new FrequencyGenerator(gene, engine, incremental);
+        frequencyGenerator.calculate();
+      }
     } catch (Exception ex) {
       sf_logger.error("Error generating frequency data", ex);
     }
   }
 
+  /**
+   * Finds every gene that has allele frequency data
+   * @return a sorted list of gene symbols
+   */
+  public static List<String> lookupFrequencyGenes() throws SQLException {
+    List<String> genes = new ArrayList<>();
+    try (
+        Connection conn = ConnectionFactory.newConnection();
+        PreparedStatement stmt = conn.prepareStatement(FREQUENCY_GENES_SQL);
+        ResultSet rs = stmt.executeQuery()
+    ) {
+      while (rs.next()) {
+        genes.add(rs.getString(1));
+      }
+    }
+    return genes;
+  }
+
+  /**
+   * Brings the <code>allele_frequency_summary</code> rows for the given genes up to date. Call this after writing to
+   * <code>allele_frequency</code> so the summary, and the frequency reads that use it, see the new data. Only rows whose
+   * aggregates changed are written.
+   * @param conn the connection to refresh on, so it's part of the same transaction as the writes
+   * @param genes the gene symbols to refresh
+   */
+  public static void refreshSummary(Connection conn, Collection<String> genes) throws SQLException {
+    try (PreparedStatement stmt = conn.prepareStatement(REFRESH_SUMMARY_SQL)) {
+      stmt.setArray(1, conn.createArrayOf("text", genes.toArray()));
+      stmt.execute();
+    }
+  }
+
+  /**
+   * Calculates frequencies for many genes on a pool of threads. Each gene is calculated in its own transaction so a
+   * failure in one gene will roll back only that gene. Failures are collected and reported together once all genes
+   * have been tried, followed by a summary of the time taken and rows written for each gene.
+   *
+   * @param genes the gene symbols to calculate
+   * @param engine the engine to calculate with
+   * @param incremental true to only write rows whose values have changed
+   * @param threads the number of genes to calculate at the same time
+   */
+  public static void calculateAll(List<String> genes, Engine engine, boolean incremental, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Must have at least 1 thread");
+    }
+    sf_logger.info("Calculating frequencies for {} genes on {} threads", genes.size(), threads);
+    long start = System.currentTimeMillis();
+    Map<String, GeneSummary> summaries = new ConcurrentSkipListMap<>();
+    Map<String, Exception> errors = new ConcurrentSkipListMap<>();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (String gene : genes) {
+        futures.add(executor.submit(() -> {
+          long geneStart = System.currentTimeMillis();
+          try {
+            int[] rows = new int[1];
+            ConnectionFactory.inTransaction(() -> rows[0] = new FrequencyGenerator(gene, engine, incremental).calculate());
+            summaries.put(gene, new GeneSummary(rows[0], System.currentTimeMillis() - geneStart));
+          } catch (Exception ex) {
+            sf_logger.error("Failed calculating frequencies for {}", gene, ex);
+            errors.put(gene, ex);
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException | ExecutionException ex) {
+      throw new RuntimeException("Error waiting for frequencies to calculate", ex);
+    } finally {
+      executor.shutdown();
+    }
+
+    summaries.forEach((gene, summary) ->
+        sf_logger.info("{}: {} rows written in {} ms", gene, summary.rows, summary.elapsed));
+    sf_logger.info("Calculated {} of {} genes in {} ms", summaries.size(), genes.size(), System.currentTimeMillis() - start);
+
+    if (!errors.isEmpty()) {
+      RuntimeException ex = new RuntimeException(errors.size() + " of " + genes.size() + " genes failed: " +
+          String.join(", ", errors.keySet()));
+      errors.values().forEach(ex::addSuppressed);
+      throw ex;
+    }
+  }
+
   public FrequencyGenerator(String gene) {
+    this(gene, Engine.SQL);
+  }
+
+  public FrequencyGenerator(String gene, Engine engine) {
+    this(gene, engine, false);
+  }
+
+  public FrequencyGenerator(String gene, Engine engine, boolean incremental) {
+    if (incremental && engine == Engine.ROW) {
+      throw new IllegalArgumentException("The row engine can't run incrementally");
+    }
     f_gene = gene;
+    f_engine = engine;
+    f_incremental = incremental;
   }
 
-  public void calculate() throws Exception {
+  /**
+   * Calculates all the frequencies for the gene
+   * @return the number of rows written
+   */
+  public int calculate() throws Exception {
+    long start = System.currentTimeMillis();
+    int rows;
+    if (f_engine == Engine.SQL) {
+      rows = new SqlFrequencyEngine(f_gene, f_incremental).calculate();
+    } else if (f_engine == Engine.MEMORY) {
+      rows = new MemoryFrequencyEngine(f_gene, f_incremental).calculate();
+    } else {
+      rows = calculateByRow();
+    }
+    sf_logger.debug("calculated {} frequencies with {} engine, {} rows in {} ms", f_gene, f_engine, rows,
+        System.currentTimeMillis() - start);
+    return rows;
+  }
+
+  /**
+   * Checks whether the gene is on the X chromosome, frequencies for diplotypes and phenotypes aren't calculated for
+   * those
+   */
+  static boolean isXLinked(Connection conn, String geneSymbol) throws SQLException {
+    try (PreparedStatement findChromosome = conn.prepareStatement("select chr from gene where symbol=?")) {
+      findChromosome.setString(1, geneSymbol);
+      String chr = null;
+      try (ResultSet rs = findChromosome.executeQuery()) {
+        while (rs.next()) {
+          chr = rs.getString(1);
+        }
+      }
+      return chr != null && chr.equalsIgnoreCase("chrX");
+    }
+  }
+
+  private int calculateByRow() throws Exception {
     try (DataHarness dataHarness = new DataHarness(f_gene)) {
       Set<Integer> popIds = dataHarness.lookupPopulations();
       sf_logger.debug("make data for population {}", popIds);
@@ -82,6 +285,10 @@ public void calculate() throws Exception {
             throw new RuntimeException("No frequency data written");
           }
         }
+        // the importer refreshes the summary for what it wrote, only the reference frequencies can have changed since
+        if (!popIds.isEmpty()) {
+          refreshSummary(dataHarness.conn, List.of(f_gene));
+        }
       }
       // END Assign reference frequency
 
@@ -135,6 +342,7 @@ public void calculate() throws Exception {
       // START Assign phenotype frequency
       dataHarness.updatePhenotypeFrequencies();
       // END Assign phenotype frequency
+      return dataHarness.getWriteCount();
     }
   }
 
@@ -151,7 +359,8 @@ private static class DataHarness implements AutoCloseable {
     PreparedStatement updateAlleleFrequency;
     PreparedStatement insertAlleleFrequency;
     PreparedStatement findAlleleFrequency;
-    PreparedStatement findChromosome;
+    PreparedStatement lookupFrequency;
+    private int m_writeCount = 0;
 
     DataHarness(String geneSymbol) throws SQLException {
       conn = ConnectionFactory.newConnection();
@@ -162,7 +371,8 @@ private static class DataHarness implements AutoCloseable {
               "on conflict (alleleid, population) do update set frequency=excluded.frequency, label=excluded.label");
       updateAlleleFrequency = conn.prepareStatement("update allele set frequency=?::jsonb where id=?");
       findAlleleFrequency = conn.prepareStatement("select frequency -> ? from allele where genesymbol=? and name=?");
-      findChromosome = conn.prepareStatement("select chr from gene where symbol=?");
+      lookupFrequency = conn.prepareStatement(
+          "select freq_weighted_avg from allele_frequency_summary where alleleid=? and population_group=?");
     }
 
     /**
@@ -176,8 +386,7 @@ private static class DataHarness implements AutoCloseable {
     Integer lookupRefAlleleId() throws SQLException {
       if (geneSymbol.startsWith("HLA")) return m_referenceAlleleId;
 
-      PreparedStatement refAlleleStmt = conn.prepareStatement(
-          "select a.id, a.name from allele a where a.genesymbol=? and a.inferredfrequency = true");
+      PreparedStatement refAlleleStmt = conn.prepareStatement(REFERENCE_ALLELE_SQL);
       refAlleleStmt.setString(1, this.geneSymbol);
       try (ResultSet rs = refAlleleStmt.executeQuery()) {
         boolean foundOne = false;
@@ -203,11 +412,7 @@ SortedSet<String> getEthnicitySet() {
     }
 
     Set<Integer> lookupPopulations() throws SQLException {
-      PreparedStatement stmt = conn.prepareStatement("select distinct f.population, p.ethnicity\n" +
-          "from allele_frequency f\n" +
-          "    join allele a on f.alleleid = a.id\n" +
-          "    join population p on f.population = p.id\n" +
-          "where a.genesymbol=?");
+      PreparedStatement stmt = conn.prepareStatement(POPULATION_SQL);
       stmt.setString(1, geneSymbol);
       Set<Integer> popIds = new HashSet<>();
       try (ResultSet rs = stmt.executeQuery()) {
@@ -220,8 +425,7 @@ Set<Integer> lookupPopulations() throws SQLException {
     }
 
     SortedMap<String,Integer> lookupAlleles() throws SQLException {
-      PreparedStatement stmt = conn.prepareStatement("select id,name from allele a " +
-          "where a.genesymbol=? and (a.clinicalfunctionalstatus is not null or array[a.genesymbol] <@ ?) and a.name != 'Reference'");
+      PreparedStatement stmt = conn.prepareStatement(ALLELE_SQL);
       stmt.setString(1, geneSymbol);
       stmt.setArray(2, conn.createArrayOf("VARCHAR", ALLOW_ALLELES));
       try (ResultSet rs = stmt.executeQuery()) {
@@ -249,29 +453,23 @@ Float lookupNonreferenceFrequency(Integer popId) throws SQLException {
       return freq;
     }
 
+    /**
+     * Gets the subject-weighted average frequency of an allele in a population group from
+     * <code>allele_frequency_summary</code>
+     * @return the frequency or null if no population in the group has a frequency for the allele
+     */
     @Nullable
     Float lookupFrequency(String ethnicity, Integer alleleId) throws SQLException {
-      PreparedStatement stmt = conn.prepareStatement("SELECT" +
-          "       sum(p.subjectcount)," +
-          "       sum(p.subjectcount::numeric * af.frequency / 100::numeric) / sum(p.subjectcount)::numeric * 100::numeric," +
-          "       bool_or(af.frequency is not null) " +
-          "FROM population p" +
-          "         JOIN allele_frequency af ON p.id = af.population" +
-          "         JOIN allele a ON af.alleleid = a.id " +
-          "WHERE af.frequency IS NOT NULL and af.alleleid=? and p.ethnicity=?");
-      stmt.setInt(1, alleleId);
-      stmt.setString(2, ethnicity);
+      lookupFrequency.setInt(1, alleleId);
+      lookupFrequency.setString(2, ethnicity);
       Float freq = null;
-      try (ResultSet rs = stmt.executeQuery()) {
+      try (ResultSet rs = lookupFrequency.executeQuery()) {
         if (rs.next()) {
-          boolean hasData = rs.getBoolean(3);
-          if (hasData) {
-            freq = rs.getFloat(2);
+          float value = rs.getFloat(1);
+          if (!rs.wasNull()) {
+            freq = value;
           }
         }
-        if (rs.next()) {
-          throw new RuntimeException("Single result expected");
-        }
       }
       return freq;
     }
@@ -387,7 +585,7 @@ void updatePhenotypeFrequencies() throws SQLException {
           }
           updateStmt.setString(1, frequencyObject.toString());
           updateStmt.setInt(2, phenotypeId);
-          int result = updateStmt.executeUpdate();
+          int result = countWrites(updateStmt.executeUpdate());
           if (result != 1) {
             throw new RuntimeException("Unexpected failure to update phenotype");
           }
@@ -402,30 +600,32 @@ int writeReferenceFrequency(Integer alleleId, Integer popId, Float freq) throws
       insertAlleleFrequency.setInt(2, popId);
       insertAlleleFrequency.setFloat(3, freq);
       insertAlleleFrequency.setString(4, freq.toString());
-      return insertAlleleFrequency.executeUpdate();
+      return countWrites(insertAlleleFrequency.executeUpdate());
     }
 
     int writeDiplotypeFrequency(Integer diplotypeId, JsonObject frequencyObject) throws SQLException {
       updateDiplotypeFrequency.setString(1, frequencyObject.toString());
       updateDiplotypeFrequency.setInt(2, diplotypeId);
-      return updateDiplotypeFrequency.executeUpdate();
+      return countWrites(updateDiplotypeFrequency.executeUpdate());
     }
 
     int writeAlleleFrequency(Integer alleleId, JsonObject frequency) throws SQLException {
       updateAlleleFrequency.setString(1, frequency.toString());
       updateAlleleFrequency.setInt(2, alleleId);
-      return updateAlleleFrequency.executeUpdate();
+      return countWrites(updateAlleleFrequency.executeUpdate());
+    }
+
+    private int countWrites(int count) {
+      m_writeCount += count;
+      return count;
+    }
+
+    int getWriteCount() {
+      return m_writeCount;
     }
 
     boolean isXLinked() throws SQLException {
-      findChromosome.setString(1, geneSymbol);
-      String chr = null;
-      try (ResultSet rs = findChromosome.executeQuery()) {
-        while (rs.next()) {
-          chr = rs.getString(1);
-        }
-      }
-      return chr != null && chr.equalsIgnoreCase("chrX");
+      return FrequencyGenerator.isXLinked(conn, geneSymbol);
     }
 
     @Override
@@ -0,0 +1,231 @@
+package org.cpicpgx;
+
+import com.google.gson.stream.JsonWriter;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory model of the frequency data for one gene. Allele names are interned to int indexes and frequencies are
+ * kept in dense <code>float[ethnicity][allele]</code> arrays so diplotype products and phenotype sums can be calculated
+ * in tight loops without boxing or building JSON objects.
+ * <p>
+ * Missing frequencies are stored as <code>NaN</code> and are only turned into JSON <code>null</code> when the values
+ * are serialized for writing.
+ */
+class FrequencyModel {
+  private static final int sf_initialCapacity = 16;
+
+  private final String[] f_ethnicities;
+  private final Map<String,Integer> f_alleleIndex = new HashMap<>();
+  private float[][] m_alleleFrequencies;
+
+  private int[] m_diplotypeIds = new int[sf_initialCapacity];
+  private int[] m_diplotypePhenotype = new int[sf_initialCapacity];
+  private int[] m_diplotypeAllele1 = new int[sf_initialCapacity];
+  private int[] m_diplotypeAllele2 = new int[sf_initialCapacity];
+  private int m_diplotypeCount = 0;
+  private float[][] m_diplotypeFrequencies;
+
+  private int[] m_phenotypeIds = new int[sf_initialCapacity];
+  private int m_phenotypeCount = 0;
+  private float[][] m_phenotypeFrequencies;
+
+  FrequencyModel(List<String> ethnicities) {
+    f_ethnicities = ethnicities.toArray(new String[0]);
+    m_alleleFrequencies = new float[f_ethnicities.length][sf_initialCapacity];
+    for (float[] row : m_alleleFrequencies) {
+      Arrays.fill(row, Float.NaN);
+    }
+  }
+
+  int getEthnicityCount() {
+    return f_ethnicities.length;
+  }
+
+  int getDiplotypeCount() {
+    return m_diplotypeCount;
+  }
+
+  int getPhenotypeCount() {
+    return m_phenotypeCount;
+  }
+
+  int getDiplotypeId(int index) {
+    return m_diplotypeIds[index];
+  }
+
+  int getPhenotypeId(int index) {
+    return m_phenotypeIds[index];
+  }
+
+  /**
+   * Gets the index for the allele, assigning the next one if it hasn't been seen before
+   */
+  int internAllele(String alleleName) {
+    Integer index = f_alleleIndex.get(alleleName);
+    if (index == null) {
+      index = f_alleleIndex.size();
+      f_alleleIndex.put(alleleName, index);
+      if (f_ethnicities.length > 0 && index >= m_alleleFrequencies[0].length) {
+        int newSize = m_alleleFrequencies[0].length * 2;
+        for (int e = 0; e < f_ethnicities.length; e++) {
+          int oldSize = m_alleleFrequencies[e].length;
+          m_alleleFrequencies[e] = Arrays.copyOf(m_alleleFrequencies[e], newSize);
+          Arrays.fill(m_alleleFrequencies[e], oldSize, newSize, Float.NaN);
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Sets the frequency of an allele for one ethnicity, ethnicities that aren't in the model are ignored
+   */
+  void setAlleleFrequency(String alleleName, String ethnicity, float frequency) {
+    int e = ethnicityIndex(ethnicity);
+    if (e < 0) return;
+    m_alleleFrequencies[e][internAllele(alleleName)] = frequency;
+  }
+
+  float getAlleleFrequency(String alleleName, String ethnicity) {
+    Integer a = f_alleleIndex.get(alleleName);
+    int e = ethnicityIndex(ethnicity);
+    if (a == null || e < 0) return Float.NaN;
+    return m_alleleFrequencies[e][a];
+  }
+
+  /**
+   * Adds a phenotype to the model
+   * @return the index of the phenotype to use when adding its diplotypes
+   */
+  int addPhenotype(int phenotypeId) {
+    if (m_phenotypeCount == m_phenotypeIds.length) {
+      m_phenotypeIds = Arrays.copyOf(m_phenotypeIds, m_phenotypeCount * 2);
+    }
+    m_phenotypeIds[m_phenotypeCount] = phenotypeId;
+    return m_phenotypeCount++;
+  }
+
+  /**
+   * Adds a diplotype to the model
+   * @param diplotypeId the ID of the gene_result_diplotype row
+   * @param phenotypeIndex the index returned by {@link #addPhenotype(int)} for the phenotype this diplotype belongs to
+   * @param allele1 the first allele
+   * @param allele2 the second allele, null when the diplotype is homozygous
+   */
+  void addDiplotype(int diplotypeId, int phenotypeIndex, String allele1, @Nullable String allele2) {
+    if (phenotypeIndex < 0 || phenotypeIndex >= m_phenotypeCount) {
+      throw new IllegalArgumentException("Unknown phenotype index " + phenotypeIndex);
+    }
+    if (m_diplotypeCount == m_diplotypeIds.length) {
+      int newSize = m_diplotypeCount * 2;
+      m_diplotypeIds = Arrays.copyOf(m_diplotypeIds, newSize);
+      m_diplotypePhenotype = Arrays.copyOf(m_diplotypePhenotype, newSize);
+      m_diplotypeAllele1 = Arrays.copyOf(m_diplotypeAllele1, newSize);
+      m_diplotypeAllele2 = Arrays.copyOf(m_diplotypeAllele2, newSize);
+    }
+    m_diplotypeIds[m_diplotypeCount] = diplotypeId;
+    m_diplotypePhenotype[m_diplotypeCount] = phenotypeIndex;
+    m_diplotypeAllele1[m_diplotypeCount] = internAllele(allele1);
+    m_diplotypeAllele2[m_diplotypeCount] = allele2 == null ? -1 : internAllele(allele2);
+    m_diplotypeCount += 1;
+  }
+
+  /**
+   * Calculates the frequency of every diplotype (p² for homozygous, 2pq for heterozygous) and then the frequency of
+   * every phenotype as the sum of its diplotypes that have a frequency.
+   */
+  void calculate() {
+    int ethCount = f_ethnicities.length;
+    m_diplotypeFrequencies = new float[ethCount][m_diplotypeCount];
+    m_phenotypeFrequencies = new float[ethCount][m_phenotypeCount];
+    double[] phenotypeSums = new double[m_phenotypeCount];
+
+    for (int e = 0; e < ethCount; e++) {
+      float[] alleleFreqs = m_alleleFrequencies[e];
+      float[] dipFreqs = m_diplotypeFrequencies[e];
+      Arrays.fill(phenotypeSums, 0d);
+
+      for (int d = 0; d < m_diplotypeCount; d++) {
+        float p = alleleFreqs[m_diplotypeAllele1[d]];
+        int a2 = m_diplotypeAllele2[d];
+        float f = a2 < 0 ? p * p : p * alleleFreqs[a2] * 2;
+        dipFreqs[d] = f;
+        if (!Float.isNaN(f)) {
+          phenotypeSums[m_diplotypePhenotype[d]] += f;
+        }
+      }
+
+      float[] phenoFreqs = m_phenotypeFrequencies[e];
+      for (int p = 0; p < m_phenotypeCount; p++) {
+        phenoFreqs[p] = (float)phenotypeSums[p];
+      }
+    }
+  }
+
+  float getDiplotypeFrequency(int diplotypeIndex, int ethnicityIndex) {
+    checkCalculated();
+    return m_diplotypeFrequencies[ethnicityIndex][diplotypeIndex];
+  }
+
+  float getPhenotypeFrequency(int phenotypeIndex, int ethnicityIndex) {
+    checkCalculated();
+    return m_phenotypeFrequencies[ethnicityIndex][phenotypeIndex];
+  }
+
+  /**
+   * Serializes the frequencies of one diplotype to a JSON object keyed by ethnicity
+   */
+  String diplotypeFrequencyJson(int diplotypeIndex) {
+    checkCalculated();
+    return toJson(m_diplotypeFrequencies, diplotypeIndex);
+  }
+
+  /**
+   * Serializes the frequencies of one phenotype to a JSON object keyed by ethnicity
+   */
+  String phenotypeFrequencyJson(int phenotypeIndex) {
+    checkCalculated();
+    return toJson(m_phenotypeFrequencies, phenotypeIndex);
+  }
+
+  private String toJson(float[][] frequencies, int index) {
+    StringWriter out = new StringWriter();
+    try (JsonWriter writer = new JsonWriter(out)) {
+      writer.beginObject();
+      for (int e = 0; e < f_ethnicities.length; e++) {
+        writer.name(f_ethnicities[e]);
+        float f = frequencies[e][index];
+        if (Float.isNaN(f)) {
+          writer.nullValue();
+        } else {
+          writer.value((Number)f);
+        }
+      }
+      writer.endObject();
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+    return out.toString();
+  }
+
+  private int ethnicityIndex(String ethnicity) {
+    for (int i = 0; i < f_ethnicities.length; i++) {
+      if (f_ethnicities[i].equals(ethnicity)) return i;
+    }
+    return -1;
+  }
+
+  private void checkCalculated() {
+    if (m_diplotypeFrequencies == null) {
+      throw new IllegalStateException("Frequencies have not been calculated");
+    }
+  }
+}
@@ -0,0 +1,251 @@
+package org.cpicpgx;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs a graph of import stages on a bounded pool of worker threads.
+ * <p>
+ * Each stage declares the tables it requires and the tables it provides (writes to). A stage will only start after
+ * every stage that was added <em>before</em> it and provides one of its required tables has finished. Stages that
+ * provide the same table are run one after the other in the order they were added. Edges only ever point to earlier
+ * stages, so the graph can never have a cycle and a pool of one worker runs the stages in exactly the order they were
+ * added.
+ * <p>
+ * If a stage fails, no further stages are started, the stages already running are allowed to finish, and the first
+ * failure is thrown from {@link ImportScheduler#run()}.
+ * <p>
+ * A timeline of when each stage started and finished is kept and can be logged or written to a CSV file.
+ */
+public class ImportScheduler {
+  private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final int f_workers;
+  private final List<Stage> f_stages = new ArrayList<>();
+  private Instant m_start;
+  private StageListener m_stageListener;
+
+  /**
+   * A unit of work for a stage
+   */
+  @FunctionalInterface
+  public interface Task {
+    void execute() throws Exception;
+  }
+
+  /**
+   * Something to do after each stage finishes, called on the stage's worker thread whether the stage succeeded or not
+   */
+  @FunctionalInterface
+  public interface StageListener {
+    void stageFinished(String name, Set<String> provides);
+  }
+
+  /**
+   * Constructor
+   * @param workers the maximum number of stages to run at the same time, must be at least 1
+   */
+  public ImportScheduler(int workers) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("Must have at least 1 worker");
+    }
+    f_workers = workers;
+  }
+
+  /**
+   * Add a stage to the graph
+   * @param name a unique name for the stage, used in logging and the timeline
+   * @param task the work to do for this stage
+   * @param requires the tables this stage reads from or depends on being loaded
+   * @param provides the tables this stage writes to
+   * @return this scheduler
+   */
+  public ImportScheduler add(String name, Task task, String[] requires, String[] provides) {
+    if (f_stages.stream().anyMatch(s -> s.name.equals(name))) {
+      throw new IllegalArgumentException("Stage already added: " + name);
+    }
+    Stage stage = new Stage(name, task, Set.of(requires), Set.of(provides));
+    for (Stage earlier : f_stages) {
+      if (!Collections.disjoint(stage.requires, earlier.provides) ||
+          !Collections.disjoint(stage.provides, earlier.provides)) {
+        stage.dependencies.add(earlier);
+      }
+    }
+    f_stages.add(stage);
+    return this;
+  }
+
+  /**
+   * Set something to call after each stage finishes, before any stage that depends on it starts
+   * @param stageListener the listener
+   * @return this scheduler
+   */
+  public ImportScheduler setStageListener(StageListener stageListener) {
+    m_stageListener = stageListener;
+    return this;
+  }
+
+  /**
+   * Gets the names of the stages the named stage will wait on before starting
+   * @param name the name of a stage
+   * @return a sorted set of stage names
+   */
+  SortedSet<String> getDependencies(String name) {
+    Stage stage = f_stages.stream()
+        .filter(s -> s.name.equals(name))
+        .findFirst()
+        .orElseThrow(() -> new IllegalArgumentException("No stage named " + name));
+    SortedSet<String> names = new TreeSet<>();
+    stage.dependencies.forEach(d -> names.add(d.name));
+    return names;
+  }
+
+  /**
+   * Run all the stages in the graph, blocks until all stages are done
+   * @throws Exception the first exception thrown by a stage
+   */
+  public void run() throws Exception {
+    m_start = Instant.now();
+    ExecutorService executor = Executors.newFixedThreadPool(f_workers);
+    CompletionService<Stage> completionService = new ExecutorCompletionService<>(executor);
+    Set<Stage> pending = new LinkedHashSet<>(f_stages);
+    Set<Stage> finished = new HashSet<>();
+    Exception failure = null;
+    int running = 0;
+
+    try {
+      while (true) {
+        if (failure == null) {
+          for (Iterator<Stage> it = pending.iterator(); it.hasNext(); ) {
+            Stage stage = it.next();
+            if (finished.containsAll(stage.dependencies)) {
+              it.remove();
+              running += 1;
+              completionService.submit(() -> {
+                try {
+                  stage.execute();
+                } finally {
+                  if (m_stageListener != null) {
+                    m_stageListener.stageFinished(stage.name, stage.provides);
+                  }
+                }
+                return stage;
+              });
+            }
+          }
+        }
+        if (running == 0) {
+          break;
+        }
+
+        Future<Stage> done = completionService.take();
+        running -= 1;
+        try {
+          finished.add(done.get());
+        } catch (ExecutionException ex) {
+          if (failure == null) {
+            failure = ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+          }
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    if (failure != null) {
+      pending.forEach(s -> sf_logger.warn("Skipped {} due to an earlier failure", s.name));
+      throw failure;
+    }
+  }
+
+  /**
+   * Logs when each stage started and finished, relative to the start of the run
+   */
+  public void logTimeline() {
+    if (m_start == null) return;
+
+    for (Stage stage : f_stages) {
+      if (stage.startTime == null) continue;
+      sf_logger.info("{} started +{}s, finished +{}s, took {}s on {}",
+          stage.name,
+          offset(stage.startTime),
+          stage.endTime == null ? "?" : offset(stage.endTime),
+          stage.endTime == null ? "?" : Duration.between(stage.startTime, stage.endTime).toMillis() / 1000d,
+          stage.threadName);
+    }
+    sf_logger.info("All stages finished in {}s", offset(Instant.now()));
+  }
+
+  /**
+   * Write the timeline for each stage to a CSV file
+   * @param filePath the path of the file to write
+   * @throws IOException can occur when writing the file
+   */
+  public void writeTimeline(Path filePath) throws IOException {
+    try (CSVPrinter printer = new CSVPrinter(new FileWriter(filePath.toFile()), CSVFormat.EXCEL)) {
+      printer.printRecord("stage", "depends on", "thread", "started", "finished", "start offset (s)", "end offset (s)", "duration (s)");
+      for (Stage stage : f_stages) {
+        if (stage.startTime == null) {
+          printer.printRecord(stage.name, String.join("; ", getDependencies(stage.name)), "", "", "", "", "", "");
+          continue;
+        }
+        printer.printRecord(
+            stage.name,
+            String.join("; ", getDependencies(stage.name)),
+            stage.threadName,
+            stage.startTime,
+            stage.endTime,
+            offset(stage.startTime),
+            stage.endTime == null ? "" : offset(stage.endTime),
+            stage.endTime == null ? "" : Duration.between(stage.startTime, stage.endTime).toMillis() / 1000d
+        );
+      }
+    }
+    sf_logger.info("Wrote import timeline to {}", filePath);
+  }
+
+  private double offset(Instant time) {
+    return Duration.between(m_start, time).toMillis() / 1000d;
+  }
+
+  private static class Stage {
+    final String name;
+    final Task task;
+    final Set<String> requires;
+    final Set<String> provides;
+    final Set<Stage> dependencies = new HashSet<>();
+    volatile Instant startTime;
+    volatile Instant endTime;
+    volatile String threadName;
+
+    Stage(String name, Task task, Set<String> requires, Set<String> provides) {
+      this.name = name;
+      this.task = task;
+      this.requires = requires;
+      this.provides = provides;
+    }
+
+    void execute() throws Exception {
+      threadName = Thread.currentThread().getName();
+      startTime = Instant.now();
+      sf_logger.info("Starting {}", name);
+      try {
+        task.execute();
+      } finally {
+        endTime = Instant.now();
+      }
+      sf_logger.info("Finished {}", name);
+    }
+  }
+}
@@ -0,0 +1,231 @@
+package org.cpicpgx;
+
+import org.cpicpgx.db.ConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+/**
+ * Calculates frequencies with the set-based SQL statements from {@link SqlFrequencyEngine} for the reference and
+ * allele steps, then loads the allele frequencies and diplotype definitions into a {@link FrequencyModel} and calculates
+ * diplotype and phenotype frequencies in memory. The database is only touched again to write the results as batched
+ * updates. In incremental mode those updates skip rows whose stored frequency is already the same.
+ */
+class MemoryFrequencyEngine {
+  private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  //language=PostgreSQL
+  private static final String sf_flagSql =
+      "select includediplotypefrequencies is true, includephenotypefrequencies is true from gene where symbol=?";
+  //language=PostgreSQL
+  private static final String sf_alleleFrequencySql =
+      "select a.name, f.key, f.value::text from allele a, jsonb_each(a.frequency) f " +
+      "where a.genesymbol=? and jsonb_typeof(f.value) = 'number'";
+  //language=PostgreSQL
+  private static final String sf_phenotypeSql = "select id from gene_result where genesymbol=? order by id";
+  //language=PostgreSQL
+  private static final String sf_diplotypeSql =
+      "select grd.id, grl.phenotypeid, k.allele " +
+      "from gene_result r " +
+      "  join gene_result_lookup grl on r.id = grl.phenotypeid " +
+      "  join gene_result_diplotype grd on grl.id = grd.functionphenotypeid, " +
+      "  jsonb_object_keys(grd.diplotypekey -> r.genesymbol) k(allele) " +
+      "where r.genesymbol=? order by grd.id";
+
+  //language=PostgreSQL
+  private static final String sf_updateDiplotypeSql = "update gene_result_diplotype set frequency=?::jsonb where id=?";
+  //language=PostgreSQL
+  private static final String sf_updatePhenotypeSql = "update gene_result set frequency=?::jsonb where id=?";
+  private static final String sf_changedSql = " and frequency is distinct from ?::jsonb";
+
+  private final String f_gene;
+  private final boolean f_incremental;
+  private final SqlFrequencyEngine f_sqlEngine;
+  private int m_writeCount = 0;
+
+  MemoryFrequencyEngine(String gene) {
+    this(gene, false);
+  }
+
+  /**
+   * @param gene the gene to calculate
+   * @param incremental true to only write rows whose values have changed
+   */
+  MemoryFrequencyEngine(String gene, boolean incremental) {
+    f_gene = gene;
+    f_incremental = incremental;
+    f_sqlEngine = new SqlFrequencyEngine(gene, incremental);
+  }
+
+  /**
+   * Calculates all frequencies for the gene in one transaction
+   * @return the number of rows written
+   */
+  int calculate() throws SQLException {
+    try (Connection conn = ConnectionFactory.newConnection()) {
+      conn.setAutoCommit(false);
+      try {
+        calculate(conn);
+        conn.commit();
+      } catch (SQLException | RuntimeException ex) {
+        conn.rollback();
+        throw ex;
+      }
+    }
+    return f_sqlEngine.getWriteCount() + m_writeCount;
+  }
+
+  private void calculate(Connection conn) throws SQLException {
+    SortedSet<String> ethnicities = f_sqlEngine.writeAlleleFrequencies(conn);
+
+    // do not calculate frequencies for x-linked genes
+    if (FrequencyGenerator.isXLinked(conn, f_gene)) return;
+
+    boolean includeDiplotypes = false;
+    boolean includePhenotypes = false;
+    try (PreparedStatement stmt = conn.prepareStatement(sf_flagSql)) {
+      stmt.setString(1, f_gene);
+      try (ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          includeDiplotypes = rs.getBoolean(1);
+          includePhenotypes = rs.getBoolean(2);
+        }
+      }
+    }
+
+    if (!includeDiplotypes) {
+      // phenotypes are summed from whatever diplotype frequencies are already stored
+      if (includePhenotypes) {
+        f_sqlEngine.writePhenotypeFrequencies(conn, ethnicities);
+      }
+      return;
+    }
+
+    FrequencyModel model = loadModel(conn, new ArrayList<>(ethnicities));
+    model.calculate();
+    writeDiplotypes(conn, model);
+    if (includePhenotypes) {
+      writePhenotypes(conn, model);
+    }
+  }
+
+  private FrequencyModel loadModel(Connection conn, List<String> ethnicities) throws SQLException {
+    FrequencyModel model = new FrequencyModel(ethnicities);
+
+    try (PreparedStatement stmt = conn.prepareStatement(sf_alleleFrequencySql)) {
+      stmt.setString(1, f_gene);
+      try (ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          model.setAlleleFrequency(rs.getString(1), rs.getString(2), Float.parseFloat(rs.getString(3)));
+        }
+      }
+    }
+
+    Map<Integer,Integer> phenotypeIndexes = new HashMap<>();
+    try (PreparedStatement stmt = conn.prepareStatement(sf_phenotypeSql)) {
+      stmt.setString(1, f_gene);
+      try (ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          int phenotypeId = rs.getInt(1);
+          phenotypeIndexes.put(phenotypeId, model.addPhenotype(phenotypeId));
+        }
+      }
+    }
+
+    try (PreparedStatement stmt = conn.prepareStatement(sf_diplotypeSql)) {
+      stmt.setString(1, f_gene);
+      try (ResultSet rs = stmt.executeQuery()) {
+        int diplotypeId = -1;
+        int phenotypeId = -1;
+        List<String> alleles = new ArrayList<>(2);
+        while (rs.next()) {
+          int rowId = rs.getInt(1);
+          if (rowId != diplotypeId) {
+            addDiplotype(model, phenotypeIndexes, diplotypeId, phenotypeId, alleles);
+            diplotypeId = rowId;
+            phenotypeId = rs.getInt(2);
+            alleles.clear();
+          }
+          alleles.add(rs.getString(3));
+        }
+        addDiplotype(model, phenotypeIndexes, diplotypeId, phenotypeId, alleles);
+      }
+    }
+    sf_logger.debug("loaded {} diplotypes and {} phenotypes for {} ethnicities",
+        model.getDiplotypeCount(), model.getPhenotypeCount(), model.getEthnicityCount());
+    return model;
+  }
+
+  private static void addDiplotype(FrequencyModel model, Map<Integer,Integer> phenotypeIndexes, int diplotypeId,
+                                   int phenotypeId, List<String> alleles) {
+    if (alleles.isEmpty()) return;
+    if (alleles.size() > 2) {
+      throw new RuntimeException("Unexpected diplotype state for ID " + diplotypeId + ": " + alleles);
+    }
+    model.addDiplotype(diplotypeId, phenotypeIndexes.get(phenotypeId), alleles.get(0),
+        alleles.size() == 2 ? alleles.get(1) : null);
+  }
+
+  private void writeDiplotypes(Connection conn, FrequencyModel model) throws SQLException {
+    int count;
+    try (PreparedStatement stmt = prepareUpdate(conn, sf_updateDiplotypeSql)) {
+      for (int d = 0; d < model.getDiplotypeCount(); d++) {
+        addUpdate(stmt, model.getDiplotypeId(d), model.diplotypeFrequencyJson(d));
+      }
+      count = checkBatch(stmt.executeBatch(), "diplotype");
+    }
+    m_writeCount += count;
+    sf_logger.debug("wrote {} of {} diplotype frequencies", count, model.getDiplotypeCount());
+  }
+
+  private void writePhenotypes(Connection conn, FrequencyModel model) throws SQLException {
+    int count;
+    try (PreparedStatement stmt = prepareUpdate(conn, sf_updatePhenotypeSql)) {
+      for (int p = 0; p < model.getPhenotypeCount(); p++) {
+        addUpdate(stmt, model.getPhenotypeId(p), model.phenotypeFrequencyJson(p));
+      }
+      count = checkBatch(stmt.executeBatch(), "phenotype");
+    }
+    m_writeCount += count;
+    sf_logger.debug("wrote {} of {} phenotype frequencies", count, model.getPhenotypeCount());
+  }
+
+  private PreparedStatement prepareUpdate(Connection conn, String sql) throws SQLException {
+    return conn.prepareStatement(f_incremental ? sql + sf_changedSql : sql);
+  }
+
+  private void addUpdate(PreparedStatement stmt, int id, String frequencyJson) throws SQLException {
+    stmt.setString(1, frequencyJson);
+    stmt.setInt(2, id);
+    if (f_incremental) {
+      stmt.setString(3, frequencyJson);
+    }
+    stmt.addBatch();
+  }
+
+  /**
+   * Checks the results of a batch of updates, in incremental mode an update can skip its row
+   * @return the number of rows updated
+   */
+  private int checkBatch(int[] results, String type) {
+    int count = 0;
+    for (int result : results) {
+      if (result == 1 || result == PreparedStatement.SUCCESS_NO_INFO) {
+        count += 1;
+      } else if (result != 0 || !f_incremental) {
+        throw new RuntimeException("Unexpected failure to update " + type);
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,326 @@
+package org.cpicpgx;
+
+import org.cpicpgx.db.ConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Calculates the same frequencies as the row-by-row {@link FrequencyGenerator} engine but with one set-based SQL
+ * statement per step, so the number of queries doesn't grow with the number of alleles, diplotypes or ethnicities.
+ * <p>
+ * The steps are run in one transaction:
+ * <ol>
+ *   <li>reference allele frequency for each population, from the non-reference frequencies, then a refresh of the
+ *   gene's <code>allele_frequency_summary</code> if any were written. The label is formatted in Java to match the other
+ *   engines.</li>
+ *   <li>frequency by ethnicity for each allele, the subject-weighted average from the summary, plus the reference
+ *   allele</li>
+ *   <li>diplotype frequencies from the allele frequencies</li>
+ *   <li>phenotype frequencies as the sum of their diplotype frequencies</li>
+ * </ol>
+ * In incremental mode every step is still calculated but rows are only updated when the new value is different from
+ * the stored one, so a rerun over unchanged data writes nothing.
+ */
+class SqlFrequencyEngine {
+  private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  //language=PostgreSQL
+  private static final String sf_referenceFrequencySql =
+      "select f.population, (1::real - coalesce(sum(f.frequency) filter (where a.inferredfrequency = false), 0)::real) " +
+      "from allele_frequency f join allele a on f.alleleid = a.id " +
+      "where a.genesymbol = ? group by f.population";
+  //language=PostgreSQL
+  private static final String sf_referenceFrequencyInsertSql =
+      "insert into allele_frequency(alleleid, population, frequency, label) values (?, ?, ?, ?) " +
+      "on conflict (alleleid, population) do update set frequency=excluded.frequency, label=excluded.label";
+
+  //language=PostgreSQL
+  private static final String sf_invalidDiplotypeSql =
+      "select grd.diplotypekey::text " +
+      "from gene_result r " +
+      "  join gene_result_lookup grl on r.id = grl.phenotypeid " +
+      "  join gene_result_diplotype grd on grl.id = grd.functionphenotypeid " +
+      "  join gene g on r.genesymbol = g.symbol " +
+      "where r.genesymbol = ? and g.includediplotypefrequencies is true " +
+      "  and (select count(*) from jsonb_object_keys(grd.diplotypekey -> r.genesymbol)) > 2 " +
+      "limit 1";
+
+  //language=PostgreSQL
+  private static final String sf_alleleFrequencySql =
+      "with eth as (select unnest(?::text[]) as ethnicity), " +
+      "  alleles as (select unnest(?::integer[]) as id), " +
+      "  weighted as ( " +
+      "    select s.alleleid, s.population_group as ethnicity, s.freq_weighted_avg::real as freq " +
+      "    from allele_frequency_summary s " +
+      "    where s.freq_weighted_avg is not null and s.alleleid in (select id from alleles)), " +
+      "  allele_freq as ( " +
+      "    select a.id, e.ethnicity, w.freq " +
+      "    from alleles a left join eth e on true " +
+      "      left join weighted w on w.alleleid = a.id and w.ethnicity = e.ethnicity), " +
+      "  results as ( " +
+      "    select id, coalesce(jsonb_object_agg(ethnicity, freq) filter (where ethnicity is not null), '{}'::jsonb) as frequency " +
+      "    from allele_freq group by id " +
+      "    union all " +
+      "    select ?::integer, coalesce(jsonb_object_agg(ethnicity, 1::real - total) filter (where ethnicity is not null), '{}'::jsonb) " +
+      "    from (select e.ethnicity, sum(af.freq) as total from eth e left join allele_freq af on af.ethnicity = e.ethnicity group by e.ethnicity) t) " +
+      "update allele a set frequency = r.frequency from results r where a.id = r.id";
+
+  //language=PostgreSQL
+  private static final String sf_diplotypeFrequencySql =
+      "with eth as (select unnest(?::text[]) as ethnicity), " +
+      "  dip as ( " +
+      "    select grd.id, array_agg(k.allele) as alleles " +
+      "    from gene_result r " +
+      "      join gene_result_lookup grl on r.id = grl.phenotypeid " +
+      "      join gene_result_diplotype grd on grl.id = grd.functionphenotypeid " +
+      "      join gene g on r.genesymbol = g.symbol, " +
+      "      jsonb_object_keys(grd.diplotypekey -> r.genesymbol) k(allele) " +
+      "    where r.genesymbol = ? and g.includediplotypefrequencies is true " +
+      "    group by grd.id), " +
+      "  freq as ( " +
+      "    select d.id, e.ethnicity, " +
+      "      case when cardinality(d.alleles) = 1 " +
+      "        then (a1.frequency ->> e.ethnicity)::real * (a1.frequency ->> e.ethnicity)::real " +
+      "        else (a1.frequency ->> e.ethnicity)::real * (a2.frequency ->> e.ethnicity)::real * 2 end as f " +
+      "    from dip d left join eth e on true " +
+      "      left join allele a1 on a1.genesymbol = ? and a1.name = d.alleles[1] " +
+      "      left join allele a2 on a2.genesymbol = ? and a2.name = d.alleles[2]) " +
+      "update gene_result_diplotype grd set frequency = x.frequency " +
+      "from (select id, coalesce(jsonb_object_agg(ethnicity, f) filter (where ethnicity is not null), '{}'::jsonb) as frequency " +
+      "      from freq group by id) x " +
+      "where grd.id = x.id";
+
+  //language=PostgreSQL
+  private static final String sf_phenotypeFrequencySql =
+      "with eth as (select unnest(?::text[]) as ethnicity) " +
+      "update gene_result gr set frequency = x.frequency " +
+      "from (select r.id, coalesce(jsonb_object_agg(e.ethnicity, coalesce(s.total, 0)) filter (where e.ethnicity is not null), '{}'::jsonb) as frequency " +
+      "      from gene_result r " +
+      "        join gene g on r.genesymbol = g.symbol " +
+      "        left join eth e on true " +
+      "        left join lateral ( " +
+      "          select sum(f.value::numeric)::real as total " +
+      "          from gene_result_lookup grl " +
+      "            join gene_result_diplotype grd on grl.id = grd.functionphenotypeid, " +
+      "            jsonb_each(grd.frequency) f " +
+      "          where grl.phenotypeid = r.id and f.key = e.ethnicity and f.value::text != 'null') s on true " +
+      "      where r.genesymbol = ? and g.includephenotypefrequencies is true " +
+      "      group by r.id) x " +
+      "where gr.id = x.id";
+
+  private static final String sf_referenceChangedSql = " where allele_frequency.frequency is distinct from excluded.frequency " +
+      "or allele_frequency.label is distinct from excluded.label";
+  private static final String sf_alleleChangedSql = " and a.frequency is distinct from r.frequency";
+  private static final String sf_diplotypeChangedSql = " and grd.frequency is distinct from x.frequency";
+  private static final String sf_phenotypeChangedSql = " and gr.frequency is distinct from x.frequency";
+
+  private final String f_gene;
+  private final boolean f_incremental;
+  private int m_writeCount = 0;
+
+  SqlFrequencyEngine(String gene) {
+    this(gene, false);
+  }
+
+  /**
+   * @param gene the gene to calculate
+   * @param incremental true to only write rows whose values have changed
+   */
+  SqlFrequencyEngine(String gene, boolean incremental) {
+    f_gene = gene;
+    f_incremental = incremental;
+  }
+
+  /**
+   * Calculates all frequencies for the gene in one transaction
+   * @return the number of rows written
+   */
+  int calculate() throws SQLException {
+    try (Connection conn = ConnectionFactory.newConnection()) {
+      conn.setAutoCommit(false);
+      try {
+        calculate(conn);
+        conn.commit();
+      } catch (SQLException | RuntimeException ex) {
+        conn.rollback();
+        throw ex;
+      }
+    }
+    return m_writeCount;
+  }
+
+  /**
+   * Gets the number of rows written by this engine so far
+   */
+  int getWriteCount() {
+    return m_writeCount;
+  }
+
+  private void calculate(Connection conn) throws SQLException {
+    SortedSet<String> ethnicities = writeAlleleFrequencies(conn);
+
+    // do not calculate frequencies for x-linked genes
+    if (FrequencyGenerator.isXLinked(conn, f_gene)) return;
+
+    writeDiplotypeFrequencies(conn, ethnicities);
+    writePhenotypeFrequencies(conn, ethnicities);
+  }
+
+  /**
+   * Writes the reference allele frequency for each population and then the frequency by ethnicity for each allele
+   * @return the ethnicities that have frequency data for this gene
+   */
+  SortedSet<String> writeAlleleFrequencies(Connection conn) throws SQLException {
+    SortedSet<String> ethnicities = lookupEthnicities(conn);
+    Integer referenceAlleleId = lookupRefAlleleId(conn);
+    List<Integer> alleleIds = lookupAlleleIds(conn);
+    alleleIds.remove(referenceAlleleId);
+    sf_logger.debug("{} ethnicities, {} non-reference alleles, reference allele ID {}",
+        ethnicities.size(), alleleIds.size(), referenceAlleleId);
+
+    if (referenceAlleleId != null) {
+      int count = writeReferenceFrequencies(conn, referenceAlleleId);
+      m_writeCount += count;
+      sf_logger.debug("wrote {} reference frequencies", count);
+      // the importer refreshes the summary for what it wrote, only the reference frequencies can have changed since
+      if (count > 0) {
+        FrequencyGenerator.refreshSummary(conn, List.of(f_gene));
+      }
+    }
+
+    try (PreparedStatement stmt = conn.prepareStatement(guard(sf_alleleFrequencySql, sf_alleleChangedSql))) {
+      stmt.setArray(1, conn.createArrayOf("text", ethnicities.toArray()));
+      stmt.setArray(2, conn.createArrayOf("integer", alleleIds.toArray()));
+      if (referenceAlleleId != null) {
+        stmt.setInt(3, referenceAlleleId);
+      } else {
+        stmt.setNull(3, java.sql.Types.INTEGER);
+      }
+      int count = stmt.executeUpdate();
+      m_writeCount += count;
+      sf_logger.debug("wrote {} allele frequencies", count);
+    }
+    return ethnicities;
+  }
+
+  /**
+   * Writes the reference allele frequency for each population. The frequencies are calculated in one query but the
+   * label is made in Java so it's the same text the row engine writes (like "1.0" or "1.2E-4").
+   * @return the number of rows written
+   */
+  private int writeReferenceFrequencies(Connection conn, int referenceAlleleId) throws SQLException {
+    try (
+        PreparedStatement select = conn.prepareStatement(sf_referenceFrequencySql);
+        PreparedStatement insert = conn.prepareStatement(guard(sf_referenceFrequencyInsertSql, sf_referenceChangedSql))
+    ) {
+      select.setString(1, f_gene);
+      int count = 0;
+      try (ResultSet rs = select.executeQuery()) {
+        // one row per population so this stays small, written one at a time to get exact counts of changed rows
+        while (rs.next()) {
+          float freq = rs.getFloat(2);
+          insert.setInt(1, referenceAlleleId);
+          insert.setInt(2, rs.getInt(1));
+          insert.setFloat(3, freq);
+          insert.setString(4, Float.toString(freq));
+          count += insert.executeUpdate();
+        }
+      }
+      return count;
+    }
+  }
+
+  void writeDiplotypeFrequencies(Connection conn, SortedSet<String> ethnicities) throws SQLException {
+    // the statement only pairs up two alleles, fail like the other engines do for anything else
+    try (PreparedStatement stmt = conn.prepareStatement(sf_invalidDiplotypeSql)) {
+      stmt.setString(1, f_gene);
+      try (ResultSet rs = stmt.executeQuery()) {
+        if (rs.next()) {
+          throw new RuntimeException("Unexpected diplotype state: " + rs.getString(1));
+        }
+      }
+    }
+
+    try (PreparedStatement stmt = conn.prepareStatement(guard(sf_diplotypeFrequencySql, sf_diplotypeChangedSql))) {
+      stmt.setArray(1, conn.createArrayOf("text", ethnicities.toArray()));
+      stmt.setString(2, f_gene);
+      stmt.setString(3, f_gene);
+      stmt.setString(4, f_gene);
+      int count = stmt.executeUpdate();
+      m_writeCount += count;
+      sf_logger.debug("wrote {} diplotype frequencies", count);
+    }
+  }
+
+  void writePhenotypeFrequencies(Connection conn, SortedSet<String> ethnicities) throws SQLException {
+    try (PreparedStatement stmt = conn.prepareStatement(guard(sf_phenotypeFrequencySql, sf_phenotypeChangedSql))) {
+      stmt.setArray(1, conn.createArrayOf("text", ethnicities.toArray()));
+      stmt.setString(2, f_gene);
+      int count = stmt.executeUpdate();
+      m_writeCount += count;
+      sf_logger.debug("wrote {} phenotype frequencies", count);
+    }
+  }
+
+  /**
+   * Adds the condition that skips unchanged rows to the statement when running incrementally
+   */
+  private String guard(String sql, String changedSql) {
+    return f_incremental ? sql + changedSql : sql;
+  }
+
+  private SortedSet<String> lookupEthnicities(Connection conn) throws SQLException {
+    SortedSet<String> ethnicities = new TreeSet<>();
+    try (PreparedStatement stmt = conn.prepareStatement(FrequencyGenerator.POPULATION_SQL)) {
+      stmt.setString(1, f_gene);
+      try (ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          ethnicities.add(rs.getString(2));
+        }
+      }
+    }
+    return ethnicities;
+  }
+
+  private Integer lookupRefAlleleId(Connection conn) throws SQLException {
+    if (f_gene.startsWith("HLA")) return null;
+
+    Integer referenceAlleleId = null;
+    try (PreparedStatement stmt = conn.prepareStatement(FrequencyGenerator.REFERENCE_ALLELE_SQL)) {
+      stmt.setString(1, f_gene);
+      try (ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          if (referenceAlleleId != null) {
+            throw new RuntimeException("More than one reference allele found");
+          }
+          referenceAlleleId = rs.getInt(1);
+        }
+      }
+    }
+    return referenceAlleleId;
+  }
+
+  private List<Integer> lookupAlleleIds(Connection conn) throws SQLException {
+    List<Integer> alleleIds = new ArrayList<>();
+    try (PreparedStatement stmt = conn.prepareStatement(FrequencyGenerator.ALLELE_SQL)) {
+      stmt.setString(1, f_gene);
+      stmt.setArray(2, conn.createArrayOf("VARCHAR", FrequencyGenerator.ALLOW_ALLELES));
+      try (ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          alleleIds.add(rs.getInt(1));
+        }
+      }
+    }
+    return alleleIds;
+  }
+}
@@ -1,17 +1,25 @@
 package org.cpicpgx.db;
 
 import com.google.common.base.MoreObjects;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.Set;
 
 /**
  * This class is a factory for creating new {@link Connection} objects for the Postgres database.
+ * <p>
+ * Connections come from a pool that is created on first use. Closing a connection returns it to the pool so callers
+ * can keep opening and closing connections the way they always have. The pool is closed, and its stats logged, when
+ * the JVM shuts down.
  *
  * @author Ryan Whaley
  */
@@ -23,6 +31,21 @@ public class ConnectionFactory {
   private static final String sf_pass = MoreObjects.firstNonNull(System.getenv("CPIC_PASS"), "");
   private static final String sf_db = MoreObjects.firstNonNull(System.getenv("CPIC_DB"), "cpic");
   private static final String sf_schema = MoreObjects.firstNonNull(System.getenv("CPIC_SCHEMA"), "cpic");
+  private static final int sf_poolSize = Integer.parseInt(MoreObjects.firstNonNull(System.getenv("CPIC_POOL_SIZE"), "10"));
+  private static final long sf_leakThreshold = Long.parseLong(MoreObjects.firstNonNull(System.getenv("CPIC_POOL_LEAK_MS"), "60000"));
+  private static final long sf_connectionTimeout = Long.parseLong(MoreObjects.firstNonNull(System.getenv("CPIC_POOL_TIMEOUT_MS"), "30000"));
+  private static final String sf_timeZoneSql = "SET TIME ZONE 'America/Los_Angeles'";
+  private static HikariDataSource s_dataSource;
+  private static final ThreadLocal<Connection> sf_threadConnection = new ThreadLocal<>();
+  private static final Set<String> sf_sharedConnectionIgnores = Set.of("close", "commit", "rollback", "setAutoCommit");
+
+  /**
+   * Some work that needs a database connection
+   */
+  @FunctionalInterface
+  public interface TransactionWork {
+    void execute() throws Exception;
+  }
 
   /**
    * Makes a new {@link Connection}. All connection information defaults to local DB but also can override with environment variables.
@@ -30,12 +53,126 @@ public class ConnectionFactory {
    * @throws SQLException can occur if there is a problem connecting to the database
    */
   public static Connection newConnection() throws SQLException {
-    sf_logger.debug("Using JDBC URL: {}", getJdbcUrl());
-    Connection connection = DriverManager.getConnection(getJdbcUrl(), sf_user, sf_pass);
-    try (Statement stmt = connection.createStatement()) {
-      stmt.execute("SET TIME ZONE 'America/Los_Angeles';");
+    Connection threadConnection = sf_threadConnection.get();
+    if (threadConnection != null) {
+      return shared(threadConnection);
+    }
+    return openConnection();
+  }
+
+  /**
+   * Runs the given work in a single transaction on a single connection. Every call to {@link #newConnection()} made on
+   * this thread while the work is running will get that same connection, so code that opens its own connections will
+   * still take part in the transaction. Closing, committing, rolling back or changing auto-commit on those
+   * connections is ignored.
+   * <p>
+   * The transaction is committed if the work finishes and rolled back if it throws an exception.
+   * @param work the work to do in the transaction
+   * @throws Exception any exception thrown by the work or from the database
+   */
+  public static void inTransaction(TransactionWork work) throws Exception {
+    if (sf_threadConnection.get() != null) {
+      throw new IllegalStateException("Already in a transaction on this thread");
+    }
+    try (Connection conn = openConnection()) {
+      conn.setAutoCommit(false);
+      sf_threadConnection.set(conn);
+      try {
+        work.execute();
+        conn.commit();
+      } catch (Exception ex) {
+        conn.rollback();
+        throw ex;
+      } finally {
+        sf_threadConnection.remove();
+      }
+    }
+  }
+
+  static Connection openConnection() throws SQLException {
+    return getDataSource().getConnection();
+  }
+
+  private static synchronized HikariDataSource getDataSource() {
+    if (s_dataSource == null) {
+      sf_logger.debug("Using JDBC URL: {}", getJdbcUrl());
+      s_dataSource = new HikariDataSource(makePoolConfig());
+      Runtime.getRuntime().addShutdownHook(new Thread(ConnectionFactory::closePool));
+    }
+    return s_dataSource;
+  }
+
+  /**
+   * Makes the configuration for the connection pool. Pool settings default to something reasonable for running an
+   * import or export but can be overridden with environment variables.
+   * @return configuration for the connection pool
+   */
+  static HikariConfig makePoolConfig() {
+    if (sf_poolSize < 1) {
+      throw new IllegalStateException("CPIC_POOL_SIZE must be at least 1");
     }
-    return connection;
+    HikariConfig config = new HikariConfig();
+    config.setPoolName("cpic");
+    config.setJdbcUrl(getJdbcUrl());
+    config.setUsername(sf_user);
+    config.setPassword(sf_pass);
+    config.setMaximumPoolSize(sf_poolSize);
+    config.setMinimumIdle(1);
+    config.setConnectionTimeout(sf_connectionTimeout);
+    // connections are checked with JDBC isValid() when borrowed if they've been idle
+    config.setValidationTimeout(5000);
+    config.setLeakDetectionThreshold(sf_leakThreshold);
+    config.setConnectionInitSql(sf_timeZoneSql);
+    // lets the driver turn batches of plain inserts into multi-row inserts
+    config.addDataSourceProperty("reWriteBatchedInserts", "true");
+    config.setRegisterMbeans(false);
+    return config;
+  }
+
+  /**
+   * Logs the current state of the connection pool, if it has been started
+   */
+  public static synchronized void logPoolStats() {
+    if (s_dataSource == null || s_dataSource.isClosed()) return;
+
+    HikariPoolMXBean pool = s_dataSource.getHikariPoolMXBean();
+    sf_logger.info("Connection pool {}: {} total, {} active, {} idle, {} threads waiting (max {})",
+        s_dataSource.getPoolName(),
+        pool.getTotalConnections(),
+        pool.getActiveConnections(),
+        pool.getIdleConnections(),
+        pool.getThreadsAwaitingConnection(),
+        s_dataSource.getMaximumPoolSize());
+  }
+
+  /**
+   * Closes all connections in the pool. A new pool will be made if a connection is requested afterward.
+   */
+  public static synchronized void closePool() {
+    if (s_dataSource == null) return;
+
+    logPoolStats();
+    s_dataSource.close();
+    s_dataSource = null;
+  }
+
+  /**
+   * Wraps a connection so it can be handed out more than once without callers closing it or ending its transaction
+   */
+  private static Connection shared(Connection connection) {
+    return (Connection) Proxy.newProxyInstance(
+        Connection.class.getClassLoader(),
+        new Class[]{Connection.class},
+        (proxy, method, args) -> {
+          if (sf_sharedConnectionIgnores.contains(method.getName())) {
+            return null;
+          }
+          try {
+            return method.invoke(connection, args);
+          } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+          }
+        });
   }
   
   static String getJdbcUrl() {
@@ -19,6 +19,8 @@ public class FileHistoryWriter implements AutoCloseable {
   private PreparedStatement insertFile;
   private PreparedStatement insertHistory;
   private PreparedStatement updateUrl;
+  private PreparedStatement selectDigest;
+  private PreparedStatement upsertDigest;
   private FileType fileType;
   
   public FileHistoryWriter(FileType fileType) throws SQLException {
@@ -26,6 +28,8 @@ public FileHistoryWriter(FileType fileType) throws SQLException {
     insertFile = this.connection.prepareStatement("insert into file_artifact(type, fileName, entityIds) values (?, ?, ?) on conflict (fileName) do update set entityids=excluded.entityids");
     insertHistory = this.connection.prepareStatement("insert into file_artifact_history(fileId, changeMessage, source) select id, ?, ? from file_artifact where filename=?");
     updateUrl = this.connection.prepareStatement("update file_artifact set url=? where fileName=?");
+    selectDigest = this.connection.prepareStatement("select digest from file_artifact where fileName=?");
+    upsertDigest = this.connection.prepareStatement("insert into file_artifact(type, fileName, digest) values (?, ?, ?) on conflict (fileName) do update set digest=excluded.digest");
     this.fileType = fileType;
   }
 
@@ -63,6 +67,35 @@ public void writeUpload(String fileName, String url) throws SQLException {
     this.updateUrl.executeUpdate();
   }
 
+  /**
+   * Gets the digest of the last uploaded version of the file
+   * @param fileName a String file name
+   * @return the digest or null if the file hasn't been uploaded with a digest before
+   * @throws SQLException can occur from DB activity
+   */
+  public String readDigest(String fileName) throws SQLException {
+    this.selectDigest.clearParameters();
+    this.selectDigest.setString(1, fileName);
+    try (ResultSet rs = this.selectDigest.executeQuery()) {
+      return rs.next() ? rs.getString(1) : null;
+    }
+  }
+
+  /**
+   * Records the digest of the version of the file that was just uploaded, making a record for the file if needed
+   * @param fileName a String file name
+   * @param type the type of file
+   * @param digest the digest of the file contents
+   * @throws SQLException can occur from DB activity
+   */
+  public void writeDigest(String fileName, FileType type, String digest) throws SQLException {
+    this.upsertDigest.clearParameters();
+    this.upsertDigest.setString(1, type.name());
+    this.upsertDigest.setString(2, fileName);
+    this.upsertDigest.setString(3, digest);
+    this.upsertDigest.executeUpdate();
+  }
+
   /**
    * Writes a timestamped message associated with the given file name to the database and specifies where the source of 
    * this message is from (use {@link FileHistoryWriter#SOURCE_SYSTEM})
@@ -90,6 +123,12 @@ public void close() throws Exception {
     if (this.updateUrl != null) {
       this.updateUrl.close();
     }
+    if (this.selectDigest != null) {
+      this.selectDigest.close();
+    }
+    if (this.upsertDigest != null) {
+      this.upsertDigest.close();
+    }
     if (this.connection != null) {
       this.connection.close();
     }
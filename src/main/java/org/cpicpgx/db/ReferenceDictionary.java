@@ -0,0 +1,229 @@
+package org.cpicpgx.db;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandles;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A process-wide dictionary of the reference data importers look up over and over: drug IDs by name, gene symbols,
+ * guideline IDs by URL, and the phenotypes and activity scores in <code>gene_result</code>. Everything is loaded in a
+ * few queries the first time it's needed and then answered from memory.
+ * <p>
+ * The dictionary only holds committed data, it's loaded on its own connection. Call {@link #invalidate()} after writing
+ * to one of the {@link #TABLES} so the next lookup reloads it. A lookup that misses doesn't mean the thing doesn't
+ * exist, callers should fall back to querying on their own connection, which can see their uncommitted writes.
+ * <p>
+ * Loading borrows a second connection when the lookup happens inside a transaction, so code that holds connections
+ * while it works should call {@link #load()} right after invalidating, outside any transaction. A load that was
+ * started before an invalidate is still returned to its caller but isn't kept for later lookups.
+ * <p>
+ * This is safe to share between threads.
+ */
+public class ReferenceDictionary {
+  private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  /** The tables the dictionary is loaded from */
+  public static final Set<String> TABLES = Set.of("drug", "gene", "guideline", "gene_result");
+  private static final ReferenceDictionary sf_instance = new ReferenceDictionary(ReferenceDictionary::loadFromDb);
+
+  /**
+   * Something that can load all the entries
+   */
+  @FunctionalInterface
+  interface Loader {
+    Entries load() throws SQLException;
+  }
+
+  private final Loader f_loader;
+  private volatile Entries m_entries;
+  /** Bumped on every invalidate so a load that was already running when it happened isn't kept */
+  private long m_generation;
+
+  /**
+   * Get the dictionary shared by everything in this process
+   */
+  public static ReferenceDictionary getInstance() {
+    return sf_instance;
+  }
+
+  ReferenceDictionary(Loader loader) {
+    f_loader = loader;
+  }
+
+  /**
+   * Drop everything loaded so the next lookup loads the current data
+   */
+  public synchronized void invalidate() {
+    m_generation += 1;
+    m_entries = null;
+    sf_logger.debug("Invalidated reference dictionary");
+  }
+
+  /**
+   * Make sure the dictionary is loaded, useful to load it up front before starting work
+   */
+  public void load() throws SQLException {
+    entries();
+  }
+
+  private Entries entries() throws SQLException {
+    Entries entries = m_entries;
+    if (entries != null) {
+      return entries;
+    }
+    long generation;
+    synchronized (this) {
+      if (m_entries != null) {
+        return m_entries;
+      }
+      generation = m_generation;
+    }
+    // load without holding the lock, it waits on a connection and callers waiting on the lock may be holding them
+    entries = f_loader.load();
+    synchronized (this) {
+      if (m_generation != generation) {
+        return entries;
+      }
+      if (m_entries == null) {
+        m_entries = entries;
+      }
+      return m_entries;
+    }
+  }
+
+  /**
+   * Look up a drug ID
+   * @param drugName a drug name, case-insensitive
+   * @return the drug ID or null if not found
+   */
+  @Nullable
+  public String lookupDrug(String drugName) throws SQLException {
+    return entries().drugs.get(StringUtils.lowerCase(StringUtils.strip(drugName)));
+  }
+
+  /**
+   * Check for a gene
+   * @param geneSymbol an HGNC symbol
+   * @return true if the gene is known
+   */
+  public boolean hasGene(String geneSymbol) throws SQLException {
+    return entries().genes.contains(geneSymbol);
+  }
+
+  /**
+   * Look up a guideline ID
+   * @param url the URL of the guideline
+   * @return the guideline ID or null if not found
+   */
+  @Nullable
+  public Integer lookupGuideline(String url) throws SQLException {
+    return entries().guidelines.get(StringUtils.strip(url));
+  }
+
+  /**
+   * Look up the properly-cased name of a phenotype
+   * @param gene the gene symbol
+   * @param phenotype the phenotype, case-insensitive
+   * @return the phenotype as it's written in <code>gene_result</code> or null if not found
+   */
+  @Nullable
+  public String lookupPhenotype(String gene, String phenotype) throws SQLException {
+    return entries().phenotypes.get(key(gene, StringUtils.lowerCase(phenotype)));
+  }
+
+  /**
+   * Look up an activity score
+   * @param gene the gene symbol
+   * @param activityScore the activity score text
+   * @return the activity score as it's written in <code>gene_result</code> or null if not found
+   */
+  @Nullable
+  public String lookupActivityScore(String gene, String activityScore) throws SQLException {
+    return entries().activityScores.get(key(gene, activityScore));
+  }
+
+  private static String key(String gene, String value) {
+    return gene + "\t" + value;
+  }
+
+  private static Entries loadFromDb() throws SQLException {
+    long start = System.currentTimeMillis();
+    Entries entries = new Entries();
+    try (Connection conn = ConnectionFactory.openConnection()) {
+      //language=PostgreSQL
+      try (PreparedStatement stmt = conn.prepareStatement("select name, drugid from drug");
+           ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          entries.addDrug(rs.getString(1), rs.getString(2));
+        }
+      }
+      //language=PostgreSQL
+      try (PreparedStatement stmt = conn.prepareStatement("select symbol from gene");
+           ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          entries.addGene(rs.getString(1));
+        }
+      }
+      //language=PostgreSQL
+      try (PreparedStatement stmt = conn.prepareStatement("select url, id from guideline where url is not null");
+           ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          entries.addGuideline(rs.getString(1), rs.getInt(2));
+        }
+      }
+      //language=PostgreSQL
+      try (PreparedStatement stmt = conn.prepareStatement("select genesymbol, result, activityscore from gene_result");
+           ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          entries.addGeneResult(rs.getString(1), rs.getString(2), rs.getString(3));
+        }
+      }
+    }
+    sf_logger.debug("Loaded reference dictionary in {} ms: {} drugs, {} genes, {} guidelines, {} phenotypes",
+        System.currentTimeMillis() - start, entries.drugs.size(), entries.genes.size(), entries.guidelines.size(),
+        entries.phenotypes.size());
+    return entries;
+  }
+
+  /**
+   * A loaded copy of the dictionary, never changed once it's published
+   */
+  static class Entries {
+    private final Map<String, String> drugs = new HashMap<>();
+    private final Set<String> genes = new HashSet<>();
+    private final Map<String, Integer> guidelines = new HashMap<>();
+    private final Map<String, String> phenotypes = new HashMap<>();
+    private final Map<String, String> activityScores = new HashMap<>();
+
+    void addDrug(String name, String drugId) {
+      drugs.put(StringUtils.lowerCase(name), drugId);
+    }
+
+    void addGene(String symbol) {
+      genes.add(symbol);
+    }
+
+    void addGuideline(String url, int id) {
+      guidelines.put(url, id);
+    }
+
+    void addGeneResult(String gene, @Nullable String result, @Nullable String activityScore) {
+      if (result != null) {
+        phenotypes.put(key(gene, result.toLowerCase()), result);
+      }
+      if (activityScore != null) {
+        activityScores.put(key(gene, activityScore), activityScore);
+      }
+    }
+  }
+}
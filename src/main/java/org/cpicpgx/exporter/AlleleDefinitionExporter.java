@@ -33,7 +33,7 @@ public static void main(String[] args) {
     AlleleDefinitionExporter exporter = new AlleleDefinitionExporter();
     try {
       exporter.parseArgs(args);
-      exporter.export();
+      exporter.exportAndUpload();
     } catch (Exception ex) {
       sf_logger.error("Error exporting allele definitions", ex);
     }
@@ -30,7 +30,7 @@ public static void main(String[] args) {
     AlleleFunctionalityReferenceExporter exporter = new AlleleFunctionalityReferenceExporter();
     try {
       exporter.parseArgs(args);
-      exporter.export();
+      exporter.exportAndUpload();
     } catch (Exception ex) {
       sf_logger.error("Error exporting allele functionality reference", ex);
     }
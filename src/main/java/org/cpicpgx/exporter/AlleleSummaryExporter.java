@@ -23,7 +23,7 @@ public static void main(String[] args) {
     AlleleSummaryExporter exporter = new AlleleSummaryExporter();
     try {
       exporter.parseArgs(args);
-      exporter.export();
+      exporter.exportAndUpload();
     } catch (Exception ex) {
       sf_logger.error("Error exporting allele summary", ex);
     }
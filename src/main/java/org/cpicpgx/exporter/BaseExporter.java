@@ -6,7 +6,7 @@
 import org.cpicpgx.workbook.AbstractWorkbook;
 import org.cpicpgx.workbook.SheetWrapper;
 import org.cpicpgx.model.FileType;
-import org.cpicpgx.util.FileStoreClient;
+import org.cpicpgx.util.UploadManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,7 +21,9 @@
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A base class for handling the basics of what a exporter class will need
@@ -33,7 +35,9 @@ public abstract class BaseExporter {
 
   protected Path directory;
   private boolean upload = false;
-  private final List<Path> generatedFiles = new ArrayList<>();
+  private Set<OutputFormat> outputFormats = EnumSet.of(OutputFormat.XLSX);
+  private UploadManager sharedUploadManager;
+  private UploadManager uploadManager;
 
   /**
    * The type of file this exports
@@ -52,6 +56,7 @@ void parseArgs(String [] args) throws ParseException {
     Options options = new Options();
     options.addOption("d", true,"directory to write files to");
     options.addOption("u", false, "upload to S3 bucket");
+    options.addOption("o", true, "comma-separated output formats: xlsx (default), csv, tsv");
     CommandLineParser clParser = new DefaultParser();
     CommandLine cli = clParser.parse(options, args);
 
@@ -59,6 +64,7 @@ void parseArgs(String [] args) throws ParseException {
     setDirectory(directoryPath);
 
     upload = cli.hasOption("u");
+    setOutputFormats(OutputFormat.parseList(cli.getOptionValue("o")));
   }
 
   /**
@@ -94,33 +100,119 @@ public void setUpload(boolean upload) {
     this.upload = upload;
   }
 
+  /**
+   * Upload files with a manager that's shared with other exporters. The caller is responsible for closing it. If this
+   * isn't set, each exporter uses its own manager.
+   * @param uploadManager the manager to submit files to
+   */
+  public void setUploadManager(UploadManager uploadManager) {
+    this.sharedUploadManager = uploadManager;
+  }
+
+  /**
+   * Set the formats to write workbooks in, xlsx only by default
+   * @param outputFormats one or more formats
+   */
+  public void setOutputFormats(Set<OutputFormat> outputFormats) {
+    if (outputFormats.isEmpty()) {
+      throw new IllegalArgumentException("No output format specified");
+    }
+    this.outputFormats = EnumSet.copyOf(outputFormats);
+  }
+
   /**
    * The method that will export files
    * @throws Exception can occur from querying the DB
    */
   public abstract void export() throws Exception;
+
+  /**
+   * Export and then wait for this exporter's uploads to finish. The upload manager is closed even when the export
+   * fails so its threads don't keep the JVM running, and a failure closing it is suppressed by the export's failure.
+   * @throws Exception can occur from exporting or uploading
+   */
+  public void exportAndUpload() throws Exception {
+    try {
+      export();
+    } catch (Exception ex) {
+      try {
+        handleFileUpload();
+      } catch (RuntimeException closeEx) {
+        ex.addSuppressed(closeEx);
+      }
+      throw ex;
+    }
+    handleFileUpload();
+  }
   
+  /**
+   * Write the workbook in each of the output formats. Delimited formats are made from the written xlsx file, which is
+   * only kept if xlsx is one of the output formats.
+   * @param workbook the workbook to write
+   * @throws IOException can occur when writing files
+   */
   void writeWorkbook(AbstractWorkbook workbook) throws IOException {
     workbook.getSheets().forEach(SheetWrapper::autosizeColumns);
 
-    Path filePath = this.directory.resolve(workbook.getFilename());
+    boolean keepXlsx = outputFormats.contains(OutputFormat.XLSX);
+    Path filePath = keepXlsx
+        ? this.directory.resolve(workbook.getFilename())
+        : Files.createTempFile(this.directory, "export", ".xlsx");
     try (OutputStream out = Files.newOutputStream(filePath)) {
       workbook.write(out);
     }
-    generatedFiles.add(filePath);
-    sf_logger.info("Wrote {}", filePath);
+    if (keepXlsx) {
+      addGeneratedFile(filePath);
+      sf_logger.info("Wrote {}", filePath);
+    }
+
+    try {
+      String baseName = StringUtils.removeEndIgnoreCase(workbook.getFilename(), ".xlsx");
+      for (OutputFormat format : outputFormats) {
+        if (format.isDelimited()) {
+          List<Path> delimitedFiles = new DelimitedFileWriter(format).write(filePath, this.directory, baseName);
+          delimitedFiles.forEach(this::addGeneratedFile);
+          sf_logger.info("Wrote {} {} files for {}", delimitedFiles.size(), format.getExtension(), baseName);
+        }
+      }
+    } finally {
+      if (!keepXlsx) {
+        Files.delete(filePath);
+      }
+    }
   }
 
   /**
-   * This method will check if user wants to upload and then upload the generated files to S3 and put them in the 
-   * proper directory if the user has flagged that they want upload.
+   * If the user has flagged that they want upload, start uploading a written file right away
+   * @param filePath the file that was written
    */
-  void handleFileUpload() {
+  private void addGeneratedFile(Path filePath) {
     if (!upload) {
       return;
     }
-    try (FileStoreClient fileStore = new FileStoreClient()) {
-      generatedFiles.forEach(f -> fileStore.putArtifact(f, getFileType()));
+    if (sharedUploadManager != null) {
+      sharedUploadManager.submit(filePath, getFileType());
+    } else {
+      if (uploadManager == null) {
+        uploadManager = new UploadManager(UploadManager.DEFAULT_THREADS);
+      }
+      uploadManager.submit(filePath, getFileType());
+    }
+  }
+
+  /**
+   * This method will check if user wants to upload and then wait for the generated files to finish uploading to S3.
+   * Files start uploading as they are written so this only has to wait. When using a shared upload manager the wait
+   * is left to whoever owns it.
+   */
+  void handleFileUpload() {
+    if (!upload || uploadManager == null) {
+      return;
+    }
+    try {
+      uploadManager.close();
+    } finally {
+      uploadManager = null;
     }
   }
 
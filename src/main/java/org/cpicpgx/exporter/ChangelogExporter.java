@@ -22,7 +22,7 @@ public static void main(String[] args) {
         ChangelogExporter exporter = new ChangelogExporter();
         try {
             exporter.parseArgs(args);
-            exporter.export();
+            exporter.exportAndUpload();
         } catch (Exception e) {
             sf_logger.error("Error exporting changelog", e);
         }
@@ -4,15 +4,14 @@
 import org.apache.poi.ss.usermodel.CellType;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
-import org.cpicpgx.util.RowWrapper;
-import org.cpicpgx.util.WorkbookWrapper;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.InvalidParameterException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.stream.StreamSupport;
@@ -47,7 +46,7 @@ public class ClinVarWorkbook {
   private static final String sf_colNovelUpdate        = "Novel or Update";
 
   private static final int sf_variantTitleRowIdx = 2;
-  private final WorkbookWrapper f_workbook;
+  private final Workbook f_workbook;
   private final Sheet f_variantSheet;
   private final Map<String, Integer> f_colHapName = new HashMap<>();
   private int m_dataRowIdx = 5;
@@ -57,13 +56,16 @@ public ClinVarWorkbook() throws IOException {
       if (is == null) {
         throw new RuntimeException("Unable to load ClinVar template" + sf_workbookFileName);
       }
-      f_workbook = new WorkbookWrapper(is);
-      f_workbook.currentSheetIs(sf_variantSheetName);
-      f_variantSheet = f_workbook.currentSheet;
-    } catch (InvalidParameterException ex) {
-      throw new RuntimeException("No title row found", ex);
+      f_workbook = WorkbookFactory.create(is);
+    }
+    f_variantSheet = f_workbook.getSheet(sf_variantSheetName);
+    if (f_variantSheet == null) {
+      throw new RuntimeException("No sheet found named " + sf_variantSheetName);
+    }
+    Row titleRow = f_variantSheet.getRow(sf_variantTitleRowIdx);
+    if (titleRow == null) {
+      throw new RuntimeException("No title row found");
     }
-    RowWrapper titleRow = f_workbook.getRow(sf_variantTitleRowIdx);
 
     f_colHapName.put(sf_colTitleHapName, null);
     f_colHapName.put(sf_colTitleLocalId, null);
@@ -81,7 +83,7 @@ public ClinVarWorkbook() throws IOException {
     f_colHapName.put(sf_colClinVarAccession, null);
     f_colHapName.put(sf_colNovelUpdate, null);
 
-    StreamSupport.stream(titleRow.row.spliterator(), false)
+    StreamSupport.stream(titleRow.spliterator(), false)
         .filter(c -> f_colHapName.containsKey(c.getStringCellValue()))
         .forEach(c -> f_colHapName.put(c.getStringCellValue(), c.getColumnIndex()));
   }
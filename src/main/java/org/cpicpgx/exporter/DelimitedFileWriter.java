@@ -0,0 +1,64 @@
+package org.cpicpgx.exporter;
+
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.cpicpgx.util.RowWrapper;
+import org.cpicpgx.util.StreamingWorkbookWrapper;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes each sheet of an exported workbook to a delimited text file. The workbook is read back with a
+ * {@link StreamingWorkbookWrapper} so this works the same for streamed workbooks, and cells are written as the text
+ * Excel would display for them.
+ */
+class DelimitedFileWriter {
+  private final OutputFormat f_format;
+  private final DataFormatter f_formatter = new DataFormatter();
+
+  DelimitedFileWriter(OutputFormat format) {
+    if (!format.isDelimited()) {
+      throw new IllegalArgumentException(format + " is not a delimited format");
+    }
+    f_format = format;
+  }
+
+  /**
+   * Write one file per sheet of the given workbook file
+   * @param workbookFile an xlsx file
+   * @param directory the directory to write to
+   * @param baseName the start of the file names, the sheet name and extension are added to it
+   * @return the files that were written
+   */
+  List<Path> write(Path workbookFile, Path directory, String baseName) throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (StreamingWorkbookWrapper workbook = new StreamingWorkbookWrapper(workbookFile.toFile())) {
+      for (String sheetName : workbook.getSheetNameList()) {
+        workbook.currentSheetIs(sheetName);
+        Path file = directory.resolve(baseName + "-" + sheetName.strip().replaceAll("\\W+", "_") + "." + f_format.getExtension());
+        try (
+            Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+            CSVPrinter printer = f_format.getCsvFormat().print(writer)
+        ) {
+          List<String> values = new ArrayList<>();
+          for (int i = 0; i <= workbook.currentSheet.getLastRowNum(); i++) {
+            RowWrapper row = workbook.getRow(i);
+            values.clear();
+            for (int j = 0; j < row.getLastCellNum(); j++) {
+              values.add(f_formatter.formatCellValue(row.row.getCell(j)));
+            }
+            printer.printRecord(values);
+          }
+        }
+        files.add(file);
+      }
+    }
+    return files;
+  }
+}
@@ -28,7 +28,7 @@ public static void main(String[] args) {
     DiplotypePhenotypeExporter exporter = new DiplotypePhenotypeExporter();
     try {
       exporter.parseArgs(args);
-      exporter.export();
+      exporter.exportAndUpload();
     } catch (Exception ex) {
       sf_logger.error("Error diplotype phenotype", ex);
     }
@@ -77,7 +77,7 @@ public static void main(String[] args) {
    *
    */
   public DrugResourceCreator(String outputPath) {
-    f_httpClient = new OkHttpClient().newBuilder()
+    f_httpClient = HttpUtils.newClientBuilder()
         .build();
     f_gson = new Gson();
     f_outputPath = outputPath;
@@ -88,8 +88,8 @@ public Path create(String rawName) {
 
     String response = null;
     try {
-      Thread.sleep(HttpUtils.API_WAIT_TIME);
-      response = apiRequest(f_httpClient, buildClinpgxUrl("data/chemical", "view", "max", "name", name.toLowerCase(Locale.ROOT)));
+      response = apiRequest(f_httpClient, buildClinpgxUrl("data/chemical", "view", "max", "name", name.toLowerCase(Locale.ROOT)),
+          null, HttpUtils.CLINPGX_RATE_LIMITER);
     } catch (NotFoundException ex) {
       // safe to ignore 404's
     } catch (Exception ex) {
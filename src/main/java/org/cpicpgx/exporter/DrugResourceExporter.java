@@ -24,7 +24,7 @@ public static void main(String[] args) {
     DrugResourceExporter exporter = new DrugResourceExporter();
     try {
       exporter.parseArgs(args);
-      exporter.export();
+      exporter.exportAndUpload();
     } catch (Exception ex) {
       sf_logger.error("Error exporting drug resource", ex);
     }
@@ -23,7 +23,7 @@ public static void main(String[] args) {
     DrugReviewExporter exporter = new DrugReviewExporter();
     try {
       exporter.parseArgs(args);
-      exporter.export();
+      exporter.exportAndUpload();
     } catch (Exception e) {
       sf_logger.error("Error exporting drug review", e);
     }
@@ -1,10 +1,8 @@
 package org.cpicpgx.exporter;
 
 import com.google.common.collect.ImmutableList;
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import okhttp3.OkHttpClient;
 import org.apache.commons.cli.*;
 import org.apache.commons.lang3.StringUtils;
@@ -14,12 +12,14 @@
 import org.cpicpgx.model.AlleleDistribution;
 import org.cpicpgx.model.GnomadPopulation;
 import org.cpicpgx.util.HttpUtils;
+import org.cpicpgx.workbook.AbstractWorkbook;
 import org.cpicpgx.workbook.FrequencyWorkbook;
 import org.cpicpgx.workbook.SheetWrapper;
 import org.pharmgkb.common.comparator.HaplotypeNameComparator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.invoke.MethodHandles;
@@ -33,18 +33,24 @@
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.cpicpgx.util.HttpUtils.apiRequest;
 import static org.cpicpgx.util.HttpUtils.buildClinpgxUrl;
 
 public class FrequencyCreator {
   private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  private static final int DEFAULT_THREADS = 4;
 
   public static void main(String[] args) {
     try {
       Options options = new Options();
       options.addOption("g", true,"gene to make frequency data for");
       options.addOption("d", true,"directory to write output to, optional ('out' default)");
+      options.addOption("t", true,"number of requests to have in flight at once, optional (" + DEFAULT_THREADS + " default)");
       CommandLineParser clParser = new DefaultParser();
       CommandLine cli = clParser.parse(options, args);
 
@@ -53,7 +59,8 @@ public static void main(String[] args) {
         throw new IllegalArgumentException("No gene specified");
       }
 
-      FrequencyCreator frequencyCreator = new FrequencyCreator(geneSymbol);
+      int threads = Integer.parseInt(cli.getOptionValue("t", String.valueOf(DEFAULT_THREADS)));
+      FrequencyCreator frequencyCreator = new FrequencyCreator(geneSymbol, threads);
       Path dir;
       if (cli.hasOption("d")) {
         dir = Paths.get(cli.getOptionValue("d"));
@@ -73,7 +80,6 @@ public static void main(String[] args) {
   }
 
   private final OkHttpClient f_httpClient;
-  private final Gson f_gson;
   private final String f_gene;
   private final Map<String, String> f_alleleRsidMap = new TreeMap<>(HaplotypeNameComparator.getComparator());
   private final Map<String, String> f_alleleMap = new HashMap<>();
@@ -82,12 +88,22 @@ public static void main(String[] args) {
   private final List<AlleleDistribution> f_alleleDistributions = new ArrayList<>();
 
   public FrequencyCreator(String gene) {
-    f_httpClient = new OkHttpClient().newBuilder().build();
-    f_gson = new Gson();
+    this(gene, DEFAULT_THREADS);
+  }
+
+  /**
+   * @param gene the gene to make frequency data for
+   * @param threads the most frequency requests to have in flight at once
+   */
+  public FrequencyCreator(String gene, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Must have at least 1 thread");
+    }
+    f_httpClient = HttpUtils.newClientBuilder().build();
     f_gene = gene;
     sf_logger.info("Writing new frequency data for: " + f_gene);
     loadAlleles();
-    f_alleleRsidMap.keySet().forEach(this::loadFrequency);
+    loadFrequencies(threads);
   }
 
   private void loadAlleles() {
@@ -145,54 +161,163 @@ private void loadAlleles() {
     }
   }
 
-  private void loadFrequency(String alleleName) {
-    AlleleDistribution alleleDistribution = new AlleleDistribution(f_gene, alleleName);
+  /**
+   * Request the frequencies of all the gene's variants. Alleles at the same rsid share one request. Requests start as
+   * fast as the ClinPGx rate limit allows and run on a pool of threads so one slow response doesn't hold up the rest.
+   * @param threads the most requests to have in flight at once
+   */
+  private void loadFrequencies(int threads) {
+    Map<String, List<String>> rsidAlleles = new LinkedHashMap<>();
+    f_alleleRsidMap.forEach((alleleName, rsid) -> rsidAlleles.computeIfAbsent(rsid, k -> new ArrayList<>()).add(alleleName));
+    sf_logger.info("Requesting frequencies for {} variants of {} alleles", rsidAlleles.size(), f_alleleRsidMap.size());
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<List<AlleleDistribution>>> requests = new ArrayList<>();
+      rsidAlleles.forEach((rsid, alleleNames) ->
+          requests.add(executor.submit(() -> requestFrequencies(rsid, alleleNames))));
 
-    String rsid = f_alleleRsidMap.get(alleleName);
+      Map<String, AlleleDistribution> distributionMap = new HashMap<>();
+      for (Future<List<AlleleDistribution>> request : requests) {
+        request.get().forEach(d -> distributionMap.put(d.getAlleleName(), d));
+      }
+      // keep the allele order since the first distribution gives the subject counts
+      for (String alleleName : f_alleleRsidMap.keySet()) {
+        if (distributionMap.containsKey(alleleName)) {
+          f_alleleDistributions.add(distributionMap.get(alleleName));
+        }
+      }
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Could not parse frequency response", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted requesting frequencies", e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Request the frequencies at one rsid
+   * @param rsid the rsid to request
+   * @param alleleNames the names of the alleles defined by a variant at the rsid
+   * @return a distribution for each allele, empty if there's no frequency data for the rsid
+   */
+  private List<AlleleDistribution> requestFrequencies(String rsid, List<String> alleleNames) throws IOException {
+    List<AlleleDistribution> distributions = new ArrayList<>();
+    List<String> variants = new ArrayList<>();
+    for (String alleleName : alleleNames) {
+      distributions.add(new AlleleDistribution(f_gene, alleleName));
+      variants.add(f_alleleMap.get(alleleName));
+    }
 
-    String response = null;
     try {
-      Thread.sleep(HttpUtils.API_WAIT_TIME);
       sf_logger.debug("Requesting frequencies from ClinPGx for: {}", rsid);
-      response = apiRequest(f_httpClient, buildClinpgxUrl("report/variantFrequency", "fp", rsid, "source", "gnomadGenome"));
+      Boolean hasData = apiRequest(f_httpClient, buildClinpgxUrl("report/variantFrequency", "fp", rsid, "source", "gnomadGenome"),
+          null, HttpUtils.CLINPGX_RATE_LIMITER,
+          body -> parseFrequencies(new JsonReader(body.charStream()), distributions, variants));
+      if (Boolean.TRUE.equals(hasData)) {
+        return distributions;
+      }
     } catch (NotFoundException e) {
       // safe to ignore, just means no frequency data available
-    } catch (Exception e) {
-      throw new RuntimeException("Could not parse frequency response", e);
     }
+    return Collections.emptyList();
+  }
 
-    if (StringUtils.isBlank(response)) {
-      return;
+  /**
+   * Read a JSend variantFrequency response as it streams in, straight into the distributions of the alleles at the
+   * variant
+   * @param reader a reader of the response
+   * @param distributions the distributions to fill in
+   * @param variants the variant base of each allele, in the same order as the distributions
+   * @return true if the response had data, false if it was empty or had null data
+   */
+  static boolean parseFrequencies(JsonReader reader, List<AlleleDistribution> distributions, List<String> variants)
+      throws IOException {
+    try {
+      reader.peek();
+    } catch (EOFException e) {
+      // an empty response
+      return false;
     }
-
-    JsonObject jsendObject = f_gson.fromJson(response, JsonObject.class);
-    if (!jsendObject.has("data") || jsendObject.get("data").isJsonNull()) {
-      // no data to parse
-      return;
+    boolean hasData = false;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (reader.nextName().equals("data") && reader.peek() != JsonToken.NULL) {
+        hasData = true;
+        reader.beginObject();
+        while (reader.hasNext()) {
+          if (reader.nextName().equals("populations")) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+              parsePopulation(reader, distributions, variants);
+            }
+            reader.endArray();
+          } else {
+            reader.skipValue();
+          }
+        }
+        reader.endObject();
+      } else {
+        reader.skipValue();
+      }
     }
+    reader.endObject();
+    return hasData;
+  }
 
-    JsonObject frequencyObject = jsendObject.getAsJsonObject("data");
-    JsonArray populationArray = frequencyObject.getAsJsonArray("populations");
-
-    for (JsonElement populationElement : populationArray) {
-      JsonObject populationObject = populationElement.getAsJsonObject();
-      String populationString = populationObject.get("population").getAsString();
-      GnomadPopulation population = GnomadPopulation.valueOf(populationString);
-
-      BigDecimal freq = BigDecimal.ZERO;
-      for (JsonElement alleleElement : populationObject.getAsJsonArray("bases")) {
-        JsonObject alleleObject = alleleElement.getAsJsonObject();
-        if (f_alleleMap.get(alleleName).equals(alleleObject.get("base").getAsString())) {
-          freq = alleleObject.get("freq").getAsBigDecimal();
-        }
-        if (alleleObject.has("size")) {
-          alleleDistribution.addSize(population, alleleObject.get("size").getAsInt());
+  private static void parsePopulation(JsonReader reader, List<AlleleDistribution> distributions, List<String> variants)
+      throws IOException {
+    String populationString = null;
+    BigDecimal[] freqs = new BigDecimal[variants.size()];
+    Arrays.fill(freqs, BigDecimal.ZERO);
+    Integer size = null;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (name.equals("population")) {
+        populationString = reader.nextString();
+      } else if (name.equals("bases")) {
+        reader.beginArray();
+        while (reader.hasNext()) {
+          String base = null;
+          BigDecimal freq = null;
+          reader.beginObject();
+          while (reader.hasNext()) {
+            String baseField = reader.nextName();
+            if (baseField.equals("base")) {
+              base = reader.nextString();
+            } else if (baseField.equals("freq")) {
+              freq = new BigDecimal(reader.nextString());
+            } else if (baseField.equals("size")) {
+              size = (size == null ? 0 : size) + reader.nextInt();
+            } else {
+              reader.skipValue();
+            }
+          }
+          reader.endObject();
+          for (int i = 0; i < variants.size(); i++) {
+            if (variants.get(i).equals(base)) {
+              freqs[i] = freq;
+            }
+          }
         }
+        reader.endArray();
+      } else {
+        reader.skipValue();
       }
+    }
+    reader.endObject();
 
-      alleleDistribution.set(population, freq);
+    GnomadPopulation population = GnomadPopulation.valueOf(populationString);
+    for (int i = 0; i < distributions.size(); i++) {
+      if (size != null) {
+        distributions.get(i).addSize(population, size);
+      }
+      distributions.get(i).set(population, freqs[i]);
     }
-    f_alleleDistributions.add(alleleDistribution);
   }
 
   public void write(Path outputDir) throws IOException {
@@ -271,7 +396,7 @@ public void write(Path outputDir) throws IOException {
 
     workbook.writeMethods("");
     workbook.writeNotes(ImmutableList.of(""));
-    workbook.writeChangeLog(ImmutableList.of(new Object[]{new Date(), "File created"}));
+    workbook.writeChangeLog(ImmutableList.of(new Object[]{new Date(), AbstractWorkbook.LOG_FILE_WRITTEN}));
 
 
     // write to disk
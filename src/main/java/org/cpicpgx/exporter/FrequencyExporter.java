@@ -23,6 +23,9 @@
 
 /**
  * Exports a frequency Excel sheet for every gene in the database that has frequency data.
+ * <p>
+ * The frequency values for a gene are prefetched with a few queries into in-memory tables (see
+ * {@link FrequencyDbHarness#prefetch(String)}) so filling in the cells of the workbook doesn't query the database.
  *
  * @author Ryan Whaley
  */
@@ -33,7 +36,7 @@ public static void main(String[] args) {
     FrequencyExporter exporter = new FrequencyExporter();
     try {
       exporter.parseArgs(args);
-      exporter.export();
+      exporter.exportAndUpload();
     } catch (Exception ex) {
       sf_logger.error("Error exporting frequencies", ex);
     }
@@ -55,11 +58,6 @@ public void export() throws Exception {
               "from allele_frequency f join population p on f.population = p.id join allele a on f.alleleid = a.id\n" +
               "left join publication p2 on p.publicationId=p2.id\n" +
               "where a.genesymbol=? and p.ethnicity=? order by p.ethnicity, p2.year, p2.authors, p.population");
-          PreparedStatement afStmt = conn.prepareStatement(
-              "select f.label, f.frequency from allele_frequency f where f.population=? and f.alleleid=?");
-          PreparedStatement ethAlleleStmt = conn.prepareStatement(
-              "select freq_weighted_avg, freq_max, freq_min from population_frequency_view v where v.name=? and v.population_group=? and v.genesymbol=?"
-          );
           PreparedStatement methodsStmt = conn.prepareStatement(
               "select frequencyMethods from gene where symbol=?"
           );
@@ -89,6 +87,7 @@ public void export() throws Exception {
           }
 
           // start the Allele Frequency sheet
+          dbHarness.prefetch(geneSymbol);
           List<String> ethnicities = dbHarness.getEthnicities(geneSymbol);
           Set<String> alleleNames = dbHarness.getAllelesWithFrequencies(geneSymbol);
           if (alleleNames.isEmpty()) {
@@ -102,16 +101,16 @@ public void export() throws Exception {
             // infer reference allele values based on other alleles
             if (refAlleleName != null && !alleleNames.contains(refAlleleName)) {
               BigDecimal[] frequencies = new BigDecimal[ethnicities.size()];
-              for (String pop : ethnicities) {
-                frequencies[ethnicities.indexOf(pop)] = dbHarness.getFrequency(geneSymbol, refAlleleName, pop);
+              for (int i = 0; i < ethnicities.size(); i++) {
+                frequencies[i] = dbHarness.getFrequency(geneSymbol, refAlleleName, ethnicities.get(i));
               }
               workbook.writeAlleleFrequency(refAlleleName, frequencies);
             }
 
             for (String allele : alleleNames) {
               BigDecimal[] frequencies = new BigDecimal[ethnicities.size()];
-              for (String pop : ethnicities) {
-                frequencies[ethnicities.indexOf(pop)] = dbHarness.getFrequency(geneSymbol, allele, pop);
+              for (int i = 0; i < ethnicities.size(); i++) {
+                frequencies[i] = dbHarness.getFrequency(geneSymbol, allele, ethnicities.get(i));
               }
               if (Arrays.stream(frequencies).anyMatch(Objects::nonNull)) {
                 workbook.writeAlleleFrequency(allele, frequencies);
@@ -132,11 +131,8 @@ public void export() throws Exception {
                 BigDecimal[] frequencies = new BigDecimal[dipPops.size()];
                 Map<String, BigDecimal> popMap = diplotypeMap.get(diplotype);
                 if (popMap != null) {
-                  for (String pop : dipPops) {
-                    int idx = dipPops.indexOf(pop);
-                    if (idx > -1) {
-                      frequencies[idx] = popMap.get(pop);
-                    }
+                  for (int i = 0; i < dipPops.size(); i++) {
+                    frequencies[i] = popMap.get(dipPops.get(i));
                   }
                 }
                 workbook.writeDiplotypeFrequency(diplotype, frequencies);
@@ -155,11 +151,8 @@ public void export() throws Exception {
 
               phenotypeMap.forEach((phenotype, popMap) -> {
                 BigDecimal[] frequencies = new BigDecimal[phenoPops.size()];
-                for (String pop : phenoPops) {
-                  int idx = phenoPops.indexOf(pop);
-                  if (idx > -1) {
-                    frequencies[idx] = popMap.get(pop);
-                  }
+                for (int i = 0; i < phenoPops.size(); i++) {
+                  frequencies[i] = popMap.get(phenoPops.get(i));
                 }
                 workbook.writePhenotypeFrequency(phenotype, frequencies);
               });
@@ -214,22 +207,8 @@ public void export() throws Exception {
                 // allele loop (columns after standard)
                 String[] frequencies = new String[alleles.keySet().size()];
                 int i = 0;
-                for (String alleleName : alleles.keySet()) {
-                  Integer alleleId = alleles.get(alleleName);
-                  afStmt.clearParameters();
-                  afStmt.setInt(1, popId);
-                  afStmt.setInt(2, alleleId);
-                  try (ResultSet afrs = afStmt.executeQuery()) {
-                    while (afrs.next()) {
-                      String label = afrs.getString(1);
-                      BigDecimal freq = afrs.getBigDecimal(2);
-                      if (freq != null && freq.compareTo(BigDecimal.ZERO) != 0) {
-                        frequencies[i] = freq.toString();
-                      } else {
-                        frequencies[i] = label;
-                      }
-                    }
-                  }
+                for (Integer alleleId : alleles.values()) {
+                  frequencies[i] = dbHarness.getPopulationFrequency(popId, alleleId);
                   i += 1;
                 }
 
@@ -251,21 +230,15 @@ public void export() throws Exception {
 
             workbook.startPopulationSummary();
             for (String allele : alleles.keySet()) {
-              ethAlleleStmt.setString(1, allele);
-              ethAlleleStmt.setString(2, ethnicity);
-              ethAlleleStmt.setString(3, geneSymbol);
-              try (ResultSet rsEth = ethAlleleStmt.executeQuery()) {
-                boolean wroteSummary = false;
-                while (rsEth.next()) {
-                  workbook.writePopulationSummary(rsEth.getBigDecimal(3), rsEth.getBigDecimal(1), rsEth.getBigDecimal(2));
-                  wroteSummary = true;
-                }
-                if (!wroteSummary) {
-                  if (allele.equals(refAllele)) {
-                    workbook.writeReferencePopulationSummary(refAlleleFrequency);
-                  } else {
-                    workbook.writeEmptyPopulationSummary();
-                  }
+              List<BigDecimal[]> summaries = dbHarness.getPopulationSummaries(allele, ethnicity);
+              for (BigDecimal[] summary : summaries) {
+                workbook.writePopulationSummary(summary[2], summary[0], summary[1]);
+              }
+              if (summaries.isEmpty()) {
+                if (allele.equals(refAllele)) {
+                  workbook.writeReferencePopulationSummary(refAlleleFrequency);
+                } else {
+                  workbook.writeEmptyPopulationSummary();
                 }
               }
             }
@@ -301,13 +274,23 @@ private static class FrequencyDbHarness extends DbHarness {
     final Gson gson = new Gson();
     final Type bigDecimalMapType = new TypeToken<HashMap<String, BigDecimal>>(){}.getType();
     PreparedStatement ethnicitiesStmt;
-    PreparedStatement allelePopulationStmt;
     PreparedStatement diplotypePopStmt;
     PreparedStatement diplotypeDataStmt;
     PreparedStatement phenotypePopStmt;
     PreparedStatement phenotypeDataStmt;
     PreparedStatement activityDataStmt;
     PreparedStatement alleleNameStmt;
+    PreparedStatement alleleFrequencyStmt;
+    PreparedStatement populationFrequencyStmt;
+    PreparedStatement populationSummaryStmt;
+
+    private String prefetchedGene = null;
+    /** allele name to ethnicity to frequency */
+    private final Map<String, Map<String, BigDecimal>> alleleFrequencies = new HashMap<>();
+    /** population ID to allele ID to the text to show for the frequency */
+    private final Map<Integer, Map<Integer, String>> populationFrequencies = new HashMap<>();
+    /** allele name to ethnicity to summary values: weighted average, max, min */
+    private final Map<String, Map<String, List<BigDecimal[]>>> populationSummaries = new HashMap<>();
 
     FrequencyDbHarness() throws SQLException {
       super(FileType.FREQUENCY);
@@ -315,8 +298,6 @@ private static class FrequencyDbHarness extends DbHarness {
       //language=PostgreSQL
       ethnicitiesStmt = prepare("select distinct p.ethnicity from allele_frequency f join allele a on a.id = f.alleleid join population p on f.population = p.id where a.genesymbol=? order by 1");
       //language=PostgreSQL
-      allelePopulationStmt = prepare("with x as (select frequency -> ? as frequency from allele where genesymbol=? and name=?) select * from x where x.frequency::text != 'null'");
-      //language=PostgreSQL
       diplotypePopStmt = prepare("select distinct jsonb_object_keys(grd.frequency) from gene_result r join gene_result_lookup grl on r.id = grl.phenotypeid join gene_result_diplotype grd on grl.id = grd.functionphenotypeid where r.genesymbol=? and grd.frequency is not null order by 1");
       //language=PostgreSQL
       diplotypeDataStmt = prepare("select grd.diplotype, grd.frequency from gene_result r join gene_result_lookup grl on r.id = grl.phenotypeid join gene_result_diplotype grd on grl.id = grd.functionphenotypeid where r.genesymbol=?");
@@ -328,6 +309,74 @@ private static class FrequencyDbHarness extends DbHarness {
       activityDataStmt = prepare("select activityscore,frequency from gene_result where genesymbol=? and frequency is not null");
       //language=PostgreSQL
       alleleNameStmt = prepare("select distinct name from allele where genesymbol=? and frequency is not null");
+      //language=PostgreSQL
+      alleleFrequencyStmt = prepare("select name, frequency from allele where genesymbol=? and frequency is not null");
+      //language=PostgreSQL
+      populationFrequencyStmt = prepare("select f.population, f.alleleid, f.label, f.frequency from allele_frequency f join allele a on f.alleleid = a.id where a.genesymbol=?");
+      //language=PostgreSQL
+      populationSummaryStmt = prepare("select v.name, v.population_group, v.freq_weighted_avg, v.freq_max, v.freq_min from population_frequency_view v where v.genesymbol=?");
+    }
+
+    /**
+     * Load all the frequency values for a gene into memory, replacing whatever gene was loaded before. This is one
+     * query for each kind of frequency instead of one query for each cell of the workbook.
+     * @param gene the gene symbol to load
+     */
+    void prefetch(String gene) throws SQLException {
+      alleleFrequencies.clear();
+      populationFrequencies.clear();
+      populationSummaries.clear();
+
+      alleleFrequencyStmt.setString(1, gene);
+      try (ResultSet rs = alleleFrequencyStmt.executeQuery()) {
+        while (rs.next()) {
+          alleleFrequencies.put(rs.getString(1), gson.fromJson(rs.getString(2), bigDecimalMapType));
+        }
+      }
+
+      populationFrequencyStmt.setString(1, gene);
+      try (ResultSet rs = populationFrequencyStmt.executeQuery()) {
+        while (rs.next()) {
+          String label = rs.getString(3);
+          BigDecimal freq = rs.getBigDecimal(4);
+          String value = freq != null && freq.compareTo(BigDecimal.ZERO) != 0 ? freq.toString() : label;
+          populationFrequencies
+              .computeIfAbsent(rs.getInt(1), (k) -> new HashMap<>())
+              .put(rs.getInt(2), value);
+        }
+      }
+
+      populationSummaryStmt.setString(1, gene);
+      try (ResultSet rs = populationSummaryStmt.executeQuery()) {
+        while (rs.next()) {
+          populationSummaries
+              .computeIfAbsent(rs.getString(1), (k) -> new HashMap<>())
+              .computeIfAbsent(rs.getString(2), (k) -> new ArrayList<>())
+              .add(new BigDecimal[]{rs.getBigDecimal(3), rs.getBigDecimal(4), rs.getBigDecimal(5)});
+        }
+      }
+      prefetchedGene = gene;
+      sf_logger.debug("prefetched {} allele, {} population and {} summary frequencies for {}",
+          alleleFrequencies.size(), populationFrequencies.size(), populationSummaries.size(), gene);
+    }
+
+    /**
+     * Get the text to show for the frequency of an allele in a population, null if there is none
+     */
+    String getPopulationFrequency(int populationId, int alleleId) {
+      Map<Integer, String> alleleMap = populationFrequencies.get(populationId);
+      return alleleMap == null ? null : alleleMap.get(alleleId);
+    }
+
+    /**
+     * Get the summary values (weighted average, max, min) of an allele for an ethnicity from the prefetched gene
+     */
+    List<BigDecimal[]> getPopulationSummaries(String alleleName, String ethnicity) {
+      Map<String, List<BigDecimal[]>> ethnicityMap = populationSummaries.get(alleleName);
+      if (ethnicityMap == null) {
+        return Collections.emptyList();
+      }
+      return ethnicityMap.getOrDefault(ethnicity, Collections.emptyList());
     }
 
     Set<String> getAllelesWithFrequencies(String gene) throws SQLException {
@@ -342,16 +391,11 @@ Set<String> getAllelesWithFrequencies(String gene) throws SQLException {
     }
 
     BigDecimal getFrequency(String gene, String alleleName, String ethnicity) throws SQLException {
-      this.allelePopulationStmt.setString(2, gene);
-      this.allelePopulationStmt.setString(3, alleleName);
-      this.allelePopulationStmt.setString(1, ethnicity);
-      try (ResultSet rs = this.allelePopulationStmt.executeQuery()) {
-        if (rs.next()) {
-          return rs.getBigDecimal(1);
-        } else {
-          return null;
-        }
+      if (!gene.equals(prefetchedGene)) {
+        prefetch(gene);
       }
+      Map<String, BigDecimal> ethnicityMap = alleleFrequencies.get(alleleName);
+      return ethnicityMap == null ? null : ethnicityMap.get(ethnicity);
     }
 
     List<String> getEthnicities(String gene) throws SQLException {
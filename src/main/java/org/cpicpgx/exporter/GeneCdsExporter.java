@@ -24,7 +24,7 @@ public static void main(String[] args) {
     GeneCdsExporter exporter = new GeneCdsExporter();
     try {
       exporter.parseArgs(args);
-      exporter.export();
+      exporter.exportAndUpload();
     } catch (Exception e) {
       sf_logger.error("Error exporting gene CDS information", e);
     }
@@ -80,7 +80,7 @@ public static void main(String[] args) {
   public GeneResourceCreator(Path outputDir) {
     Preconditions.checkArgument(outputDir.toFile().exists(), "Output dir does not exist");
     Preconditions.checkArgument(outputDir.toFile().isDirectory(), "Output dir is not a directory");
-    f_httpClient = new OkHttpClient().newBuilder()
+    f_httpClient = HttpUtils.newClientBuilder()
         .build();
     f_gson = new Gson();
     f_outputDir = outputDir;
@@ -91,8 +91,8 @@ public Path create(String rawSymbol) {
 
     String response;
     try {
-      Thread.sleep(HttpUtils.API_WAIT_TIME);
-      response = apiRequest(f_httpClient, buildClinpgxUrl("data/gene", "view", "max", "symbol", symbol));
+      response = apiRequest(f_httpClient, buildClinpgxUrl("data/gene", "view", "max", "symbol", symbol),
+          null, HttpUtils.CLINPGX_RATE_LIMITER);
     } catch (Exception ex) {
       throw new RuntimeException("No gene data found for " + symbol, ex);
     }
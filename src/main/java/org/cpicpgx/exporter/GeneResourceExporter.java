@@ -24,7 +24,7 @@ public static void main(String[] args) {
     GeneResourceExporter exporter = new GeneResourceExporter();
     try {
       exporter.parseArgs(args);
-      exporter.export();
+      exporter.exportAndUpload();
     } catch (Exception ex) {
       sf_logger.error("Error exporting gene resource files", ex);
     }
@@ -23,7 +23,7 @@ public static void main(String[] args) {
     try {
       GuidelineExporter guidelineExporter = new GuidelineExporter();
       guidelineExporter.parseArgs(args);
-      guidelineExporter.export();
+      guidelineExporter.exportAndUpload();
     } catch (ParseException e) {
       sf_logger.error("Cound not parse command", e);
     } catch (Exception e) {
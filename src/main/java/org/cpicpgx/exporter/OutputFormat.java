@@ -0,0 +1,57 @@
+package org.cpicpgx.exporter;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The formats an exporter can write workbooks in. Delimited formats get one file per sheet of the workbook.
+ */
+public enum OutputFormat {
+  XLSX("xlsx", null),
+  CSV("csv", CSVFormat.DEFAULT.builder().setRecordSeparator("\n").build()),
+  TSV("tsv", CSVFormat.TDF.builder().setRecordSeparator("\n").build());
+
+  private final String extension;
+  private final CSVFormat csvFormat;
+
+  OutputFormat(String extension, CSVFormat csvFormat) {
+    this.extension = extension;
+    this.csvFormat = csvFormat;
+  }
+
+  public String getExtension() {
+    return extension;
+  }
+
+  /**
+   * The commons-csv format to write with, null if this isn't a delimited format
+   */
+  CSVFormat getCsvFormat() {
+    return csvFormat;
+  }
+
+  public boolean isDelimited() {
+    return csvFormat != null;
+  }
+
+  /**
+   * Parse a comma-separated list of format names, like "xlsx,tsv"
+   * @param formats the text of the format names, case-insensitive
+   * @return a set of formats, just XLSX if the text is blank
+   */
+  public static Set<OutputFormat> parseList(String formats) {
+    if (StringUtils.isBlank(formats)) {
+      return EnumSet.of(XLSX);
+    }
+    Set<OutputFormat> result = EnumSet.noneOf(OutputFormat.class);
+    for (String format : formats.split(",")) {
+      if (StringUtils.isNotBlank(format)) {
+        result.add(OutputFormat.valueOf(format.strip().toUpperCase()));
+      }
+    }
+    return result;
+  }
+}
@@ -61,9 +61,11 @@ public static void main(String[] args) {
     try {
       PairsExporter export = new PairsExporter();
       export.parseArgs(args);
-      export.export();
+      export.exportAndUpload();
     } catch (ParseException e) {
       sf_logger.error("Couldn't parse command", e);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
     }
   }
 
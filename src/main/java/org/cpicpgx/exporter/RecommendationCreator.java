@@ -5,6 +5,7 @@
 import com.google.common.collect.ImmutableMap;
 import org.cpicpgx.db.ConnectionFactory;
 import org.cpicpgx.db.LookupMethod;
+import org.cpicpgx.workbook.AbstractWorkbook;
 import org.cpicpgx.workbook.RecommendationWorkbook;
 import org.cpicpgx.workbook.SheetWrapper;
 
@@ -82,7 +83,7 @@ public RecommendationWorkbook write() {
           ""
       );
     }
-    workbook.writeChangeLog(ImmutableList.of(new Object[]{new Date(), "File created"}));
+    workbook.writeChangeLog(ImmutableList.of(new Object[]{new Date(), AbstractWorkbook.LOG_FILE_WRITTEN}));
     workbook.getSheets().forEach(SheetWrapper::autosizeColumns);
     return workbook;
   }
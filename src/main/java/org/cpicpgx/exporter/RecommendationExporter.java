@@ -29,7 +29,7 @@ public static void main(String[] args) {
     RecommendationExporter exporter = new RecommendationExporter();
     try {
       exporter.parseArgs(args);
-      exporter.export();
+      exporter.exportAndUpload();
     } catch (Exception ex) {
       sf_logger.error("Error exporting recommendations", ex);
     }
@@ -30,7 +30,7 @@ public static void main(String[] args) {
     TestAlertExporter exporter = new TestAlertExporter();
     try {
       exporter.parseArgs(args);
-      exporter.export();
+      exporter.exportAndUpload();
     } catch (Exception ex) {
       sf_logger.error("Error exporting test alerts", ex);
     }
@@ -78,8 +78,25 @@ String getFileExtensionToProcess() {
     return Constants.EXCEL_EXTENSION;
   }
 
+  @Override
+  boolean useStreamingReader() {
+    return true;
+  }
+
+  /**
+   * The state for the file being read is kept in fields so each file is read by its own instance of this importer
+   */
+  @Override
+  boolean isParallelSafe() {
+    return true;
+  }
+
   @Override
   void processWorkbook(WorkbookWrapper workbook) throws Exception {
+    new AlleleDefinitionImporter().readWorkbook(workbook);
+  }
+
+  private void readWorkbook(WorkbookWrapper workbook) throws Exception {
     readGene(workbook);
     readLegacyRow(workbook);
     readProteinRow(workbook);
@@ -314,136 +331,225 @@ void writeHistory(WorkbookWrapper workbook) throws SQLException {
     }
   }
 
+  /**
+   * Writes the definitions read from the workbook for this gene to the DB. All writes for the gene happen in one
+   * transaction and rows are sent in JDBC batches to keep the number of round trips to the DB down.
+   * @throws SQLException can occur from DB writes, the transaction is rolled back when this happens
+   */
   void writeToDB() throws SQLException {
     try (Connection conn = ConnectionFactory.newConnection()) {
-      PreparedStatement selectExistingAlleles = conn.prepareStatement("select name from allele_definition where genesymbol=?");
-      selectExistingAlleles.setString(1, m_gene);
-      Set<String> alleleNamesNotUpdated = new HashSet<>();
-      try (ResultSet existingRs = selectExistingAlleles.executeQuery()) {
-        while (existingRs.next()) {
-          alleleNamesNotUpdated.add(existingRs.getString(1));
-        }
+      conn.setAutoCommit(false);
+      try {
+        writeToDB(conn);
+        conn.commit();
+      } catch (SQLException | RuntimeException ex) {
+        conn.rollback();
+        throw ex;
       }
+    }
+  }
 
-      PreparedStatement joinTableInsert = conn.prepareStatement(
-          "insert into allele_location_value(alleledefinitionid, locationid, variantallele) values (?,?,?)");
-      PreparedStatement joinTableDelete = conn.prepareStatement(
-          "delete from allele_location_value where alleledefinitionid=?");
-
-      PreparedStatement geneUpdate = conn.prepareStatement(
-          "update gene set genesequenceid=?,proteinsequenceid=?,chromosequenceid=?,mrnaSequenceId=?, notesonallelenaming=? where symbol=?");
-      geneUpdate.setString(1, m_geneSeqId);
-      geneUpdate.setString(2, m_proteinSeqId);
-      geneUpdate.setString(3, m_chromoSeqId);
-      geneUpdate.setString(4, m_mrnaSeqId);
-      if (m_legacyNamesNote != null) {
-        geneUpdate.setString(5, m_legacyNamesNote);
-      } else {
-        geneUpdate.setNull(5, Types.VARCHAR);
+  private void writeToDB(Connection conn) throws SQLException {
+    PreparedStatement selectExistingAlleles = conn.prepareStatement("select name from allele_definition where genesymbol=?");
+    selectExistingAlleles.setString(1, m_gene);
+    Set<String> alleleNamesNotUpdated = new HashSet<>();
+    try (ResultSet existingRs = selectExistingAlleles.executeQuery()) {
+      while (existingRs.next()) {
+        alleleNamesNotUpdated.add(existingRs.getString(1));
       }
-      geneUpdate.setString(6, m_gene);
-      geneUpdate.executeUpdate();
-
-      PreparedStatement seqLocInsert = conn.prepareStatement(
-          "insert into sequence_location(name, chromosomelocation, genelocation, proteinlocation, dbsnpid, geneSymbol, position) " +
-              "values (?,?,?,?,?,?, ?) " +
-              "on conflict (chromosomelocation) do update set name=excluded.name, chromosomelocation=excluded.chromosomelocation, genelocation=excluded.genelocation, proteinlocation=excluded.proteinlocation, dbsnpid=excluded.dbsnpid " +
-              "returning (id)");
-      Integer[] locIdAssignements = new Integer[m_chromoPositions.length];
-      int newLocations = 0;
-      for (int i=0; i < m_chromoPositions.length; i++) {
-
-        // here we want to guard against over-running the location columns
-        // we can't rely on either the legacy row or the chromo row singly since there are sheets that have missing
-        // values in both so we need to check for either
-        if (m_chromoPositions[i] == null && m_legacyNames[i] == null) {
-          continue;
-        }
+    }
 
-        seqLocInsert.setString(1, m_legacyNames[i]);
-        seqLocInsert.setString(2, m_chromoPositions[i]);
-        seqLocInsert.setString(3, m_genoPositions[i]);
-        seqLocInsert.setString(4, m_proteinEffects[i]);
-        if (i < m_dbSnpIds.length && m_dbSnpIds[i] != null) {
-          seqLocInsert.setString(5, m_dbSnpIds[i]);
-        } else {
-          seqLocInsert.setNull(5, Types.VARCHAR);
-        }
-        seqLocInsert.setString(6, m_gene);
-        seqLocInsert.setInt(7, m_chromoStartPositions[i]);
-        ResultSet rs = seqLocInsert.executeQuery();
-        rs.next();
-        int locId = rs.getInt(1);
-        locIdAssignements[i] = locId;
-        newLocations += 1;
+    PreparedStatement geneUpdate = conn.prepareStatement(
+        "update gene set genesequenceid=?,proteinsequenceid=?,chromosequenceid=?,mrnaSequenceId=?, notesonallelenaming=? where symbol=?");
+    geneUpdate.setString(1, m_geneSeqId);
+    geneUpdate.setString(2, m_proteinSeqId);
+    geneUpdate.setString(3, m_chromoSeqId);
+    geneUpdate.setString(4, m_mrnaSeqId);
+    if (m_legacyNamesNote != null) {
+      geneUpdate.setString(5, m_legacyNamesNote);
+    } else {
+      geneUpdate.setNull(5, Types.VARCHAR);
+    }
+    geneUpdate.setString(6, m_gene);
+    geneUpdate.executeUpdate();
+
+    Integer[] locIdAssignements = writeLocations(conn);
+
+    // the driver adds a "returning id, name" to these so the generated IDs can be matched to their allele
+    PreparedStatement alleleDefInsert = conn.prepareStatement(
+        "insert into allele_definition(geneSymbol, name, matchesreferencesequence, structuralvariation) values (?,?,?,?) " +
+            "on conflict (genesymbol,name) do update set matchesreferencesequence=excluded.matchesreferencesequence, structuralvariation=excluded.structuralvariation, pharmvarid=excluded.pharmvarid",
+        new String[]{"id", "name"});
+    List<String> alleleNames = new ArrayList<>(m_alleles.keySet());
+    boolean isReference = true;
+    for (String alleleName : alleleNames) {
+      alleleDefInsert.setString(1, m_gene);
+      alleleDefInsert.setString(2, alleleName);
+      alleleDefInsert.setBoolean(3, isReference);
+      alleleDefInsert.setBoolean(4, m_svTextMap.containsKey(alleleName));
+      alleleDefInsert.addBatch();
+      isReference = false;
+    }
+    Map<String, Integer> alleleIds = executeBatchForKeyedIds(alleleDefInsert, alleleNames.size());
+
+    PreparedStatement alleleInsert = conn.prepareStatement(
+        "insert into allele(genesymbol, name, definitionId, inferredfrequency) values (?,?,?,?) on conflict (genesymbol,name) do update set inferredfrequency=excluded.inferredfrequency");
+    PreparedStatement joinTableDelete = conn.prepareStatement(
+        "delete from allele_location_value where alleledefinitionid=?");
+    PreparedStatement joinTableInsert = conn.prepareStatement(
+        "insert into allele_location_value(alleledefinitionid, locationid, variantallele) values (?,?,?)");
+    for (int i = 0; i < alleleNames.size(); i++) {
+      String alleleName = alleleNames.get(i);
+      int alleleId = alleleIds.get(alleleName);
+
+      alleleInsert.setString(1, m_gene);
+      alleleInsert.setString(2, alleleName);
+      alleleInsert.setInt(3, alleleId);
+      alleleInsert.setBoolean(4, i == 0);
+      alleleInsert.addBatch();
+
+      joinTableDelete.setInt(1, alleleId);
+      joinTableDelete.addBatch();
+
+      Map<Integer,String> allelePosMap = m_alleles.get(alleleName);
+      for (Integer locIdx : allelePosMap.keySet()) {
+        joinTableInsert.setInt(1, alleleId);
+        joinTableInsert.setInt(2, locIdAssignements[locIdx]);
+        joinTableInsert.setString(3, allelePosMap.get(locIdx));
+        joinTableInsert.addBatch();
       }
-      sf_logger.debug("created {} new locations", newLocations);
-
-      PreparedStatement alleleDefInsert = conn.prepareStatement(
-          "insert into allele_definition(geneSymbol, name, matchesreferencesequence, structuralvariation) values (?,?,?,?) " +
-              "on conflict (genesymbol,name) do update set matchesreferencesequence=excluded.matchesreferencesequence, structuralvariation=excluded.structuralvariation, pharmvarid=excluded.pharmvarid " +
-              "returning (id)");
-      PreparedStatement alleleInsert = conn.prepareStatement(
-          "insert into allele(genesymbol, name, definitionId, inferredfrequency) values (?,?,?,?) on conflict (genesymbol,name) do update set inferredfrequency=excluded.inferredfrequency");
-      boolean isReference = true;
-      for (String alleleName : m_alleles.keySet()) {
-        alleleDefInsert.setString(1, m_gene);
-        alleleDefInsert.setString(2, alleleName);
-        alleleDefInsert.setBoolean(3, isReference);
-        alleleDefInsert.setBoolean(4, m_svTextMap.containsKey(alleleName));
-        ResultSet rs = alleleDefInsert.executeQuery();
-        rs.next();
-        int alleleId = rs.getInt(1);
-
-        alleleInsert.clearParameters();
-        alleleInsert.setString(1, m_gene);
-        alleleInsert.setString(2, alleleName);
-        alleleInsert.setInt(3, alleleId);
-        alleleInsert.setBoolean(4, isReference);
-        alleleInsert.executeUpdate();
-
-        joinTableDelete.setInt(1, alleleId);
-        joinTableDelete.executeUpdate();
-        Map<Integer,String> allelePosMap = m_alleles.get(alleleName);
-        for (Integer locIdx : allelePosMap.keySet()) {
-          joinTableInsert.setInt(1, alleleId);
-          joinTableInsert.setInt(2, locIdAssignements[locIdx]);
-          joinTableInsert.setString(3, allelePosMap.get(locIdx));
-          joinTableInsert.executeUpdate();
-        }
-        isReference = false;
-        alleleNamesNotUpdated.remove(alleleName);
+      alleleNamesNotUpdated.remove(alleleName);
+    }
+    alleleInsert.executeBatch();
+    joinTableDelete.executeBatch();
+    joinTableInsert.executeBatch();
+    sf_logger.debug("processed {} alleles", alleleNames.size());
+
+    if (alleleNamesNotUpdated.size() > 0) {
+      PreparedStatement deleteAllele = conn.prepareStatement("delete from allele where definitionid=(select id from allele_definition where genesymbol=? and name=?)");
+      PreparedStatement deleteAlleleDef = conn.prepareStatement("delete from allele_definition where genesymbol=? and name=?");
+      PreparedStatement deleteLocValue = conn.prepareStatement("delete from allele_location_value where alleledefinitionid=(select id from allele_definition where genesymbol=? and name=?)");
+
+      for (String alleleName : alleleNamesNotUpdated) {
+        deleteAllele.setString(1, m_gene);
+        deleteAllele.setString(2, alleleName);
+        deleteAllele.addBatch();
+
+        deleteLocValue.setString(1, m_gene);
+        deleteLocValue.setString(2, alleleName);
+        deleteLocValue.addBatch();
+
+        deleteAlleleDef.setString(1, m_gene);
+        deleteAlleleDef.setString(2, alleleName);
+        deleteAlleleDef.addBatch();
+        sf_logger.warn("removed allele: {} {}", m_gene, alleleName);
       }
-      sf_logger.debug("processed {} alleles", m_alleles.keySet().size());
-
-      if (alleleNamesNotUpdated.size() > 0) {
-        PreparedStatement deleteAllele = conn.prepareStatement("delete from allele where definitionid=(select id from allele_definition where genesymbol=? and name=?)");
-        PreparedStatement deleteAlleleDef = conn.prepareStatement("delete from allele_definition where genesymbol=? and name=?");
-        PreparedStatement deleteLocValue = conn.prepareStatement("delete from allele_location_value where alleledefinitionid=(select id from allele_definition where genesymbol=? and name=?)");
-
-        for (String alleleName : alleleNamesNotUpdated) {
-          deleteAllele.setString(1, m_gene);
-          deleteAllele.setString(2, alleleName);
-          deleteAllele.executeUpdate();
-
-          deleteLocValue.setString(1, m_gene);
-          deleteLocValue.setString(2, alleleName);
-          deleteLocValue.executeUpdate();
-
-          deleteAlleleDef.setString(1, m_gene);
-          deleteAlleleDef.setString(2, alleleName);
-          deleteAlleleDef.executeUpdate();
-          sf_logger.warn("removed allele: {} {}", m_gene, alleleName);
-        }
+      // definitions go last since the other two look them up
+      deleteAllele.executeBatch();
+      deleteLocValue.executeBatch();
+      deleteAlleleDef.executeBatch();
+    }
+
+    try (PreparedStatement deleteUnusedLocs = conn.prepareStatement("delete from sequence_location where id not in (select locationid from allele_location_value) and genesymbol=?")) {
+      deleteUnusedLocs.setString(1, m_gene);
+      int deletedLocations = deleteUnusedLocs.executeUpdate();
+      if (deletedLocations > 0) {
+        sf_logger.warn("removed {} unused sequence locations", deletedLocations);
+      }
+    }
+  }
+
+  /**
+   * Upserts the sequence locations for this gene in one batch. Columns are deduped by chromosome location first since
+   * the driver sends the batch as one multi-row insert and an upsert can't touch the same row twice in one statement.
+   * Like upserting one column at a time, the values of the last column for a location win.
+   * @return the sequence_location ID for each variant column, null for columns that aren't locations
+   */
+  private Integer[] writeLocations(Connection conn) throws SQLException {
+    PreparedStatement seqLocInsert = conn.prepareStatement(
+        "insert into sequence_location(name, chromosomelocation, genelocation, proteinlocation, dbsnpid, geneSymbol, position) " +
+            "values (?,?,?,?,?,?, ?) " +
+            "on conflict (chromosomelocation) do update set name=excluded.name, chromosomelocation=excluded.chromosomelocation, genelocation=excluded.genelocation, proteinlocation=excluded.proteinlocation, dbsnpid=excluded.dbsnpid",
+        new String[]{"id", "chromosomelocation"});
+    Map<String, Integer> lastColByLocation = new LinkedHashMap<>();
+    List<Integer> unlocatedCols = new ArrayList<>();
+    for (int i=0; i < m_chromoPositions.length; i++) {
+
+      // here we want to guard against over-running the location columns
+      // we can't rely on either the legacy row or the chromo row singly since there are sheets that have missing
+      // values in both so we need to check for either
+      if (m_chromoPositions[i] == null && m_legacyNames[i] == null) {
+        continue;
+      }
+      if (m_chromoPositions[i] == null) {
+        unlocatedCols.add(i);
+      } else {
+        lastColByLocation.put(m_chromoPositions[i], i);
       }
+    }
+
+    for (int i : lastColByLocation.values()) {
+      setLocationParams(seqLocInsert, i);
+      seqLocInsert.addBatch();
+    }
+    Map<String, Integer> locIdsByLocation = executeBatchForKeyedIds(seqLocInsert, lastColByLocation.size());
 
-      try (PreparedStatement deleteUnusedLocs = conn.prepareStatement("delete from sequence_location where id not in (select locationid from allele_location_value) and genesymbol=?")) {
-        deleteUnusedLocs.setString(1, m_gene);
-        int deletedLocations = deleteUnusedLocs.executeUpdate();
-        if (deletedLocations > 0) {
-          sf_logger.warn("removed {} unused sequence locations", deletedLocations);
+    Integer[] locIdAssignements = new Integer[m_chromoPositions.length];
+    for (int i=0; i < m_chromoPositions.length; i++) {
+      if (m_chromoPositions[i] != null && lastColByLocation.containsKey(m_chromoPositions[i])) {
+        locIdAssignements[i] = locIdsByLocation.get(m_chromoPositions[i]);
+      }
+    }
+    // a null location never conflicts so each of these is a new row, write them one at a time to match up their IDs
+    for (int i : unlocatedCols) {
+      setLocationParams(seqLocInsert, i);
+      seqLocInsert.executeUpdate();
+      try (ResultSet rs = seqLocInsert.getGeneratedKeys()) {
+        if (!rs.next()) {
+          throw new RuntimeException("No ID returned for location " + m_legacyNames[i]);
         }
+        locIdAssignements[i] = rs.getInt(1);
+      }
+    }
+    sf_logger.debug("created {} new locations", lastColByLocation.size() + unlocatedCols.size());
+    return locIdAssignements;
+  }
+
+  private void setLocationParams(PreparedStatement seqLocInsert, int i) throws SQLException {
+    seqLocInsert.setString(1, m_legacyNames[i]);
+    seqLocInsert.setString(2, m_chromoPositions[i]);
+    seqLocInsert.setString(3, m_genoPositions[i]);
+    seqLocInsert.setString(4, m_proteinEffects[i]);
+    if (i < m_dbSnpIds.length && m_dbSnpIds[i] != null) {
+      seqLocInsert.setString(5, m_dbSnpIds[i]);
+    } else {
+      seqLocInsert.setNull(5, Types.VARCHAR);
+    }
+    seqLocInsert.setString(6, m_gene);
+    seqLocInsert.setInt(7, m_chromoStartPositions[i]);
+  }
+
+  /**
+   * Runs a batch of upserts and collects the generated ID for each by the key it was written with. The statement has to
+   * return the ID first and the key second, a multi-row insert doesn't promise to return rows in the order they were
+   * added to the batch.
+   * @return a map of the key column to the generated ID
+   */
+  private static Map<String, Integer> executeBatchForKeyedIds(PreparedStatement stmt, int expectedCount)
+      throws SQLException {
+    Map<String, Integer> ids = new HashMap<>();
+    if (expectedCount == 0) {
+      return ids;
+    }
+    stmt.executeBatch();
+    try (ResultSet rs = stmt.getGeneratedKeys()) {
+      while (rs.next()) {
+        ids.put(rs.getString(2), rs.getInt(1));
       }
     }
+    if (ids.size() != expectedCount) {
+      throw new RuntimeException("Expected " + expectedCount + " IDs back from batch but got " + ids.size());
+    }
+    return ids;
   }
 }
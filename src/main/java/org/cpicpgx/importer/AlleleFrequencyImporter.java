@@ -27,6 +27,7 @@ public class AlleleFrequencyImporter extends BaseDirectoryImporter {
   private static final String[] sf_deleteStatements = new String[]{
       "delete from change_log where type='" + FileType.FREQUENCY.name() + "'",
       "delete from file_note where type='" + FileType.FREQUENCY.name() + "'",
+      "delete from allele_frequency_summary where alleleid is not null",
       "delete from allele_frequency where alleleid is not null",
       "delete from population where id is not null",
       "update allele set frequency=null where frequency is not null",
@@ -55,6 +56,11 @@ String getFileExtensionToProcess() {
     return Constants.EXCEL_EXTENSION;
   }
 
+  @Override
+  boolean useStreamingReader() {
+    return true;
+  }
+
   @Override
   void processWorkbook(WorkbookWrapper workbook) throws Exception {
     String[] nameParts = workbook.getFileName().split("_");
@@ -74,11 +80,13 @@ private void processAlleles(WorkbookWrapper workbook, String gene) throws Except
       // START processing References sheet
       for (int i = 1; i <= workbook.currentSheet.getLastRowNum(); i++) {
         try {
-          frequencyProcessor.insertPopulation(workbook.getRow(i));
+          frequencyProcessor.stagePopulation(workbook.getRow(i));
         } catch (Exception ex) {
           throw new RuntimeException("Error parsing row " + (i+1), ex);
         }
       }
+      frequencyProcessor.writeStaged();
+      frequencyProcessor.refreshSummary();
       // END processing References sheet
 
       // START processing Change log sheet
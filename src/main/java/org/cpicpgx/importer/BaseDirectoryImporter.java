@@ -11,6 +11,7 @@
 import org.cpicpgx.util.Constants;
 import org.cpicpgx.util.DbHarness;
 import org.cpicpgx.util.RowWrapper;
+import org.cpicpgx.util.StreamingWorkbookWrapper;
 import org.cpicpgx.util.WorkbookWrapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,9 +28,11 @@
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * Abstract class for classes that want to crawl all files in a directory and do something with them. This should be 
@@ -46,6 +49,7 @@ public abstract class BaseDirectoryImporter {
   private static final Pattern sf_activityScorePattern = Pattern.compile("^[≥>]?\\d+(\\.?\\d*)$");
 
   private Path directory;
+  private int m_fileThreads = 1;
 
   /**
    * Gets the String file extension to look for in the given directory. This should be something like ".xlsx" or ".csv".
@@ -105,7 +109,8 @@ static void rebuild(BaseDirectoryImporter importer, String[] args) {
   /**
    * Parse arguments from the command line.
    * <p>
-   * Expect a "d" argument that gives the directory to crawl through. Must exist and must contain files.
+   * Expect a "d" argument that gives the directory to crawl through. Must exist and must contain files. An optional "f"
+   * argument gives the number of files to process at the same time.
    *
    * @param args an array of command line arguments
    * @throws ParseException can occur from bad argument syntax
@@ -113,21 +118,112 @@ static void rebuild(BaseDirectoryImporter importer, String[] args) {
   private void parseArgs(String[] args) throws ParseException {
     Options options = new Options();
     options.addOption("d", true, "directory containing files to process (*.xlsx)");
+    options.addOption("f", true, "number of files to process at the same time (default 1)");
     CommandLineParser clParser = new DefaultParser();
     CommandLine cli = clParser.parse(options, args);
 
     String directoryPath = cli.getOptionValue("d");
     setDirectory(Paths.get(directoryPath));
+    if (cli.hasOption("f")) {
+      setFileThreads(Integer.parseInt(cli.getOptionValue("f")));
+    }
   }
 
   /**
    * Run the importer. Requires the "directory" to be set
    */
   public void execute() {
-    Arrays.stream(Objects.requireNonNull(this.directory.toFile().listFiles()))
+    List<File> files = Arrays.stream(Objects.requireNonNull(this.directory.toFile().listFiles()))
         .filter(f -> f.getName().toLowerCase().endsWith(getFileExtensionToProcess().toLowerCase()) && !f.getName().startsWith("~$"))
         .sorted()
-        .forEach(getFileProcessor());
+        .toList();
+
+    if (m_fileThreads > 1 && isParallelSafe()) {
+      executeInParallel(files);
+    } else {
+      files.forEach(getFileProcessor());
+    }
+
+    try {
+      afterFiles();
+    } catch (Exception ex) {
+      throw new RuntimeException("Error finishing " + getFileType().name() + " import", ex);
+    }
+  }
+
+  /**
+   * Runs once all files have been processed successfully. Override this to rebuild data that's derived from everything
+   * the importer wrote.
+   *
+   * @throws Exception can occur from the work done
+   */
+  void afterFiles() throws Exception {
+  }
+
+  /**
+   * Process files on a pool of threads. Each file is processed in its own transaction so a failure in one file will
+   * roll back only that file. Failures are collected and reported together once all files have been tried.
+   *
+   * @param files the files to process
+   */
+  private void executeInParallel(List<File> files) {
+    sf_logger.info("Processing {} {} files on {} threads", files.size(), getFileType().name(), m_fileThreads);
+    Consumer<File> fileProcessor = getFileProcessor();
+    Map<File, Exception> errors = new ConcurrentSkipListMap<>();
+    ExecutorService executor = Executors.newFixedThreadPool(m_fileThreads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (File file : files) {
+        futures.add(executor.submit(() -> {
+          try {
+            ConnectionFactory.inTransaction(() -> fileProcessor.accept(file));
+          } catch (Exception ex) {
+            sf_logger.error("Failed processing {}", file.getName(), ex);
+            errors.put(file, ex);
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException | ExecutionException ex) {
+      throw new RuntimeException("Error waiting for " + getFileType().name() + " files to process", ex);
+    } finally {
+      executor.shutdown();
+    }
+
+    if (!errors.isEmpty()) {
+      RuntimeException ex = new RuntimeException(errors.size() + " of " + files.size() + " " + getFileType().name() +
+          " files failed: " + errors.keySet().stream().map(File::getName).collect(Collectors.joining(", ")));
+      errors.values().forEach(ex::addSuppressed);
+      throw ex;
+    }
+  }
+
+  /**
+   * Whether the files for this importer can be processed at the same time on separate threads. Importers that keep
+   * state for the file being processed in instance fields, or that write shared rows from more than one file, should
+   * leave this false.
+   *
+   * @return true if files can be processed in parallel
+   */
+  boolean isParallelSafe() {
+    return false;
+  }
+
+  /**
+   * Sets the number of threads to use for processing files. Only used if the importer is safe to run in parallel (see
+   * {@link BaseDirectoryImporter#isParallelSafe()}), otherwise files are processed one at a time.
+   *
+   * @param fileThreads the number of files to process at the same time, 1 to process in order
+   * @return this importer
+   */
+  public BaseDirectoryImporter setFileThreads(int fileThreads) {
+    if (fileThreads < 1) {
+      throw new IllegalArgumentException("Must have at least 1 file thread");
+    }
+    m_fileThreads = fileThreads;
+    return this;
   }
 
   /**
@@ -141,16 +237,35 @@ Consumer<File> getFileProcessor() {
     return (File file) -> {
       sf_logger.info("Reading {}", file);
 
-      try (InputStream in = Files.newInputStream(file.toPath())) {
-        WorkbookWrapper workbook = new WorkbookWrapper(in);
-        workbook.setFileName(file.getName());
-        processWorkbook(workbook);
+      try {
+        if (useStreamingReader()) {
+          try (StreamingWorkbookWrapper workbook = new StreamingWorkbookWrapper(file)) {
+            processWorkbook(workbook);
+          }
+        } else {
+          try (InputStream in = Files.newInputStream(file.toPath())) {
+            WorkbookWrapper workbook = new WorkbookWrapper(in);
+            workbook.setFileName(file.getName());
+            processWorkbook(workbook);
+          }
+        }
       } catch (Exception ex) {
         throw new RuntimeException("Error processing file " + file, ex);
       }
     };
   }
 
+  /**
+   * Whether workbooks for this importer should be read with a {@link StreamingWorkbookWrapper}, which keeps only a
+   * window of rows in memory instead of the whole workbook. Only worth it for importers with large workbooks that read
+   * each sheet from top to bottom.
+   *
+   * @return true to stream workbooks, false to load them fully
+   */
+  boolean useStreamingReader() {
+    return false;
+  }
+
   /**
    * This method is meant to pass in a parsed {@link WorkbookWrapper} object and then do something with it. This must
    * be overriden and will throw an error if it is not.
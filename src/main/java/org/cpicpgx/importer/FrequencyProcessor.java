@@ -1,19 +1,28 @@
 package org.cpicpgx.importer;
 
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.lang3.StringUtils;
+import org.cpicpgx.FrequencyGenerator;
 import org.cpicpgx.exception.NotFoundException;
 import org.cpicpgx.model.FileType;
 import org.cpicpgx.util.DbHarness;
 import org.cpicpgx.util.RowWrapper;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.lang.invoke.MethodHandles;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Types;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -21,15 +30,20 @@
  * 
  * This should be instantiated in a <code>try</code> clause since it's {@link AutoCloseable} for the wrapped database 
  * connection.
+ * <p>
+ * Population and frequency rows are staged in memory as the sheet is read and then bulk loaded with
+ * {@link FrequencyProcessor#writeStaged()}.
  *
  * @author Ryan Whaley
  */
 public class FrequencyProcessor extends DbHarness {
   private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
   
+  private final List<String> f_genes = new ArrayList<>();
   private final Map<Integer, Long> colIdxAlleleIdMap = new HashMap<>();
-  private final PreparedStatement insertStatement;
-  private final PreparedStatement insertPopulation;
+  private final PreparedStatement nextPopulationIds;
+  private final List<Object[]> stagedPopulations = new ArrayList<>();
+  private final List<StagedFrequency> stagedFrequencies = new ArrayList<>();
   private final PreparedStatement updateMethods;
   private final PublicationCatalog publicationCatalog;
 
@@ -51,6 +65,7 @@ public class FrequencyProcessor extends DbHarness {
     if (gene.equals("HLA")) {
       String[] hlaGenes = new String[]{"HLA-A", "HLA-B"};
       for (String hlaGene : hlaGenes) {
+        f_genes.add(hlaGene);
         pstmt.setString(1, hlaGene);
         ResultSet rs = pstmt.executeQuery();
         while (rs.next()) {
@@ -59,6 +74,7 @@ public class FrequencyProcessor extends DbHarness {
       }
     } 
     else {
+      f_genes.add(gene);
       pstmt.setString(1, gene);
       ResultSet rs = pstmt.executeQuery();
       while (rs.next()) {
@@ -67,12 +83,8 @@ public class FrequencyProcessor extends DbHarness {
     }
 
     //language=PostgreSQL
-    this.insertStatement =
-        prepare("insert into allele_frequency(alleleid, population, frequency, label) values (?, ?, ?, ?)");
-
-    //language=PostgreSQL
-    this.insertPopulation =
-        prepare("insert into population(ethnicity, population, populationinfo, subjecttype, subjectcount, publicationId) values (?, ?, ?, ?, ?, ?) returning (id)");
+    this.nextPopulationIds =
+        prepare("select nextval('cpic_id') from generate_series(1, ?)");
 
     //language=PostgreSQL
     this.updateMethods =
@@ -105,13 +117,12 @@ public class FrequencyProcessor extends DbHarness {
   }
 
   /**
-   * Read frequency data from the given row at the given column index and writes it to the DB
+   * Read frequency data from the given row at the given column index and stage it for writing to the DB
    * @param row a row of frequency data
    * @param alleleColIdx the index of the allele column to read
-   * @param populationId the ID of the population DB record this frequency is for
-   * @throws SQLException can occur when writing to the DB
+   * @param populationIdx the index of the staged population this frequency is for
    */
-  private void insertFrequency(RowWrapper row, Integer alleleColIdx, Long populationId) throws SQLException {
+  private void stageFrequency(RowWrapper row, Integer alleleColIdx, int populationIdx) {
     if (alleleColIdx == null || !colIdxAlleleIdMap.containsKey(alleleColIdx)) {
       throw new RuntimeException("Allele column index invalid: " + alleleColIdx);
     }
@@ -123,36 +134,20 @@ private void insertFrequency(RowWrapper row, Integer alleleColIdx, Long populati
     
     String label = row.getNullableText(alleleColIdx);
     Double value = row.getNullableDouble(alleleColIdx);
-    
-    this.insertStatement.setLong(1, alleleId);
-    this.insertStatement.setLong(2, populationId);
-    if (value != null) {
-      // some older frequency files use the 0-100 percentage range instead of 0-1 decimal range, convert if found
-      if (value > 1) {
-        value = value / 100;
-      }
-      this.insertStatement.setDouble(3, value);
-    } else {
-      this.insertStatement.setNull(3, Types.DOUBLE);
+    // some older frequency files use the 0-100 percentage range instead of 0-1 decimal range, convert if found
+    if (value != null && value > 1) {
+      value = value / 100;
     }
-    if (label != null) {
-      this.insertStatement.setString(4, label);
-    } else {
-      this.insertStatement.setNull(4, Types.VARCHAR);
-    }
-    int result = this.insertStatement.executeUpdate();
-    if (result == 0) {
-      throw new RuntimeException("Insert resulted in no rows");
-    }
-    this.insertStatement.clearParameters();
+    stagedFrequencies.add(new StagedFrequency(alleleId, populationIdx, value, label));
   }
 
   /**
-   * Read the given population row and write contents to the DB
+   * Read the given population row and stage its contents to be written to the DB by
+   * {@link FrequencyProcessor#writeStaged()}
    * @param row a population Row
-   * @throws SQLException can occur when writing data to the DB
+   * @throws SQLException can occur when looking up publications
    */
-  void insertPopulation(RowWrapper row) throws SQLException {
+  void stagePopulation(RowWrapper row) throws SQLException {
     if (row.hasNoText(4)) return;
 
     String author = row.getNullableText(getAuthorIdx());
@@ -160,32 +155,85 @@ void insertPopulation(RowWrapper row) throws SQLException {
     String externalId = row.getNullableText(getPmidIdx(), true);
     Integer publicationId = this.publicationCatalog.lookupId(externalId, pubYear, author);
 
-    this.insertPopulation.setString(1, row.getText(getEthIdx()));
-    this.insertPopulation.setString(2, row.getText(getPopIdx()));
-    this.insertPopulation.setString(3, row.getNullableText(getPopInfoIdx()));
-    this.insertPopulation.setString(4, row.getNullableText(getSubjTypeIdx()));
     Long nSubjects = 0L;
     try {
       nSubjects = row.getNullableLong(getNIdx());
     } catch (NumberFormatException ex) {
       sf_logger.warn(ex.getMessage());
     }
-    this.insertPopulation.setLong(5, nSubjects);
-    if (publicationId != null) {
-      this.insertPopulation.setInt(6, publicationId);
-    } else {
-      this.insertPopulation.setNull(6, Types.INTEGER);
+    stagedPopulations.add(new Object[]{
+        row.getText(getEthIdx()),
+        row.getText(getPopIdx()),
+        row.getNullableText(getPopInfoIdx()),
+        row.getNullableText(getSubjTypeIdx()),
+        nSubjects,
+        publicationId
+    });
+    int populationIdx = stagedPopulations.size() - 1;
+
+    for (Integer colIdx : colIdxAlleleIdMap.keySet()) {
+      stageFrequency(row, colIdx, populationIdx);
     }
-    ResultSet rs = this.insertPopulation.executeQuery();
-    if (!rs.next()) {
-      throw new RuntimeException("Insert failed");
+  }
+
+  /**
+   * Writes all staged population and frequency rows to the DB. Population IDs are taken from the ID sequence in one
+   * query and then both tables are loaded with <code>COPY</code>.
+   * @throws SQLException can occur when writing to the DB
+   * @throws IOException can occur when streaming rows to the DB
+   */
+  void writeStaged() throws SQLException, IOException {
+    if (stagedPopulations.isEmpty()) return;
+
+    long[] populationIds = new long[stagedPopulations.size()];
+    this.nextPopulationIds.setInt(1, populationIds.length);
+    try (ResultSet rs = this.nextPopulationIds.executeQuery()) {
+      int n = 0;
+      while (rs.next()) {
+        populationIds[n++] = rs.getLong(1);
+      }
     }
-    Long popId = rs.getLong(1);
-    
-    for (Integer colIdx : colIdxAlleleIdMap.keySet()) {
-      insertFrequency(row, colIdx, popId);
+
+    CopyManager copyManager = getConnection().unwrap(PGConnection.class).getCopyAPI();
+
+    StringWriter populationData = new StringWriter();
+    try (CSVPrinter printer = new CSVPrinter(populationData, CSVFormat.POSTGRESQL_CSV)) {
+      for (int i = 0; i < stagedPopulations.size(); i++) {
+        printer.print(populationIds[i]);
+        printer.printRecord(stagedPopulations.get(i));
+      }
+    }
+    //language=PostgreSQL
+    long popCount = copyManager.copyIn(
+        "copy population(id, ethnicity, population, populationinfo, subjecttype, subjectcount, publicationId) from stdin with (format csv)",
+        new StringReader(populationData.toString()));
+
+    StringWriter frequencyData = new StringWriter();
+    try (CSVPrinter printer = new CSVPrinter(frequencyData, CSVFormat.POSTGRESQL_CSV)) {
+      for (StagedFrequency frequency : stagedFrequencies) {
+        printer.printRecord(frequency.alleleId, populationIds[frequency.populationIdx], frequency.value, frequency.label);
+      }
     }
-    this.insertPopulation.clearParameters();
+    //language=PostgreSQL
+    long freqCount = copyManager.copyIn(
+        "copy allele_frequency(alleleid, population, frequency, label) from stdin with (format csv)",
+        new StringReader(frequencyData.toString()));
+
+    if (popCount != stagedPopulations.size() || freqCount != stagedFrequencies.size()) {
+      throw new RuntimeException("Expected to copy " + stagedPopulations.size() + " populations and " +
+          stagedFrequencies.size() + " frequencies but copied " + popCount + " and " + freqCount);
+    }
+    sf_logger.debug("copied {} populations and {} frequencies", popCount, freqCount);
+    stagedPopulations.clear();
+    stagedFrequencies.clear();
+  }
+
+  /**
+   * Refresh the frequency summary for the genes in this file, call this once their frequencies have been written
+   * @throws SQLException can occur when writing to the DB
+   */
+  void refreshSummary() throws SQLException {
+    FrequencyGenerator.refreshSummary(getConnection(), f_genes);
   }
 
   void updateMethods(String methodsText) throws SQLException {
@@ -244,4 +292,21 @@ private int getSubjTypeIdx() {
   private int getNIdx() {
     return this.colStartOffset + 7;
   }
+
+  /**
+   * A frequency waiting to be written, points to its population by the index it was staged at
+   */
+  private static class StagedFrequency {
+    final long alleleId;
+    final int populationIdx;
+    final Double value;
+    final String label;
+
+    StagedFrequency(long alleleId, int populationIdx, Double value, String label) {
+      this.alleleId = alleleId;
+      this.populationIdx = populationIdx;
+      this.value = value;
+      this.label = label;
+    }
+  }
 }
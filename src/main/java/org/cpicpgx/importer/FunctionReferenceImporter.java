@@ -71,6 +71,11 @@ String[] getDeleteStatements() {
     return sf_deleteStatements;
   }
 
+  @Override
+  boolean isParallelSafe() {
+    return true;
+  }
+
   void processWorkbook(WorkbookWrapper workbook) throws Exception {
     int rowIdx = 0;
 
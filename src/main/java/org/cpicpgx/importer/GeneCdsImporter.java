@@ -67,6 +67,11 @@ String getFileExtensionToProcess() {
     return Constants.EXCEL_EXTENSION;
   }
 
+  @Override
+  boolean isParallelSafe() {
+    return true;
+  }
+
   @Override
   void processWorkbook(WorkbookWrapper workbook) throws Exception {
     workbook.switchToSheet(0);
@@ -64,6 +64,11 @@ String[] getDeleteStatements() {
     return sf_deleteStatements;
   }
 
+  @Override
+  boolean isParallelSafe() {
+    return true;
+  }
+
   @Override
   void processWorkbook(WorkbookWrapper workbook) throws Exception {
     workbook.switchToSheet(0);
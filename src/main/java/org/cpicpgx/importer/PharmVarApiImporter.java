@@ -1,10 +1,6 @@
 package org.cpicpgx.importer;
 
-import com.google.common.net.UrlEscapers;
-import com.google.gson.Gson;
 import io.github.cdimascio.dotenv.Dotenv;
-import okhttp3.OkHttpClient;
-import org.apache.commons.lang3.StringUtils;
 import org.cpicpgx.db.ConnectionFactory;
 import org.cpicpgx.exception.NotFoundException;
 import org.slf4j.Logger;
@@ -16,21 +12,28 @@
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
-
-import static org.cpicpgx.util.HttpUtils.apiRequest;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * A class to import PharmVar data from their API. This will find all alleles in PharmVar genes that don't have PharmVar
  * IDs assigned to them and attempt to find their current IDs.
+ * <p>
+ * Requests are made concurrently by a {@link PharmVarClient}. The number of requests in flight and the request rate can
+ * be set with the <code>PHARMVAR_THREADS</code> and <code>PHARMVAR_REQUESTS_PER_SECOND</code> environment variables.
  */
 public class PharmVarApiImporter {
   private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
-  private static final String sf_pharmVarApi = "https://www.pharmvar.org/api-service";
-  private static final String HEADER_API_KEY = "Api-Key";
   private static final String API_KEY = "PHARMVAR_API_KEY";
+  private static final String API_URL = "PHARMVAR_API_URL";
+  private static final String THREADS = "PHARMVAR_THREADS";
+  private static final String REQUESTS_PER_SECOND = "PHARMVAR_REQUESTS_PER_SECOND";
+  private static final String DEFAULT_THREADS = "4";
+  private static final String DEFAULT_REQUESTS_PER_SECOND = "5";
 
   public static void main(String[] args) {
     try {
@@ -44,17 +47,18 @@ public static void main(String[] args) {
 
   public static void execute() throws IOException, SQLException, NotFoundException {
     Dotenv dotenv = Dotenv.load();
-    OkHttpClient client = new OkHttpClient().newBuilder()
-        .build();
-    Gson gson = new Gson();
-
-    final Map<String, String> headers = Map.of(HEADER_API_KEY, dotenv.get(API_KEY));
-
-    String geneResponse = apiRequest(client, sf_pharmVarApi + "/genes/list", headers);
-    if (geneResponse == null) {
-      throw new IOException("No response");
+    try (PharmVarClient client = new PharmVarClient(
+        dotenv.get(API_URL, PharmVarClient.DEFAULT_URL),
+        dotenv.get(API_KEY),
+        Integer.parseInt(dotenv.get(THREADS, DEFAULT_THREADS)),
+        Double.parseDouble(dotenv.get(REQUESTS_PER_SECOND, DEFAULT_REQUESTS_PER_SECOND))
+    )) {
+      execute(client);
     }
-    String[] geneList = gson.fromJson(geneResponse, String[].class);
+  }
+
+  static void execute(PharmVarClient client) throws IOException, SQLException, NotFoundException {
+    String[] geneList = client.requestGenes();
 
     try (
         Connection conn = ConnectionFactory.newConnection();
@@ -62,36 +66,45 @@ public static void execute() throws IOException, SQLException, NotFoundException
         PreparedStatement updateAllele = conn.prepareStatement("update allele_definition a set pharmvarId=? where id=?")
     ) {
       geneListStmt.setArray(1, conn.createArrayOf("TEXT", geneList));
-      SortedSet<String> updatedGenes = new TreeSet<>();
+
+      // start all the requests first, they're limited by the client
+      List<AlleleRequest> requests = new ArrayList<>();
       try (
           ResultSet rs = geneListStmt.executeQuery()
       ) {
         while (rs.next()) {
           String gene = rs.getString(1);
           String alleleName = rs.getString(2);
-          int id = rs.getInt(3);
+          requests.add(new AlleleRequest(gene, alleleName, rs.getInt(3), client.submitPvidRequest(gene, alleleName)));
+        }
+      }
+      sf_logger.info("Requesting {} alleles from PharmVar", requests.size());
 
-          try {
-            String alleleResponse = requestFromPharmVar(client, gene, alleleName, headers);
-            if (!StringUtils.isBlank(alleleResponse)) {
-              String[] idArray = gson.fromJson(alleleResponse, String[].class);
-              if (idArray.length == 1) {
-                sf_logger.debug("{} {} = PVID {}", gene, alleleName, idArray[0]);
-                updateAllele.setString(1, idArray[0]);
-                updateAllele.setInt(2, id);
-                updateAllele.executeUpdate();
-                updatedGenes.add(gene);
-              } else {
-                sf_logger.debug("No ID found for {}", gene + alleleName);
-              }
-            } else {
-              throw new NotFoundException("Got an empty response for " + gene + alleleName);
-            }
-          } catch (IOException ex) {
-            sf_logger.debug("Request failed for {} {}", gene, alleleName);
-          } catch (NotFoundException ex) {
+      // then write the results in order on this thread since the connection can't be shared
+      SortedSet<String> updatedGenes = new TreeSet<>();
+      for (AlleleRequest request : requests) {
+        String gene = request.gene;
+        String alleleName = request.alleleName;
+        try {
+          String[] idArray = request.response.get();
+          if (idArray.length == 1) {
+            sf_logger.debug("{} {} = PVID {}", gene, alleleName, idArray[0]);
+            updateAllele.setString(1, idArray[0]);
+            updateAllele.setInt(2, request.id);
+            updateAllele.executeUpdate();
+            updatedGenes.add(gene);
+          } else {
+            sf_logger.debug("No ID found for {}", gene + alleleName);
+          }
+        } catch (ExecutionException ex) {
+          if (ex.getCause() instanceof NotFoundException) {
             sf_logger.warn("Got no response from PharmVar for {} {}, continuing", gene, alleleName);
+          } else {
+            sf_logger.debug("Request failed for {} {}", gene, alleleName, ex.getCause());
           }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted waiting for PharmVar", ex);
         }
       }
       if (!updatedGenes.isEmpty()) {
@@ -100,36 +113,17 @@ public static void execute() throws IOException, SQLException, NotFoundException
     }
   }
 
-  /**
-   * Get PharmVar's record for a gene-allele and retry a commonly used allele name format if the "normal" format gives
-   * no result. The retry will only work for alleles in the format "*\d+"
-   * @param client an {@link OkHttpClient}
-   * @param gene the gene to request
-   * @param alleleName the allele name to request (e.g. *3)
-   * @return the String content of the HTTP response
-   * @throws IOException can occur from netowrk IO
-   * @throws NotFoundException can occur if PharmVar has no record for the allele
-   */
-  private static String requestFromPharmVar(
-          OkHttpClient client,
-          String gene,
-          String alleleName,
-          Map<String, String> headers
-  ) throws IOException, NotFoundException {
-    boolean ableToRetry = alleleName.matches("\\*\\d+");
-    String allelePath = UrlEscapers.urlPathSegmentEscaper().escape(gene + alleleName);
-    String url = sf_pharmVarApi + "/alleles/" + allelePath + "/pvid";
-    String response = null;
-    try {
-      response = apiRequest(client, url, headers);
-    } catch (NotFoundException ex) {
-      if (ableToRetry) {
-        // if not no response and allele is in typical format, we can retry with a common suffix
-        String retryPath = UrlEscapers.urlPathSegmentEscaper().escape(gene + alleleName + ".001");
-        String retryUrl = sf_pharmVarApi + "/alleles/" + retryPath + "/pvid";
-        response = apiRequest(client, retryUrl, headers);
-      }
+  private static class AlleleRequest {
+    private final String gene;
+    private final String alleleName;
+    private final int id;
+    private final Future<String[]> response;
+
+    AlleleRequest(String gene, String alleleName, int id, Future<String[]> response) {
+      this.gene = gene;
+      this.alleleName = alleleName;
+      this.id = id;
+      this.response = response;
     }
-    return response;
   }
 }
@@ -0,0 +1,119 @@
+package org.cpicpgx.importer;
+
+import com.google.common.net.UrlEscapers;
+import com.google.gson.Gson;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import org.cpicpgx.exception.NotFoundException;
+import org.cpicpgx.util.HttpUtils;
+import org.cpicpgx.util.RateLimiter;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.cpicpgx.util.HttpUtils.apiRequest;
+
+/**
+ * A client for the PharmVar API that can have several requests in flight at once. All requests share one
+ * {@link RateLimiter} so the total request rate stays under the configured limit no matter how many threads are used,
+ * and one {@link OkHttpClient} so connections to PharmVar are reused.
+ */
+class PharmVarClient implements AutoCloseable {
+  static final String DEFAULT_URL = "https://www.pharmvar.org/api-service";
+  private static final String HEADER_API_KEY = "Api-Key";
+
+  private final String f_baseUrl;
+  private final Map<String, String> f_headers;
+  private final OkHttpClient f_httpClient;
+  private final RateLimiter f_rateLimiter;
+  private final ExecutorService f_executor;
+  private final Gson f_gson = new Gson();
+
+  /**
+   * @param baseUrl the URL of the API service, without a trailing slash
+   * @param apiKey the PharmVar API key
+   * @param threads the most requests to have in flight at once
+   * @param requestsPerSecond the most requests to start per second
+   */
+  PharmVarClient(String baseUrl, String apiKey, int threads, double requestsPerSecond) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Must have at least 1 thread");
+    }
+    f_baseUrl = baseUrl;
+    f_headers = Map.of(HEADER_API_KEY, apiKey);
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequestsPerHost(threads);
+    f_httpClient = HttpUtils.newClientBuilder()
+        .dispatcher(dispatcher)
+        .connectionPool(new ConnectionPool(threads, 5, TimeUnit.MINUTES))
+        .build();
+    f_rateLimiter = new RateLimiter(requestsPerSecond, threads);
+    f_executor = Executors.newFixedThreadPool(threads);
+  }
+
+  /**
+   * Get the symbols of all genes PharmVar has
+   */
+  String[] requestGenes() throws IOException, NotFoundException {
+    String response = apiRequest(f_httpClient, f_baseUrl + "/genes/list", f_headers, f_rateLimiter);
+    if (response == null) {
+      throw new IOException("No response");
+    }
+    return f_gson.fromJson(response, String[].class);
+  }
+
+  /**
+   * Start looking up the PharmVar IDs for a gene-allele in the background
+   * @param gene the gene symbol
+   * @param alleleName the allele name (e.g. *3)
+   * @return the IDs PharmVar has for the allele, the future fails with a {@link NotFoundException} if it has none
+   */
+  Future<String[]> submitPvidRequest(String gene, String alleleName) {
+    return f_executor.submit(() -> {
+      String response = requestPvid(gene, alleleName);
+      if (response == null || response.isBlank()) {
+        throw new NotFoundException("Got an empty response for " + gene + alleleName);
+      }
+      return f_gson.fromJson(response, String[].class);
+    });
+  }
+
+  /**
+   * Get PharmVar's record for a gene-allele and retry a commonly used allele name format if the "normal" format gives
+   * no result. The retry will only work for alleles in the format "*\d+"
+   * @param gene the gene to request
+   * @param alleleName the allele name to request (e.g. *3)
+   * @return the String content of the HTTP response
+   * @throws IOException can occur from network IO
+   * @throws NotFoundException can occur if PharmVar has no record for the allele
+   */
+  @Nullable
+  private String requestPvid(String gene, String alleleName) throws IOException, NotFoundException {
+    try {
+      return apiRequest(f_httpClient, buildPvidUrl(gene + alleleName), f_headers, f_rateLimiter);
+    } catch (NotFoundException ex) {
+      if (alleleName.matches("\\*\\d+")) {
+        // if not found and allele is in typical format, we can retry with a common suffix
+        return apiRequest(f_httpClient, buildPvidUrl(gene + alleleName + ".001"), f_headers, f_rateLimiter);
+      }
+      throw ex;
+    }
+  }
+
+  private String buildPvidUrl(String alleleName) {
+    return f_baseUrl + "/alleles/" + UrlEscapers.urlPathSegmentEscaper().escape(alleleName) + "/pvid";
+  }
+
+  @Override
+  public void close() {
+    f_executor.shutdownNow();
+    f_httpClient.dispatcher().executorService().shutdown();
+    f_httpClient.connectionPool().evictAll();
+  }
+}
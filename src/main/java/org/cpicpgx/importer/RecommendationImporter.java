@@ -7,6 +7,7 @@
 import org.apache.poi.ss.usermodel.Sheet;
 import org.cpicpgx.db.LookupMethod;
 import org.cpicpgx.exception.NotFoundException;
+import org.cpicpgx.lookup.DiplotypeLookupTables;
 import org.cpicpgx.model.FileType;
 import org.cpicpgx.util.Constants;
 import org.cpicpgx.util.DbHarness;
@@ -49,6 +50,7 @@ public class RecommendationImporter extends BaseDirectoryImporter {
   private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
   private static final String FILE_NAME_SUFFIX = " recommendation.xlsx";
   private static final String[] sf_deleteStatements = new String[]{
+      "delete from diplotype_recommendation",
       "delete from recommendation",
       "delete from file_note where type='" + FileType.RECOMMENDATION.name() + "'",
       "delete from change_log where type='" + FileType.RECOMMENDATION.name() + "'"
@@ -79,6 +81,16 @@ String getFileExtensionToProcess() {
     return FILE_NAME_SUFFIX;
   }
 
+  @Override
+  void afterFiles() throws Exception {
+    DiplotypeLookupTables.rebuild(DiplotypeLookupTables.Mapping.RECOMMENDATION);
+  }
+
+  @Override
+  boolean isParallelSafe() {
+    return true;
+  }
+
   @Override
   void processWorkbook(WorkbookWrapper workbook) throws Exception {
     String drugText = workbook.getFileName().replaceAll(FILE_NAME_SUFFIX, "").toLowerCase();
@@ -5,6 +5,7 @@
 import org.apache.poi.ss.usermodel.Sheet;
 import org.cpicpgx.db.LookupMethod;
 import org.cpicpgx.exception.NotFoundException;
+import org.cpicpgx.lookup.DiplotypeLookupTables;
 import org.cpicpgx.workbook.AbstractWorkbook;
 import org.cpicpgx.model.FileType;
 import org.cpicpgx.util.Constants;
@@ -35,6 +36,7 @@ public class TestAlertImporter extends BaseDirectoryImporter {
   private static final String[] sf_deleteStatements = new String[]{
       "delete from change_log where type='" + FileType.TEST_ALERT.name() + "'",
       "delete from file_note where type='" + FileType.TEST_ALERT.name() + "'",
+      "delete from diplotype_test_alert",
       "delete from test_alert"
   };
   private static final String FILE_EXTENSION = "_Pre_and_Post_Test_Alerts.xlsx";
@@ -62,6 +64,11 @@ String getFileExtensionToProcess() {
     return FILE_EXTENSION;
   }
 
+  @Override
+  void afterFiles() throws Exception {
+    DiplotypeLookupTables.rebuild(DiplotypeLookupTables.Mapping.TEST_ALERT);
+  }
+
   @Override
   void processWorkbook(WorkbookWrapper workbook) throws Exception {
     try (TestDbHarness dbHarness = new TestDbHarness()) {
@@ -0,0 +1,382 @@
+package org.cpicpgx.lookup;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Translates a cohort of patient diplotypes into recommendations and test alerts using a
+ * {@link RecommendationLookupEngine}, without going back to the database for each patient.
+ * <p>
+ * The input is a tab-separated file with a header row. The first column is a patient ID and every other column is a
+ * gene symbol, with cells holding diplotypes like <code>*1/*4</code> (or a single allele for haploid genes). A blank
+ * cell means the gene wasn't tested. Diplotypes are encoded as allele counts the same way <code>makeLookupKey</code> in the
+ * importers encodes allele functions, so <code>*1/*4</code> is <code>{"*1": 1, "*4": 1}</code> and <code>*4/*4</code>
+ * is <code>{"*4": 2}</code>.
+ * <p>
+ * The file is read as a stream in chunks that are translated on a pool of threads. Results are written in input order,
+ * either as one JSON object per patient (NDJSON) or as one tab-separated row per patient recommendation or test alert.
+ * <p>
+ * Parameters:
+ * <ul>
+ *   <li>-i the input file, required</li>
+ *   <li>-o the output file, required</li>
+ *   <li>-f the output format: ndjson (default) or tsv</li>
+ *   <li>-t the number of threads (default is the number of processors)</li>
+ * </ul>
+ */
+public class BatchTranslator {
+  private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  static final int CHUNK_SIZE = 1000;
+  private static final int PROGRESS_INTERVAL = 100000;
+  private static final String[] TSV_HEADER = new String[]{
+      "patient", "type", "id", "drug", "population", "classification", "lookupKey", "text"
+  };
+
+  /**
+   * The formats results can be written in
+   */
+  public enum Format {
+    /** one JSON object per patient per line */
+    NDJSON,
+    /** one tab-separated row per recommendation or test alert */
+    TSV
+  }
+
+  private final RecommendationLookupEngine f_engine;
+  private final Format f_format;
+  private final int f_threads;
+  private final Gson f_gson = new Gson();
+  private final AtomicLong f_patientCount = new AtomicLong();
+  private final AtomicLong f_recommendationCount = new AtomicLong();
+  private final AtomicLong f_testAlertCount = new AtomicLong();
+  private final AtomicLong f_unmatchedCount = new AtomicLong();
+  private final AtomicInteger f_skipCount = new AtomicInteger();
+
+  public static void main(String[] args) {
+    try {
+      Options options = new Options();
+      options.addOption("i", true, "input TSV of patient diplotypes");
+      options.addOption("o", true, "file to write results to");
+      options.addOption("f", true, "output format: ndjson (default) or tsv");
+      options.addOption("t", true, "number of threads (default " + Runtime.getRuntime().availableProcessors() + ")");
+      CommandLineParser parser = new DefaultParser();
+      CommandLine cli = parser.parse(options, args);
+
+      if (!cli.hasOption("i") || !cli.hasOption("o")) {
+        throw new IllegalArgumentException("Need an input file (-i) and an output file (-o)");
+      }
+      Format format = Format.valueOf(cli.getOptionValue("f", Format.NDJSON.name()).toUpperCase());
+      int threads = Integer.parseInt(cli.getOptionValue("t",
+          String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+      BatchTranslator translator = new BatchTranslator(RecommendationLookupEngine.load(), format, threads);
+      Path input = Paths.get(cli.getOptionValue("i"));
+      Path output = Paths.get(cli.getOptionValue("o"));
+      try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+           Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+        translator.translate(reader, writer);
+      }
+    } catch (Exception ex) {
+      sf_logger.error("Error translating diplotypes", ex);
+      System.exit(1);
+    }
+  }
+
+  /**
+   * @param engine the engine to translate with
+   * @param format the format to write results in
+   * @param threads the number of chunks to translate at the same time
+   */
+  public BatchTranslator(RecommendationLookupEngine engine, Format format, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Must have at least 1 thread");
+    }
+    f_engine = engine;
+    f_format = format;
+    f_threads = threads;
+  }
+
+  /**
+   * Translate every patient in the input and write the results
+   * @param reader the input TSV, including the header row
+   * @param writer where to write the results
+   * @return the number of patients translated
+   */
+  public long translate(BufferedReader reader, Writer writer) throws IOException, InterruptedException {
+    String headerLine = reader.readLine();
+    if (headerLine == null) {
+      throw new IOException("Input is empty");
+    }
+    String[] genes = headerLine.split("\t", -1);
+    if (genes.length < 2) {
+      throw new IOException("Header needs a patient column and at least one gene column");
+    }
+    if (f_format == Format.TSV) {
+      writer.write(String.join("\t", TSV_HEADER));
+      writer.write("\n");
+    }
+
+    long start = System.currentTimeMillis();
+    long lineCount = 0;
+    long nextProgress = PROGRESS_INTERVAL;
+    int lineNumber = 1;
+    ExecutorService executor = Executors.newFixedThreadPool(f_threads);
+    try {
+      // chunks are written in the order they were read, keeping a few more in flight than there are threads
+      Deque<Future<String>> pending = new ArrayDeque<>();
+      List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+      int chunkStart = lineNumber + 1;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lineNumber += 1;
+        chunk.add(line);
+        if (chunk.size() == CHUNK_SIZE) {
+          lineCount += chunk.size();
+          submit(executor, pending, genes, chunk, chunkStart);
+          chunk = new ArrayList<>(CHUNK_SIZE);
+          chunkStart = lineNumber + 1;
+          while (pending.size() > f_threads * 2) {
+            writer.write(pending.removeFirst().get());
+          }
+          if (lineCount >= nextProgress) {
+            logProgress(lineCount, start);
+            nextProgress += PROGRESS_INTERVAL;
+          }
+        }
+      }
+      if (!chunk.isEmpty()) {
+        submit(executor, pending, genes, chunk, chunkStart);
+      }
+      while (!pending.isEmpty()) {
+        writer.write(pending.removeFirst().get());
+      }
+    } catch (ExecutionException ex) {
+      throw new RuntimeException("Error translating diplotypes", ex.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    writer.flush();
+
+    long patientCount = f_patientCount.get();
+    long elapsed = Math.max(1, System.currentTimeMillis() - start);
+    sf_logger.info(String.format(
+        "Translated %d patients in %d ms (%.0f patients/s) on %d threads: %d recommendations, %d test alerts, " +
+            "%d patients with no match, %d lines skipped",
+        patientCount, elapsed, patientCount / (elapsed / 1000.0), f_threads, f_recommendationCount.get(),
+        f_testAlertCount.get(), f_unmatchedCount.get(), f_skipCount.get()));
+    return patientCount;
+  }
+
+  private void submit(ExecutorService executor, Deque<Future<String>> pending, String[] genes, List<String> lines,
+      int firstLineNumber) {
+    pending.addLast(executor.submit(() -> translateChunk(genes, lines, firstLineNumber)));
+  }
+
+  private static void logProgress(long lineCount, long start) {
+    long elapsed = Math.max(1, System.currentTimeMillis() - start);
+    sf_logger.info(String.format("Read %d lines, %.0f lines/s", lineCount, lineCount / (elapsed / 1000.0)));
+  }
+
+  /**
+   * Translate a chunk of lines
+   * @return the output for the whole chunk
+   */
+  private String translateChunk(String[] genes, List<String> lines, int firstLineNumber) {
+    StringBuilder output = new StringBuilder();
+    int lineNumber = firstLineNumber;
+    for (String line : lines) {
+      if (StringUtils.isNotBlank(line)) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != genes.length) {
+          sf_logger.warn("Skipping line {}, expected {} columns but found {}", lineNumber, genes.length, fields.length);
+          f_skipCount.incrementAndGet();
+        } else {
+          try {
+            translatePatient(genes, fields, output);
+          } catch (IllegalArgumentException ex) {
+            sf_logger.warn("Skipping line {}, {}", lineNumber, ex.getMessage());
+            f_skipCount.incrementAndGet();
+          }
+        }
+      }
+      lineNumber += 1;
+    }
+    return output.toString();
+  }
+
+  private void translatePatient(String[] genes, String[] fields, StringBuilder output) {
+    String patient = fields[0];
+    JsonObject diplotypeLookup = new JsonObject();
+    for (int i = 1; i < genes.length; i++) {
+      JsonObject alleles = parseDiplotype(fields[i]);
+      if (alleles != null) {
+        diplotypeLookup.add(genes[i], alleles);
+      }
+    }
+
+    f_patientCount.incrementAndGet();
+    JsonObject lookupKey = f_engine.resolveLookupKey(diplotypeLookup);
+    List<Recommendation> recommendations;
+    List<TestAlert> testAlerts;
+    if (lookupKey == null) {
+      f_unmatchedCount.incrementAndGet();
+      recommendations = List.of();
+      testAlerts = List.of();
+    } else {
+      recommendations = f_engine.lookupByKey(lookupKey, null);
+      testAlerts = f_engine.lookupTestAlertsByKey(lookupKey, null);
+    }
+    f_recommendationCount.addAndGet(recommendations.size());
+    f_testAlertCount.addAndGet(testAlerts.size());
+
+    if (f_format == Format.NDJSON) {
+      writeJson(patient, lookupKey, recommendations, testAlerts, output);
+    } else {
+      writeTsv(patient, recommendations, testAlerts, output);
+    }
+  }
+
+  private void writeJson(String patient, @Nullable JsonObject lookupKey, List<Recommendation> recommendations,
+      List<TestAlert> testAlerts, StringBuilder output) {
+    JsonObject json = new JsonObject();
+    json.addProperty("patient", patient);
+    json.add("lookupKey", lookupKey);
+    JsonArray recommendationArray = new JsonArray();
+    for (Recommendation recommendation : recommendations) {
+      JsonObject item = new JsonObject();
+      item.addProperty("id", recommendation.getId());
+      item.addProperty("drug", recommendation.getDrugName());
+      item.addProperty("guideline", recommendation.getGuidelineName());
+      item.addProperty("population", recommendation.getPopulation());
+      item.addProperty("classification", recommendation.getClassification());
+      item.add("implications", recommendation.getImplications());
+      item.addProperty("recommendation", recommendation.getDrugRecommendation());
+      recommendationArray.add(item);
+    }
+    json.add("recommendations", recommendationArray);
+    JsonArray testAlertArray = new JsonArray();
+    for (TestAlert testAlert : testAlerts) {
+      JsonObject item = new JsonObject();
+      item.addProperty("id", testAlert.getId());
+      item.addProperty("drug", testAlert.getDrugName());
+      item.addProperty("population", testAlert.getPopulation());
+      item.addProperty("cdsContext", testAlert.getCdsContext());
+      item.add("alertText", f_gson.toJsonTree(testAlert.getAlertText()));
+      testAlertArray.add(item);
+    }
+    json.add("testAlerts", testAlertArray);
+    output.append(f_gson.toJson(json)).append('\n');
+  }
+
+  private static void writeTsv(String patient, List<Recommendation> recommendations, List<TestAlert> testAlerts,
+      StringBuilder output) {
+    for (Recommendation recommendation : recommendations) {
+      appendRow(output, patient, "recommendation", String.valueOf(recommendation.getId()),
+          recommendation.getDrugName(), recommendation.getPopulation(), recommendation.getClassification(),
+          recommendation.getLookupKey(), recommendation.getDrugRecommendation());
+    }
+    for (TestAlert testAlert : testAlerts) {
+      appendRow(output, patient, "test_alert", String.valueOf(testAlert.getId()), testAlert.getDrugName(),
+          testAlert.getPopulation(), null, testAlert.getLookupKey(), String.join(" ", testAlert.getAlertText()));
+    }
+  }
+
+  private static void appendRow(StringBuilder output, String patient, String type, String id, String drug,
+      @Nullable String population, @Nullable String classification, JsonElement lookupKey, @Nullable String text) {
+    output.append(patient).append('\t')
+        .append(type).append('\t')
+        .append(id).append('\t')
+        .append(drug).append('\t')
+        .append(cell(population)).append('\t')
+        .append(cell(classification)).append('\t')
+        .append(lookupKey).append('\t')
+        .append(cell(text)).append('\n');
+  }
+
+  /**
+   * Keep free text from breaking the row
+   */
+  private static String cell(@Nullable String value) {
+    if (value == null) {
+      return "";
+    }
+    return StringUtils.replaceChars(value, "\t\r\n", "   ");
+  }
+
+  /**
+   * Encode a diplotype as allele counts
+   * @param diplotype a diplotype like <code>*1/*4</code> or a single allele for haploid genes
+   * @return a JSON object of allele name to count, or null if the diplotype is blank
+   */
+  @Nullable
+  static JsonObject parseDiplotype(@Nullable String diplotype) {
+    if (StringUtils.isBlank(diplotype)) {
+      return null;
+    }
+    // keep empty tokens so a missing allele like "*1/" isn't read as a haploid "*1"
+    String[] alleles = StringUtils.splitPreserveAllTokens(diplotype, "/");
+    if (alleles.length > 2 || Arrays.stream(alleles).anyMatch(StringUtils::isBlank)) {
+      throw new IllegalArgumentException("Not a diplotype: " + diplotype);
+    }
+    JsonObject key = new JsonObject();
+    String a1 = StringUtils.strip(alleles[0]);
+    if (alleles.length == 1) {
+      key.addProperty(a1, 1);
+      return key;
+    }
+    String a2 = StringUtils.strip(alleles[1]);
+    if (a1.equals(a2)) {
+      key.addProperty(a1, 2);
+    } else {
+      key.addProperty(a1, 1);
+      key.addProperty(a2, 1);
+    }
+    return key;
+  }
+
+  long getRecommendationCount() {
+    return f_recommendationCount.get();
+  }
+
+  long getTestAlertCount() {
+    return f_testAlertCount.get();
+  }
+
+  long getUnmatchedCount() {
+    return f_unmatchedCount.get();
+  }
+
+  int getSkipCount() {
+    return f_skipCount.get();
+  }
+}
@@ -0,0 +1,180 @@
+package org.cpicpgx.lookup;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the lookup keys of every diplotype whose <code>diplotypekey</code> is contained in a diplotype lookup, the
+ * same way <code>diplotypekey &lt;@ diplotypelookup::jsonb</code> does in the <code>recommendation_lookup</code>
+ * function.
+ * <p>
+ * A normal diplotype key is a single gene with a few alleles, e.g. <code>{"CYP2D6": {"*1": 1, "*4": 1}}</code>. Those
+ * are hashed by gene and by their allele counts, so a lookup only has to try each subset of the alleles given for a
+ * gene, which is at most a handful of hash lookups. Anything else is kept in a list and checked one by one.
+ * <p>
+ * Once loaded this is read-only and safe to share between threads.
+ */
+class DiplotypeIndex {
+  /** Genes in a lookup with more alleles than this are checked against every key for the gene */
+  private static final int MAX_SUBSET_ALLELES = 12;
+
+  private final Map<String, Map<String, List<Match>>> f_genes = new HashMap<>();
+  private final Map<String, List<Match>> f_geneMatches = new HashMap<>();
+  private final List<Match> f_others = new ArrayList<>();
+  private int m_size = 0;
+
+  /**
+   * A diplotype key and the lookup key it resolves to, in the order they were added
+   */
+  private static class Match {
+    private final int f_order;
+    private final JsonObject f_diplotypeKey;
+    private final JsonObject f_lookupKey;
+
+    private Match(int order, JsonObject diplotypeKey, JsonObject lookupKey) {
+      f_order = order;
+      f_diplotypeKey = diplotypeKey;
+      f_lookupKey = lookupKey;
+    }
+  }
+
+  /**
+   * Add a diplotype
+   * @param diplotypeKey the <code>diplotypekey</code> of the diplotype
+   * @param lookupKey the <code>lookupkey</code> of the diplotype
+   */
+  void add(JsonObject diplotypeKey, JsonObject lookupKey) {
+    Match match = new Match(m_size++, diplotypeKey, lookupKey);
+    String gene = singleGene(diplotypeKey);
+    String alleleKey = gene == null ? null : alleleKey(diplotypeKey.getAsJsonObject(gene));
+    if (alleleKey == null) {
+      f_others.add(match);
+      return;
+    }
+    f_genes.computeIfAbsent(gene, (g) -> new HashMap<>())
+        .computeIfAbsent(alleleKey, (k) -> new ArrayList<>())
+        .add(match);
+    f_geneMatches.computeIfAbsent(gene, (g) -> new ArrayList<>()).add(match);
+  }
+
+  int size() {
+    return m_size;
+  }
+
+  /**
+   * Combine the lookup keys of every diplotype contained in the given lookup. When more than one diplotype gives a
+   * value for the same gene, the one added last wins.
+   * @param diplotypeLookup a JSON object of gene symbol to allele counts
+   * @return the combined lookup key or null if no diplotypes matched
+   */
+  @Nullable
+  JsonObject resolve(JsonObject diplotypeLookup) {
+    List<Match> matches = new ArrayList<>();
+    for (Map.Entry<String, JsonElement> gene : diplotypeLookup.entrySet()) {
+      Map<String, List<Match>> alleleKeys = f_genes.get(gene.getKey());
+      if (alleleKeys != null && gene.getValue().isJsonObject()) {
+        findGeneMatches(gene.getKey(), gene.getValue().getAsJsonObject(), alleleKeys, matches);
+      }
+    }
+    for (Match match : f_others) {
+      if (Jsonb.contains(diplotypeLookup, match.f_diplotypeKey)) {
+        matches.add(match);
+      }
+    }
+    if (matches.isEmpty()) {
+      return null;
+    }
+
+    matches.sort(Comparator.comparingInt((m) -> m.f_order));
+    JsonObject lookupKey = new JsonObject();
+    for (Match match : matches) {
+      for (Map.Entry<String, JsonElement> entry : match.f_lookupKey.entrySet()) {
+        lookupKey.add(entry.getKey(), entry.getValue());
+      }
+    }
+    return lookupKey;
+  }
+
+  private void findGeneMatches(String gene, JsonObject alleles, Map<String, List<Match>> alleleKeys,
+      List<Match> matches) {
+    List<String> entries = new ArrayList<>();
+    for (Map.Entry<String, JsonElement> allele : alleles.entrySet()) {
+      String value = Jsonb.scalarKey(allele.getValue());
+      if (value != null) {
+        entries.add(alleleEntry(allele.getKey(), value));
+      }
+    }
+    if (entries.size() > MAX_SUBSET_ALLELES) {
+      JsonObject lookup = new JsonObject();
+      lookup.add(gene, alleles);
+      for (Match match : f_geneMatches.get(gene)) {
+        if (Jsonb.contains(lookup, match.f_diplotypeKey)) {
+          matches.add(match);
+        }
+      }
+      return;
+    }
+
+    entries.sort(null);
+    int subsets = 1 << entries.size();
+    for (int mask = 1; mask < subsets; mask++) {
+      StringBuilder key = new StringBuilder();
+      for (int i = 0; i < entries.size(); i++) {
+        if ((mask & (1 << i)) != 0) {
+          key.append(entries.get(i)).append('\n');
+        }
+      }
+      List<Match> found = alleleKeys.get(key.toString());
+      if (found != null) {
+        matches.addAll(found);
+      }
+    }
+  }
+
+  /**
+   * Get the gene of a key that has exactly one gene
+   */
+  @Nullable
+  private static String singleGene(JsonObject diplotypeKey) {
+    if (diplotypeKey.size() != 1) {
+      return null;
+    }
+    String gene = diplotypeKey.keySet().iterator().next();
+    return diplotypeKey.get(gene).isJsonObject() ? gene : null;
+  }
+
+  /**
+   * Make a key for a non-empty object of allele names to scalar values that's the same no matter the order of alleles
+   */
+  @Nullable
+  private static String alleleKey(JsonObject alleles) {
+    if (alleles.size() == 0) {
+      return null;
+    }
+    List<String> entries = new ArrayList<>();
+    for (Map.Entry<String, JsonElement> allele : alleles.entrySet()) {
+      String value = Jsonb.scalarKey(allele.getValue());
+      if (value == null) {
+        return null;
+      }
+      entries.add(alleleEntry(allele.getKey(), value));
+    }
+    entries.sort(null);
+    StringBuilder key = new StringBuilder();
+    for (String entry : entries) {
+      key.append(entry).append('\n');
+    }
+    return key.toString();
+  }
+
+  private static String alleleEntry(String allele, String value) {
+    return allele + '\t' + value;
+  }
+}
@@ -0,0 +1,168 @@
+package org.cpicpgx.lookup;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.cpicpgx.db.ConnectionFactory;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandles;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rebuilds the <code>diplotype_recommendation</code> and <code>diplotype_test_alert</code> tables, which hold the
+ * answer <code>recommendation_lookup</code> and <code>test_alert_lookup</code> give for every diplotype of a gene so
+ * single-gene lookups can be an index probe instead of jsonb containment over the views.
+ * <p>
+ * The answers come from a {@link RecommendationLookupEngine} loaded on the same connection, and each table is deleted
+ * and loaded with <code>COPY</code> in one transaction. The importers for recommendations and test alerts rebuild their
+ * table when they finish. Run this class to rebuild both after diplotypes change.
+ */
+public class DiplotypeLookupTables {
+  private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  private static final int COPY_BATCH_SIZE = 10000;
+  //language=PostgreSQL
+  private static final String sf_diplotypeSql = "select genesymbol, diplotype, diplotypekey::text from diplotype " +
+      "where diplotypekey is not null order by genesymbol, diplotype";
+
+  /**
+   * The tables that map diplotypes to lookup results
+   */
+  public enum Mapping {
+    RECOMMENDATION("diplotype_recommendation", "recommendationid"),
+    TEST_ALERT("diplotype_test_alert", "testalertid");
+
+    private final String f_table;
+    private final String f_idColumn;
+
+    Mapping(String table, String idColumn) {
+      f_table = table;
+      f_idColumn = idColumn;
+    }
+
+    public String getTable() {
+      return f_table;
+    }
+
+    /**
+     * Add a row for each result the diplotype gets
+     * @param engine the engine to look results up with
+     * @param gene the gene symbol
+     * @param diplotype the diplotype name
+     * @param diplotypeKey the diplotype key of the diplotype
+     * @param rows the rows to add to, in table column order
+     */
+    void addRows(RecommendationLookupEngine engine, String gene, String diplotype, JsonObject diplotypeKey,
+        List<Object[]> rows) {
+      JsonObject lookupKey = engine.resolveLookupKey(diplotypeKey);
+      if (lookupKey == null) {
+        return;
+      }
+      if (this == RECOMMENDATION) {
+        for (Recommendation recommendation : engine.lookupByKey(lookupKey, null)) {
+          rows.add(new Object[]{
+              gene, diplotype, recommendation.getDrugName(), recommendation.getPopulation(), recommendation.getId()
+          });
+        }
+      } else {
+        for (TestAlert testAlert : engine.lookupTestAlertsByKey(lookupKey, null)) {
+          rows.add(new Object[]{
+              gene, diplotype, testAlert.getDrugName(), testAlert.getPopulation(), testAlert.getId()
+          });
+        }
+      }
+    }
+  }
+
+  public static void main(String[] args) {
+    try {
+      for (Mapping mapping : Mapping.values()) {
+        rebuild(mapping);
+      }
+    } catch (Exception ex) {
+      sf_logger.error("Error rebuilding diplotype lookup tables", ex);
+    }
+  }
+
+  /**
+   * Rebuild one of the mapping tables in its own transaction
+   * @param mapping the table to rebuild
+   * @return the number of rows written
+   */
+  public static long rebuild(Mapping mapping) throws SQLException, IOException {
+    long start = System.currentTimeMillis();
+    try (Connection conn = ConnectionFactory.newConnection()) {
+      conn.setAutoCommit(false);
+      try {
+        long count = rebuild(conn, mapping);
+        conn.commit();
+        sf_logger.info("Rebuilt {} with {} rows in {} ms", mapping.getTable(), count,
+            System.currentTimeMillis() - start);
+        return count;
+      } catch (SQLException | IOException | RuntimeException ex) {
+        conn.rollback();
+        throw ex;
+      }
+    }
+  }
+
+  private static long rebuild(Connection conn, Mapping mapping) throws SQLException, IOException {
+    RecommendationLookupEngine engine = RecommendationLookupEngine.load(conn);
+    //noinspection SqlSourceToSinkFlow
+    try (PreparedStatement stmt = conn.prepareStatement("delete from " + mapping.f_table)) {
+      stmt.executeUpdate();
+    }
+
+    CopyManager copyManager = conn.unwrap(PGConnection.class).getCopyAPI();
+    String copySql = "copy " + mapping.f_table + "(genesymbol, diplotype, drugname, population, " +
+        mapping.f_idColumn + ") from stdin with (format csv)";
+    List<Object[]> rows = new ArrayList<>();
+    long count = 0;
+    try (PreparedStatement stmt = conn.prepareStatement(sf_diplotypeSql);
+         ResultSet rs = stmt.executeQuery()) {
+      while (rs.next()) {
+        JsonObject diplotypeKey = JsonParser.parseString(rs.getString(3)).getAsJsonObject();
+        mapping.addRows(engine, rs.getString(1), rs.getString(2), diplotypeKey, rows);
+        if (rows.size() >= COPY_BATCH_SIZE) {
+          count += copy(copyManager, copySql, rows);
+        }
+      }
+    }
+    count += copy(copyManager, copySql, rows);
+    return count;
+  }
+
+  /**
+   * Copy the rows to the DB and clear them
+   */
+  private static long copy(CopyManager copyManager, String copySql, List<Object[]> rows)
+      throws SQLException, IOException {
+    if (rows.isEmpty()) {
+      return 0;
+    }
+    StringWriter data = new StringWriter();
+    try (CSVPrinter printer = new CSVPrinter(data, CSVFormat.POSTGRESQL_CSV)) {
+      for (Object[] row : rows) {
+        printer.printRecord(row);
+      }
+    }
+    long count = copyManager.copyIn(copySql, new StringReader(data.toString()));
+    if (count != rows.size()) {
+      throw new RuntimeException("Expected to copy " + rows.size() + " rows but copied " + count);
+    }
+    rows.clear();
+    return count;
+  }
+}
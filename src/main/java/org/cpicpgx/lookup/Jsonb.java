@@ -0,0 +1,98 @@
+package org.cpicpgx.lookup;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import javax.annotation.Nullable;
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * Helpers that give Gson elements the same comparison semantics as PostgreSQL's <code>jsonb</code> type
+ */
+final class Jsonb {
+
+  private Jsonb() {
+  }
+
+  /**
+   * Check if one value contains another the same way the jsonb <code>@&gt;</code> operator does: objects contain
+   * objects whose keys they all have with contained values, arrays contain arrays whose elements are each contained by
+   * one of their elements, and scalars contain equal scalars. Numbers are compared by value so <code>1</code> and
+   * <code>1.0</code> are equal.
+   * @param container the value on the left of <code>@&gt;</code>
+   * @param contained the value on the right of <code>@&gt;</code>
+   * @return true if container contains contained
+   */
+  static boolean contains(JsonElement container, JsonElement contained) {
+    if (container.isJsonArray() && contained.isJsonPrimitive()) {
+      // only a top-level array can contain a bare scalar
+      return arrayContains(container.getAsJsonArray(), contained);
+    }
+    return containsValue(container, contained);
+  }
+
+  private static boolean containsValue(JsonElement container, JsonElement contained) {
+    if (container.isJsonObject() && contained.isJsonObject()) {
+      JsonObject object = container.getAsJsonObject();
+      for (Map.Entry<String, JsonElement> entry : contained.getAsJsonObject().entrySet()) {
+        JsonElement value = object.get(entry.getKey());
+        if (value == null || !containsValue(value, entry.getValue())) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (container.isJsonArray() && contained.isJsonArray()) {
+      JsonArray array = container.getAsJsonArray();
+      for (JsonElement element : contained.getAsJsonArray()) {
+        if (!arrayContains(array, element)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    boolean bothPrimitive = container.isJsonPrimitive() && contained.isJsonPrimitive();
+    if (bothPrimitive || container.isJsonNull() && contained.isJsonNull()) {
+      return scalarKey(container).equals(scalarKey(contained));
+    }
+    return false;
+  }
+
+  private static boolean arrayContains(JsonArray array, JsonElement element) {
+    for (JsonElement candidate : array) {
+      if (!candidate.isJsonArray() || element.isJsonArray()) {
+        if (containsValue(candidate, element)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Make a string that's equal for two scalars if and only if they're equal jsonb values
+   * @param element a primitive or null
+   * @return the key or null if the element isn't a scalar
+   */
+  @Nullable
+  static String scalarKey(JsonElement element) {
+    if (element.isJsonNull()) {
+      return "null";
+    }
+    if (!element.isJsonPrimitive()) {
+      return null;
+    }
+    JsonPrimitive primitive = element.getAsJsonPrimitive();
+    if (primitive.isNumber()) {
+      BigDecimal number = primitive.getAsBigDecimal();
+      return "n:" + (number.signum() == 0 ? "0" : number.stripTrailingZeros().toPlainString());
+    }
+    if (primitive.isBoolean()) {
+      return "b:" + primitive.getAsBoolean();
+    }
+    return "s:" + primitive.getAsString();
+  }
+}
@@ -0,0 +1,90 @@
+package org.cpicpgx.lookup;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Finds the values whose <code>lookupkey</code> is contained in a combined lookup key, the same way
+ * <code>lookupkey &lt;@ ...</code> does in the <code>recommendation_lookup</code> and <code>test_alert_lookup</code>
+ * functions.
+ * <p>
+ * Lookup keys map gene symbols to a phenotype or activity score, e.g. <code>{"CYP2C19": "Poor Metabolizer"}</code>.
+ * They're grouped by the set of genes they use, and within each group hashed by their values. There are only as many
+ * groups as there are gene combinations in the guidelines, so a lookup is one hash lookup per group whose genes are
+ * all in the lookup key. Keys with values that aren't scalars are kept in a list and checked one by one.
+ * <p>
+ * Once loaded this is read-only and safe to share between threads.
+ * @param <T> the type of value the keys point to
+ */
+class LookupKeyIndex<T> {
+  private final Map<List<String>, Map<String, List<T>>> f_groups = new LinkedHashMap<>();
+  private final List<Map.Entry<JsonObject, T>> f_others = new ArrayList<>();
+  private int m_size = 0;
+
+  /**
+   * Add a value
+   * @param lookupKey the <code>lookupkey</code> of the value
+   * @param value the value
+   */
+  void add(JsonObject lookupKey, T value) {
+    m_size += 1;
+    List<String> genes = new ArrayList<>(new TreeSet<>(lookupKey.keySet()));
+    StringBuilder key = new StringBuilder();
+    for (String gene : genes) {
+      String scalar = Jsonb.scalarKey(lookupKey.get(gene));
+      if (scalar == null) {
+        f_others.add(new AbstractMap.SimpleImmutableEntry<>(lookupKey, value));
+        return;
+      }
+      key.append(scalar).append('\n');
+    }
+    f_groups.computeIfAbsent(genes, (g) -> new HashMap<>())
+        .computeIfAbsent(key.toString(), (k) -> new ArrayList<>())
+        .add(value);
+  }
+
+  int size() {
+    return m_size;
+  }
+
+  /**
+   * Find all the values whose lookup key is contained in the given key
+   * @param lookupKey a JSON object of gene symbol to phenotype or activity score
+   * @return the values in no particular order
+   */
+  List<T> findContainedIn(JsonObject lookupKey) {
+    List<T> values = new ArrayList<>();
+    for (Map.Entry<List<String>, Map<String, List<T>>> group : f_groups.entrySet()) {
+      StringBuilder key = new StringBuilder();
+      for (String gene : group.getKey()) {
+        JsonElement element = lookupKey.get(gene);
+        String scalar = element == null ? null : Jsonb.scalarKey(element);
+        if (scalar == null) {
+          key = null;
+          break;
+        }
+        key.append(scalar).append('\n');
+      }
+      if (key != null) {
+        List<T> found = group.getValue().get(key.toString());
+        if (found != null) {
+          values.addAll(found);
+        }
+      }
+    }
+    for (Map.Entry<JsonObject, T> entry : f_others) {
+      if (Jsonb.contains(lookupKey, entry.getKey())) {
+        values.add(entry.getValue());
+      }
+    }
+    return values;
+  }
+}
@@ -0,0 +1,102 @@
+package org.cpicpgx.lookup;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import javax.annotation.Nullable;
+
+/**
+ * A row of <code>recommendation_view</code>, the same columns the <code>recommendation_lookup</code> function returns
+ */
+public class Recommendation {
+  private final int f_id;
+  private final JsonObject f_lookupKey;
+  private final String f_drugName;
+  private final String f_guidelineName;
+  private final String f_guidelineUrl;
+  private final JsonElement f_implications;
+  private final String f_drugRecommendation;
+  private final String f_classification;
+  private final JsonElement f_phenotypes;
+  private final JsonElement f_activityScore;
+  private final String f_population;
+  private final String f_comments;
+
+  public Recommendation(int id, JsonObject lookupKey, String drugName, String guidelineName, String guidelineUrl,
+      @Nullable JsonElement implications, @Nullable String drugRecommendation, @Nullable String classification,
+      @Nullable JsonElement phenotypes, @Nullable JsonElement activityScore, @Nullable String population,
+      @Nullable String comments) {
+    f_id = id;
+    f_lookupKey = lookupKey;
+    f_drugName = drugName;
+    f_guidelineName = guidelineName;
+    f_guidelineUrl = guidelineUrl;
+    f_implications = implications;
+    f_drugRecommendation = drugRecommendation;
+    f_classification = classification;
+    f_phenotypes = phenotypes;
+    f_activityScore = activityScore;
+    f_population = population;
+    f_comments = comments;
+  }
+
+  public int getId() {
+    return f_id;
+  }
+
+  public JsonObject getLookupKey() {
+    return f_lookupKey;
+  }
+
+  public String getDrugName() {
+    return f_drugName;
+  }
+
+  public String getGuidelineName() {
+    return f_guidelineName;
+  }
+
+  public String getGuidelineUrl() {
+    return f_guidelineUrl;
+  }
+
+  @Nullable
+  public JsonElement getImplications() {
+    return f_implications;
+  }
+
+  @Nullable
+  public String getDrugRecommendation() {
+    return f_drugRecommendation;
+  }
+
+  @Nullable
+  public String getClassification() {
+    return f_classification;
+  }
+
+  @Nullable
+  public JsonElement getPhenotypes() {
+    return f_phenotypes;
+  }
+
+  @Nullable
+  public JsonElement getActivityScore() {
+    return f_activityScore;
+  }
+
+  @Nullable
+  public String getPopulation() {
+    return f_population;
+  }
+
+  @Nullable
+  public String getComments() {
+    return f_comments;
+  }
+
+  @Override
+  public String toString() {
+    return f_drugName + " " + f_lookupKey + " (" + f_id + ")";
+  }
+}
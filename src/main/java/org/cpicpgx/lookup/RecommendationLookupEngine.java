@@ -0,0 +1,221 @@
+package org.cpicpgx.lookup;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.cpicpgx.db.ConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandles;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Translates diplotypes into recommendations and test alerts in memory. This gives the same rows as the
+ * <code>recommendation_lookup</code> and <code>test_alert_lookup</code> functions without a trip to the database:
+ * diplotypes are resolved to a combined lookup key through a {@link DiplotypeIndex} and recommendations and test alerts
+ * are matched to that key through a {@link LookupKeyIndex}, all loaded once by {@link #load()}.
+ * <p>
+ * The engine is a snapshot of the data when it was loaded, load a new one to pick up changes. It's read-only and safe
+ * to share between threads.
+ */
+public class RecommendationLookupEngine {
+  private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  //language=PostgreSQL
+  private static final String sf_diplotypeSql = "select diplotypekey::text, lookupkey::text from diplotype " +
+      "where diplotypekey is not null order by genesymbol, diplotype";
+  //language=PostgreSQL
+  private static final String sf_recommendationSql = "select recommendationid, lookupkey::text, drugname, " +
+      "guidelinename, guidelineurl, implications::text, drugrecommendation, classification, phenotypes::text, " +
+      "activityscore::text, population, comments from recommendation_view where lookupkey is not null " +
+      "order by recommendationid";
+  //language=PostgreSQL
+  private static final String sf_testAlertSql = "select testalertid, lookupkey::text, drugname, population, " +
+      "alerttext, cdscontext from test_alert_view where lookupkey is not null order by testalertid";
+
+  private final DiplotypeIndex f_diplotypes;
+  private final LookupKeyIndex<Recommendation> f_recommendations;
+  private final LookupKeyIndex<TestAlert> f_testAlerts;
+
+  /**
+   * Load a new engine from the database
+   */
+  public static RecommendationLookupEngine load() throws SQLException {
+    try (Connection conn = ConnectionFactory.newConnection()) {
+      return load(conn);
+    }
+  }
+
+  /**
+   * Load a new engine using the given connection
+   */
+  public static RecommendationLookupEngine load(Connection conn) throws SQLException {
+    long start = System.currentTimeMillis();
+    DiplotypeIndex diplotypes = new DiplotypeIndex();
+    try (PreparedStatement stmt = conn.prepareStatement(sf_diplotypeSql);
+         ResultSet rs = stmt.executeQuery()) {
+      while (rs.next()) {
+        diplotypes.add(parseObject(rs.getString(1)), parseObject(rs.getString(2)));
+      }
+    }
+
+    LookupKeyIndex<Recommendation> recommendations = new LookupKeyIndex<>();
+    try (PreparedStatement stmt = conn.prepareStatement(sf_recommendationSql);
+         ResultSet rs = stmt.executeQuery()) {
+      while (rs.next()) {
+        Recommendation recommendation = new Recommendation(
+            rs.getInt(1),
+            parseObject(rs.getString(2)),
+            rs.getString(3),
+            rs.getString(4),
+            rs.getString(5),
+            parse(rs.getString(6)),
+            rs.getString(7),
+            rs.getString(8),
+            parse(rs.getString(9)),
+            parse(rs.getString(10)),
+            rs.getString(11),
+            rs.getString(12)
+        );
+        recommendations.add(recommendation.getLookupKey(), recommendation);
+      }
+    }
+
+    LookupKeyIndex<TestAlert> testAlerts = new LookupKeyIndex<>();
+    try (PreparedStatement stmt = conn.prepareStatement(sf_testAlertSql);
+         ResultSet rs = stmt.executeQuery()) {
+      while (rs.next()) {
+        Array alertText = rs.getArray(5);
+        TestAlert testAlert = new TestAlert(
+            rs.getInt(1),
+            parseObject(rs.getString(2)),
+            rs.getString(3),
+            rs.getString(4),
+            Arrays.asList((String[])alertText.getArray()),
+            rs.getString(6)
+        );
+        testAlerts.add(testAlert.getLookupKey(), testAlert);
+      }
+    }
+    sf_logger.info("Loaded {} diplotypes, {} recommendations and {} test alerts in {} ms",
+        diplotypes.size(), recommendations.size(), testAlerts.size(), System.currentTimeMillis() - start);
+    return new RecommendationLookupEngine(diplotypes, recommendations, testAlerts);
+  }
+
+  RecommendationLookupEngine(DiplotypeIndex diplotypes, LookupKeyIndex<Recommendation> recommendations,
+      LookupKeyIndex<TestAlert> testAlerts) {
+    f_diplotypes = diplotypes;
+    f_recommendations = recommendations;
+    f_testAlerts = testAlerts;
+  }
+
+  /**
+   * Resolve diplotypes to the combined lookup key used to find recommendations
+   * @param diplotypeLookup a JSON object of gene symbol to allele counts, e.g.
+   * <code>{"CYP2C19": {"*1": 1, "*2": 1}, "CYP2D6": {"*4": 2}}</code>
+   * @return a JSON object of gene symbol to phenotype or activity score, or null if no diplotypes matched
+   */
+  @Nullable
+  public JsonObject resolveLookupKey(JsonObject diplotypeLookup) {
+    return f_diplotypes.resolve(diplotypeLookup);
+  }
+
+  /**
+   * Find the recommendations for diplotypes, the same as <code>recommendation_lookup(diplotypeLookup)</code>
+   * @param diplotypeLookup the diplotype lookup as JSON text
+   * @return the recommendations sorted by ID
+   */
+  public List<Recommendation> lookup(String diplotypeLookup) {
+    return lookup(parseObject(diplotypeLookup));
+  }
+
+  /**
+   * Find the recommendations for diplotypes, the same as <code>recommendation_lookup(diplotypeLookup)</code>
+   * @param diplotypeLookup a JSON object of gene symbol to allele counts
+   * @return the recommendations sorted by ID
+   */
+  public List<Recommendation> lookup(JsonObject diplotypeLookup) {
+    return lookup(diplotypeLookup, null);
+  }
+
+  /**
+   * Find the recommendations for diplotypes for one drug
+   * @param diplotypeLookup a JSON object of gene symbol to allele counts
+   * @param drugName the name of the drug to get recommendations for, or null for all drugs
+   * @return the recommendations sorted by ID
+   */
+  public List<Recommendation> lookup(JsonObject diplotypeLookup, @Nullable String drugName) {
+    JsonObject lookupKey = resolveLookupKey(diplotypeLookup);
+    if (lookupKey == null) {
+      return Collections.emptyList();
+    }
+    return lookupByKey(lookupKey, drugName);
+  }
+
+  /**
+   * Find the recommendations for an already resolved lookup key
+   * @param lookupKey a JSON object of gene symbol to phenotype or activity score
+   * @param drugName the name of the drug to get recommendations for, or null for all drugs
+   * @return the recommendations sorted by ID
+   */
+  public List<Recommendation> lookupByKey(JsonObject lookupKey, @Nullable String drugName) {
+    return find(f_recommendations, lookupKey, drugName, Recommendation::getDrugName, Recommendation::getId);
+  }
+
+  /**
+   * Find the test alerts for diplotypes, the same as <code>test_alert_lookup(diplotypeLookup)</code>
+   * @param diplotypeLookup a JSON object of gene symbol to allele counts
+   * @return the test alerts sorted by ID
+   */
+  public List<TestAlert> lookupTestAlerts(JsonObject diplotypeLookup) {
+    JsonObject lookupKey = resolveLookupKey(diplotypeLookup);
+    if (lookupKey == null) {
+      return Collections.emptyList();
+    }
+    return lookupTestAlertsByKey(lookupKey, null);
+  }
+
+  /**
+   * Find the test alerts for an already resolved lookup key
+   * @param lookupKey a JSON object of gene symbol to phenotype or activity score
+   * @param drugName the name of the drug to get test alerts for, or null for all drugs
+   * @return the test alerts sorted by ID
+   */
+  public List<TestAlert> lookupTestAlertsByKey(JsonObject lookupKey, @Nullable String drugName) {
+    return find(f_testAlerts, lookupKey, drugName, TestAlert::getDrugName, TestAlert::getId);
+  }
+
+  private static <T> List<T> find(LookupKeyIndex<T> index, JsonObject lookupKey, @Nullable String drugName,
+      Function<T, String> getDrugName, Function<T, Integer> getId) {
+    List<T> found = index.findContainedIn(lookupKey);
+    List<T> values = new ArrayList<>(found.size());
+    for (T value : found) {
+      if (drugName == null || drugName.equalsIgnoreCase(getDrugName.apply(value))) {
+        values.add(value);
+      }
+    }
+    values.sort(Comparator.comparing(getId));
+    return values;
+  }
+
+  private static JsonObject parseObject(String json) {
+    return JsonParser.parseString(json).getAsJsonObject();
+  }
+
+  @Nullable
+  private static JsonElement parse(@Nullable String json) {
+    return json == null ? null : JsonParser.parseString(json);
+  }
+}
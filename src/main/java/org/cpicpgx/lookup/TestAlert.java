@@ -0,0 +1,58 @@
+package org.cpicpgx.lookup;
+
+import com.google.gson.JsonObject;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * A row of <code>test_alert_view</code>, the same columns the <code>test_alert_lookup</code> function returns
+ */
+public class TestAlert {
+  private final int f_id;
+  private final JsonObject f_lookupKey;
+  private final String f_drugName;
+  private final String f_population;
+  private final List<String> f_alertText;
+  private final String f_cdsContext;
+
+  public TestAlert(int id, JsonObject lookupKey, String drugName, @Nullable String population, List<String> alertText,
+      String cdsContext) {
+    f_id = id;
+    f_lookupKey = lookupKey;
+    f_drugName = drugName;
+    f_population = population;
+    f_alertText = alertText;
+    f_cdsContext = cdsContext;
+  }
+
+  public int getId() {
+    return f_id;
+  }
+
+  public JsonObject getLookupKey() {
+    return f_lookupKey;
+  }
+
+  public String getDrugName() {
+    return f_drugName;
+  }
+
+  @Nullable
+  public String getPopulation() {
+    return f_population;
+  }
+
+  public List<String> getAlertText() {
+    return f_alertText;
+  }
+
+  public String getCdsContext() {
+    return f_cdsContext;
+  }
+
+  @Override
+  public String toString() {
+    return f_drugName + " " + f_lookupKey + " (" + f_id + ")";
+  }
+}
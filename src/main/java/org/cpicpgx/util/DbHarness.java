@@ -2,6 +2,7 @@
 
 import org.apache.commons.lang3.StringUtils;
 import org.cpicpgx.db.ConnectionFactory;
+import org.cpicpgx.db.ReferenceDictionary;
 import org.cpicpgx.exception.NotFoundException;
 import org.cpicpgx.model.FileType;
 import org.cpicpgx.workbook.AbstractWorkbook;
@@ -14,7 +15,8 @@
 
 /**
  * Helper class to interact with the database. Handles connection creation and closing any generated SQL
- * statements. Also include some caching for common queries like looking up drug IDs or guideline IDs.
+ * statements. Common lookups like drug IDs or guideline IDs are answered from the shared {@link ReferenceDictionary}
+ * and only go to the database, on this harness's connection, when the dictionary doesn't have them.
  *
  * <p>Extend this class in your own class and add your own write statements to it.</p>
  */
@@ -23,20 +25,13 @@ public abstract class DbHarness implements AutoCloseable {
   private final Connection f_conn;
   private final FileType f_fileType;
 
+  private final ReferenceDictionary f_dictionary = ReferenceDictionary.getInstance();
   private final PreparedStatement drugLookup;
-  private final Map<String, String> drugLookupCache = new HashMap<>();
-
+  private final Set<String> lookedUpDrugIds = new LinkedHashSet<>();
   private final PreparedStatement geneLookup;
-  private final Set<String> geneLookupCache = new HashSet<>();
-
   private final PreparedStatement guidelineLookup;
-  private final Map<String, Integer> guidelineLookupCache = new HashMap<>();
-
   private final PreparedStatement phenotypeLookup;
-  private final Map<String,String> phenotypeLookupCache = new HashMap<>();
-
   private final PreparedStatement activityLookup;
-  private final Map<String,String> activityLookupCache = new HashMap<>();
 
   private final PreparedStatement insertChangeLog;
 
@@ -70,43 +65,41 @@ public String lookupCachedDrug(String drugName) throws SQLException, NotFoundExc
     String normalizedName = StringUtils.lowerCase(StringUtils.stripToNull(drugName));
     if (normalizedName == null) return null;
 
-    if (drugLookupCache.containsKey(normalizedName)) {
-      return drugLookupCache.get(normalizedName);
-    } else {
+    String drugId = f_dictionary.lookupDrug(normalizedName);
+    if (drugId == null) {
       drugLookup.setString(1, normalizedName);
-      ResultSet rs = drugLookup.executeQuery();
-      if (rs.next()) {
-        String drugId = rs.getString(1);
-        drugLookupCache.put(normalizedName, drugId);
-        return drugId;
-      } else {
-        throw new NotFoundException("No drug found for " + drugName);
+      try (ResultSet rs = drugLookup.executeQuery()) {
+        if (rs.next()) {
+          drugId = rs.getString(1);
+        } else {
+          throw new NotFoundException("No drug found for " + drugName);
+        }
       }
     }
+    lookedUpDrugIds.add(drugId);
+    return drugId;
   }
 
+  /**
+   * Gets the IDs of the drugs this harness has looked up
+   */
   public Collection<String> getDrugIds() {
-    return drugLookupCache.values();
+    return lookedUpDrugIds;
   }
 
   /**
-   * Check whether a gene is already in the system, cache any found genes for faster lookup
+   * Check whether a gene is already in the system
    * @param geneSymbol the Gene to find as an HGNC symbol
    * @return true if this is a known gene, false if not found
    */
   public boolean lookupCachedGene(String geneSymbol) throws SQLException {
     if (geneSymbol == null) return false;
-    if (geneLookupCache.contains(geneSymbol)) {
+    if (f_dictionary.hasGene(geneSymbol)) {
       return true;
-    } else {
-      geneLookup.setString(1, geneSymbol);
-      ResultSet rs = geneLookup.executeQuery();
-      if (rs.next()) {
-        geneLookupCache.add(geneSymbol);
-        return true;
-      } else {
-        return false;
-      }
+    }
+    geneLookup.setString(1, geneSymbol);
+    try (ResultSet rs = geneLookup.executeQuery()) {
+      return rs.next();
     }
   }
 
@@ -114,15 +107,14 @@ public Integer lookupCachedGuideline(String url) throws SQLException {
     String normalizedUrl = StringUtils.stripToNull(url);
     if (normalizedUrl == null) return null;
 
-    if (guidelineLookupCache.containsKey(normalizedUrl)) {
-      return guidelineLookupCache.get(normalizedUrl);
-    } else {
-      guidelineLookup.setString(1, normalizedUrl);
-      ResultSet rs = guidelineLookup.executeQuery();
+    Integer guidelineId = f_dictionary.lookupGuideline(normalizedUrl);
+    if (guidelineId != null) {
+      return guidelineId;
+    }
+    guidelineLookup.setString(1, normalizedUrl);
+    try (ResultSet rs = guidelineLookup.executeQuery()) {
       if (rs.next()) {
-        int guidelineId = rs.getInt(1);
-        guidelineLookupCache.put(normalizedUrl, guidelineId);
-        return guidelineId;
+        return rs.getInt(1);
       } else {
         throw new RuntimeException("No guideline found for " + url);
       }
@@ -139,19 +131,17 @@ public Integer lookupCachedGuideline(String url) throws SQLException {
   public String validPhenotype(String gene, String phenotype) throws SQLException, NotFoundException {
     if (Constants.isNoResult(phenotype) || Constants.isIndeterminate(phenotype)) return phenotype;
 
-    if (phenotypeLookupCache.containsKey(phenotype)) {
-      return phenotypeLookupCache.get(phenotype);
-    } else {
-      phenotypeLookup.setString(1, gene);
-      phenotypeLookup.setString(2, phenotype);
-      try (ResultSet rs = phenotypeLookup.executeQuery()) {
-        if (rs.next()) {
-          String validPhenotype = rs.getString(1);
-          phenotypeLookupCache.put(phenotype, validPhenotype);
-          return validPhenotype;
-        } else {
-          throw new NotFoundException("Phenotype not found in allele table for " + gene + ": [" + phenotype + "]");
-        }
+    String validPhenotype = f_dictionary.lookupPhenotype(gene, phenotype);
+    if (validPhenotype != null) {
+      return validPhenotype;
+    }
+    phenotypeLookup.setString(1, gene);
+    phenotypeLookup.setString(2, phenotype);
+    try (ResultSet rs = phenotypeLookup.executeQuery()) {
+      if (rs.next()) {
+        return rs.getString(1);
+      } else {
+        throw new NotFoundException("Phenotype not found in allele table for " + gene + ": [" + phenotype + "]");
       }
     }
   }
@@ -168,21 +158,17 @@ public String validActivityScore(String gene, String activityScore) throws SQLEx
     if (Constants.isNoResult(activityScore)) return Constants.NO_RESULT;
     if (Constants.isIndeterminate(activityScore)) return Constants.INDETERMINATE;
 
-    String key = gene + activityScore;
-
-    if (activityLookupCache.containsKey(key)) {
-      return activityLookupCache.get(key);
-    } else {
-      activityLookup.setString(1, gene);
-      activityLookup.setString(2, activityScore);
-      try (ResultSet rs = activityLookup.executeQuery()) {
-        if (rs.next()) {
-          String validActivity = rs.getString(1);
-          activityLookupCache.put(key, validActivity);
-          return validActivity;
-        } else {
-          throw new NotFoundException("Activity score not found in gene_result table for " + gene + ": [" + activityScore + "]");
-        }
+    String validActivity = f_dictionary.lookupActivityScore(gene, activityScore);
+    if (validActivity != null) {
+      return validActivity;
+    }
+    activityLookup.setString(1, gene);
+    activityLookup.setString(2, activityScore);
+    try (ResultSet rs = activityLookup.executeQuery()) {
+      if (rs.next()) {
+        return rs.getString(1);
+      } else {
+        throw new NotFoundException("Activity score not found in gene_result table for " + gene + ": [" + activityScore + "]");
       }
     }
   }
@@ -1,31 +1,54 @@
 package org.cpicpgx.util;
 
+import com.amazonaws.client.builder.AwsClientBuilder;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.net.UrlEscapers;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.FastDateFormat;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
 import org.cpicpgx.db.FileHistoryWriter;
 import org.cpicpgx.model.FileType;
+import org.cpicpgx.workbook.AbstractWorkbook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.invoke.MethodHandles;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.sql.SQLException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Set;
 
 /**
  * Utility class that helps write files to the network file store, Amazon S3.
  * 
  * This class assumes you have <a href="https://docs.aws.amazon.com/sdk-for-java/v1/developer-guide/credentials.html">AWS credentials setup on your system</a>.
  * This usually entails setting up a <code>~/.aws</code> directory with configuration and credential files but can be 
- * handled in other ways if necessary.
+ * handled in other ways if necessary. Set the <code>CPIC_S3_ENDPOINT</code> environment variable to use a local S3
+ * stand-in (like MinIO) instead of Amazon.
+ * <p>
+ * Artifacts are uploaded to the "current" directory only when their SHA-256 digest differs from the one recorded in
+ * <code>file_artifact</code> for the last upload. Excel files are digested by their cell contents, see
+ * {@link #digest(File)}. The dated copy is always made with a server-side copy of the current
+ * file so it doesn't have to be uploaded a second time.
+ * <p>
+ * Files larger than {@link #MULTIPART_THRESHOLD} are uploaded in parts. An instance can be shared by threads, see
+ * {@link UploadManager} for running uploads concurrently.
  *
  * @author Ryan Whaley
  */
@@ -36,15 +59,23 @@ public class FileStoreClient implements AutoCloseable {
   private static final String S3_GENERIC_KEY_PREFIX = "data/report/";
   private static final String S3_GUIDELINE_STAGING_FORMAT = "data/guideline/staging/%s/";
   private static final String S3_URL_FORMAT         = "https://" + S3_PUBLIC_BUCKET + "/%s%s";
-  private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
+  // FastDateFormat is thread-safe, exporters may upload at the same time
+  private static final FastDateFormat DATE_FORMAT = FastDateFormat.getInstance("yyyy-MM-dd");
   
+  private static final String S3_ENDPOINT = System.getenv("CPIC_S3_ENDPOINT");
+  static final long MULTIPART_THRESHOLD = 16L * 1024 * 1024;
+  /** change log notes that are written with the time the file was made, their dates are left out of digests */
+  private static final Set<String> sf_generatedLogNotes =
+      Set.of(AbstractWorkbook.LOG_FILE_CREATED, AbstractWorkbook.LOG_FILE_WRITTEN);
+
   private final AmazonS3 s3;
+  private final TransferManager transferManager;
+  // the writer has one connection so calls to it are synchronized on it
   private FileHistoryWriter fileHistoryWriter;
   
   public FileStoreClient() {
-    s3 = AmazonS3ClientBuilder.standard()
-            .withRegion(Regions.US_WEST_2)
-            .build();
+    s3 = buildS3Client();
+    transferManager = buildTransferManager(s3);
     try {
       fileHistoryWriter = new FileHistoryWriter(null);
     } catch (SQLException e) {
@@ -52,6 +83,104 @@ public FileStoreClient() {
     }
   }
 
+  /**
+   * Use the given S3 client and history writer, for running against something other than the default S3 service
+   */
+  FileStoreClient(AmazonS3 s3, FileHistoryWriter fileHistoryWriter) {
+    this.s3 = s3;
+    this.transferManager = buildTransferManager(s3);
+    this.fileHistoryWriter = fileHistoryWriter;
+  }
+
+  private static TransferManager buildTransferManager(AmazonS3 s3) {
+    return TransferManagerBuilder.standard()
+        .withS3Client(s3)
+        .withMultipartUploadThreshold(MULTIPART_THRESHOLD)
+        .build();
+  }
+
+  private static AmazonS3 buildS3Client() {
+    AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard();
+    if (StringUtils.isNotBlank(S3_ENDPOINT)) {
+      sf_logger.info("Using S3 endpoint {}", S3_ENDPOINT);
+      builder
+          .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(S3_ENDPOINT, Regions.US_WEST_2.getName()))
+          .withPathStyleAccessEnabled(true);
+    } else {
+      builder.withRegion(Regions.US_WEST_2);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Calculate the SHA-256 digest of the contents of a file.
+   * <p>
+   * The bytes of an Excel file change every time it's written (creation time, zip entry times) and some workbooks
+   * record when they were generated, so <code>.xlsx</code> files are digested by the values and number formats of
+   * their cells instead. The "Generated" sheet and the dates of "file created" change log entries are left out.
+   * @return the digest as a hex string
+   */
+  static String digest(File file) {
+    try {
+      if (file.getName().endsWith(".xlsx")) {
+        return digestWorkbook(file);
+      }
+      return com.google.common.io.Files.asByteSource(file).hash(Hashing.sha256()).toString();
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Could not read " + file, ex);
+    }
+  }
+
+  private static String digestWorkbook(File file) throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    try (StreamingWorkbookWrapper workbook = new StreamingWorkbookWrapper(file)) {
+      for (String sheetName : workbook.getSheetNameList()) {
+        if (sheetName.equals(AbstractWorkbook.GENERATED_SHEET_NAME)) continue;
+
+        putString(hasher, sheetName);
+        workbook.currentSheetIs(sheetName);
+        boolean isHistory = sheetName.equals(AbstractWorkbook.HISTORY_SHEET_NAME);
+        for (int i = 0; i <= workbook.currentSheet.getLastRowNum(); i++) {
+          RowWrapper row = workbook.getRow(i);
+          if (row == null || row.row == null) continue;
+
+          boolean skipDate = isHistory && sf_generatedLogNotes.contains(row.getNullableText(1));
+          for (Cell cell : row.row) {
+            if (skipDate && cell.getColumnIndex() == 0) continue;
+
+            hasher.putInt(i).putInt(cell.getColumnIndex());
+            putString(hasher, cellValue(cell));
+            putString(hasher, cell.getCellStyle().getDataFormatString());
+          }
+        }
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  private static String cellValue(Cell cell) {
+    CellType type = cell.getCellType();
+    if (type == CellType.STRING) {
+      return "s" + cell.getStringCellValue();
+    } else if (type == CellType.NUMERIC) {
+      return "n" + cell.getNumericCellValue();
+    } else if (type == CellType.BOOLEAN) {
+      return "b" + cell.getBooleanCellValue();
+    } else if (type == CellType.ERROR) {
+      return "e" + cell.getErrorCellValue();
+    } else {
+      return "";
+    }
+  }
+
+  /**
+   * Add a string with its length so neighboring strings can't run together
+   */
+  private static void putString(Hasher hasher, String value) {
+    String text = value == null ? "" : value;
+    hasher.putInt(text.length()).putString(text, StandardCharsets.UTF_8);
+  }
+
   /**
    * Build URL to S3 resource while properly escaping special characters in the URL.
    * @return a properly escaped URL (e.g. spaces are now "%20")
@@ -64,19 +193,62 @@ public static String buildS3Url(String path, String fileName) {
     );
   }
   
-  public void putArtifact(Path filePath, FileType type) {
+  /**
+   * Put a file in the "current" and dated directories for its type and record the upload in the DB
+   * @param filePath the local file to upload
+   * @param type the type of file
+   * @return true if the file was uploaded, false if it was unchanged and only copied to the dated directory
+   */
+  public boolean putArtifact(Path filePath, FileType type) {
     String fileName = filePath.getFileName().toString();
-
+    File file = filePath.toFile();
     String datedDirPath = S3_GENERIC_KEY_PREFIX + DATE_FORMAT.format(new Date()) + "/" + type.name().toLowerCase() + "/";
-    putFile(datedDirPath, fileName, filePath.toFile());
-
     String currentDirPath = S3_GENERIC_KEY_PREFIX + "current/" + type.name().toLowerCase() + "/";
-    putFile(currentDirPath, fileName, filePath.toFile());
+
+    String digest = digest(file);
+    boolean unchanged = digest.equals(readDigest(fileName));
+    if (unchanged) {
+      sf_logger.info("Skipped upload of unchanged {}", fileName);
+    } else {
+      putFile(currentDirPath, fileName, file);
+    }
 
     try {
-      fileHistoryWriter.writeUpload(fileName, buildS3Url(datedDirPath, fileName));
-    } catch (SQLException e) {
-      sf_logger.error("Error updating file record in DB " + fileName, e);
+      copyFile(currentDirPath, datedDirPath, fileName);
+    } catch (AmazonS3Exception ex) {
+      if (!unchanged || ex.getStatusCode() != 404) {
+        throw ex;
+      }
+      // the recorded digest is for a file that's no longer in the bucket so upload it again
+      sf_logger.warn("No current copy of {}, uploading", fileName);
+      putFile(currentDirPath, fileName, file);
+      copyFile(currentDirPath, datedDirPath, fileName);
+    }
+
+    if (fileHistoryWriter != null) {
+      synchronized (fileHistoryWriter) {
+        try {
+          fileHistoryWriter.writeDigest(fileName, type, digest);
+          fileHistoryWriter.writeUpload(fileName, buildS3Url(datedDirPath, fileName));
+        } catch (SQLException e) {
+          sf_logger.error("Error updating file record in DB " + fileName, e);
+        }
+      }
+    }
+    return !unchanged;
+  }
+
+  private String readDigest(String fileName) {
+    if (fileHistoryWriter == null) {
+      return null;
+    }
+    synchronized (fileHistoryWriter) {
+      try {
+        return fileHistoryWriter.readDigest(fileName);
+      } catch (SQLException e) {
+        sf_logger.error("Error reading file digest from DB " + fileName, e);
+        return null;
+      }
     }
   }
 
@@ -88,10 +260,20 @@ public String putGuidelineStagingFile(Path filePath, String timestamp) {
   }
 
   private void putFile(String directoryPath, String fileName, File file) {
-    s3.putObject(S3_PUBLIC_BUCKET, directoryPath + fileName, file);
+    try {
+      transferManager.upload(S3_PUBLIC_BUCKET, directoryPath + fileName, file).waitForCompletion();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted uploading " + fileName, e);
+    }
     sf_logger.info("Uploaded {}", String.format("s3:///%s/%s%s", S3_PUBLIC_BUCKET, directoryPath, fileName));
   }
 
+  private void copyFile(String fromDirectoryPath, String toDirectoryPath, String fileName) {
+    s3.copyObject(S3_PUBLIC_BUCKET, fromDirectoryPath + fileName, S3_PUBLIC_BUCKET, toDirectoryPath + fileName);
+    sf_logger.info("Copied {}", String.format("s3:///%s/%s%s", S3_PUBLIC_BUCKET, toDirectoryPath, fileName));
+  }
+
   public static String escapeUrl(String rawUrl) {
     try {
       URL parsedUrl = new URL(rawUrl);
@@ -110,9 +292,8 @@ public static String escapeUrl(String rawUrl) {
   
   @Override
   public void close() {
-    if (s3 != null) {
-      s3.shutdown();
-    }
+    // also shuts down the S3 client
+    transferManager.shutdownNow(true);
     if (fileHistoryWriter != null) {
       try {
         fileHistoryWriter.close();
@@ -1,34 +1,145 @@
 package org.cpicpgx.util;
 
+import com.google.common.base.MoreObjects;
+import okhttp3.Cache;
+import okhttp3.CacheControl;
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.apache.commons.lang3.StringUtils;
 import org.cpicpgx.exception.NotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Helpers for making requests to web APIs.
+ * <p>
+ * Clients made with {@link #newClientBuilder()} can keep responses in an on-disk cache. Set
+ * <code>CPIC_HTTP_CACHE_DIR</code> to turn the cache on. Responses are used for <code>CPIC_HTTP_CACHE_TTL</code>
+ * seconds and then revalidated with the server using their ETag or Last-Modified date. The least recently used
+ * responses are evicted once the cache is bigger than <code>CPIC_HTTP_CACHE_MB</code>. Set
+ * <code>CPIC_HTTP_OFFLINE=true</code> to only serve from the cache, whatever the age of the response, and fail on
+ * anything that isn't cached.
+ */
 public class HttpUtils {
+  private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
   private static final String sf_clinpgxUrl = "https://api.clinpgx.org/v1/";
   public static final int API_WAIT_TIME = 2100;
+  /** Limits requests to the ClinPGx API to one every {@link #API_WAIT_TIME} ms, shared by everything that calls it */
+  public static final RateLimiter CLINPGX_RATE_LIMITER = new RateLimiter(1000.0 / API_WAIT_TIME, 1);
+  static final int MAX_ATTEMPTS = 4;
+  private static final long INITIAL_BACKOFF_MS = 500;
+  private static final String sf_cacheDir = System.getenv("CPIC_HTTP_CACHE_DIR");
+  private static final long sf_cacheTtl = Long.parseLong(MoreObjects.firstNonNull(System.getenv("CPIC_HTTP_CACHE_TTL"), "86400"));
+  private static final long sf_cacheSize = Long.parseLong(MoreObjects.firstNonNull(System.getenv("CPIC_HTTP_CACHE_MB"), "200")) * 1024 * 1024;
+  private static final boolean sf_offline = Boolean.parseBoolean(System.getenv("CPIC_HTTP_OFFLINE"));
+  private static final CacheControl sf_freshOnly = new CacheControl.Builder().onlyIfCached().build();
+  // one cache for the whole JVM, OkHttp doesn't allow two caches to use the same directory
+  private static Cache s_cache;
+
+  /**
+   * Start building an OkHttp client that uses the response cache, if it's turned on
+   * @return a client builder
+   */
+  public static OkHttpClient.Builder newClientBuilder() {
+    return newClientBuilder(getCache(), sf_cacheTtl, sf_offline);
+  }
+
+  static OkHttpClient.Builder newClientBuilder(@Nullable Cache cache, long ttlSeconds, boolean offline) {
+    OkHttpClient.Builder builder = new OkHttpClient().newBuilder();
+    if (cache != null) {
+      builder.cache(cache).addNetworkInterceptor(cacheTtlInterceptor(ttlSeconds));
+      if (offline) {
+        builder.addInterceptor(chain -> chain.proceed(
+            chain.request().newBuilder().cacheControl(CacheControl.FORCE_CACHE).build()));
+      }
+    } else if (offline) {
+      throw new IllegalStateException("Offline mode needs CPIC_HTTP_CACHE_DIR to be set");
+    }
+    return builder;
+  }
+
+  @Nullable
+  private static synchronized Cache getCache() {
+    if (s_cache == null && StringUtils.isNotBlank(sf_cacheDir)) {
+      s_cache = new Cache(new File(sf_cacheDir), sf_cacheSize);
+      sf_logger.info("Caching HTTP responses in {} for {} s{}", sf_cacheDir, sf_cacheTtl, sf_offline ? ", offline" : "");
+    }
+    return s_cache;
+  }
+
+  /**
+   * APIs don't usually say how long their responses can be cached so use our own TTL instead. Validators like ETag are
+   * left alone so expired responses can be revalidated.
+   */
+  private static Interceptor cacheTtlInterceptor(long ttlSeconds) {
+    return chain -> {
+      Response response = chain.proceed(chain.request());
+      if (!response.isSuccessful() && response.code() != 304) {
+        return response;
+      }
+      return response.newBuilder()
+          .removeHeader("Pragma")
+          .header("Cache-Control", "max-age=" + ttlSeconds)
+          .build();
+    };
+  }
+
+  /**
+   * Reads the body of a successful response
+   */
+  @FunctionalInterface
+  public interface BodyHandler<T> {
+    T handle(ResponseBody body) throws IOException;
+  }
 
   @Nullable
   public static String apiRequest(OkHttpClient client, String url) throws IOException, NotFoundException {
     return apiRequest(client, url, null);
   }
 
+  @Nullable
+  public static String apiRequest(OkHttpClient client, String url, Map<String,String> headers) throws IOException, NotFoundException {
+    return apiRequest(client, url, headers, null);
+  }
+
   /**
-   * Make an API HTTP request with optional headers
+   * Make an API HTTP request with optional headers. Network errors, 429 and 5xx responses are retried with a backoff that
+   * doubles each time, or the wait the server asks for in a <code>Retry-After</code> header. Fresh responses from the
+   * client's cache don't count against the rate limit.
    * @param client an OkHttp client
    * @param url the full URL to request
    * @param headers HTTP headers to include in request
+   * @param rateLimiter a limiter to take a token from before each attempt, optional
    * @return the response data as a String
    */
   @Nullable
-  public static String apiRequest(OkHttpClient client, String url, Map<String,String> headers) throws IOException, NotFoundException {
+  public static String apiRequest(OkHttpClient client, String url, @Nullable Map<String,String> headers,
+                                  @Nullable RateLimiter rateLimiter) throws IOException, NotFoundException {
+    return apiRequest(client, url, headers, rateLimiter, ResponseBody::string);
+  }
+
+  /**
+   * Make an API HTTP request the same way as {@link #apiRequest(OkHttpClient, String, Map, RateLimiter)} but read the
+   * response body with the given handler, so it can be parsed as it streams in
+   * @param bodyHandler reads the body of a successful response
+   * @return whatever the handler returns, null if there was no body
+   */
+  @Nullable
+  public static <T> T apiRequest(OkHttpClient client, String url, @Nullable Map<String,String> headers,
+                                 @Nullable RateLimiter rateLimiter, BodyHandler<T> bodyHandler)
+      throws IOException, NotFoundException {
     Request.Builder builder = new Request.Builder().url(url).method("GET", null);
     if (headers != null) {
       for (String headerName : headers.keySet()) {
@@ -37,20 +148,92 @@ public static String apiRequest(OkHttpClient client, String url, Map<String,Stri
     }
     Request request = builder.build();
 
-    try (Response response = client.newCall(request).execute()) {
+    long backoff = INITIAL_BACKOFF_MS;
+    for (int attempt = 1; ; attempt++) {
+      long wait = backoff;
+      try {
+        Response response;
+        try {
+          response = execute(client, request, rateLimiter);
+        } catch (IOException ex) {
+          if (attempt >= MAX_ATTEMPTS) {
+            throw ex;
+          }
+          sf_logger.warn("Request to {} failed on attempt {}, retrying in {} ms: {}", url, attempt, wait, ex.getMessage());
+          Thread.sleep(wait);
+          backoff *= 2;
+          continue;
+        }
 
-      if (!response.isSuccessful()) {
-        if (response.code() == 404) {
-          throw new NotFoundException("No response for " + url);
-        } else {
-          throw new IOException("Unexpected response " + response);
+        try (response) {
+          if (response.isSuccessful()) {
+            if (response.body() == null) {
+              return null;
+            }
+            return bodyHandler.handle(response.body());
+          }
+          if (response.code() == 404) {
+            throw new NotFoundException("No response for " + url);
+          }
+          if (isUnsatisfiable(response)) {
+            throw new IOException("Not in the HTTP cache while offline: " + url);
+          }
+          if (!isRetryable(response.code()) || attempt >= MAX_ATTEMPTS) {
+            throw new IOException("Unexpected response " + response);
+          }
+          wait = retryAfter(response, wait);
         }
+        sf_logger.warn("Got {} from {} on attempt {}, retrying in {} ms", response.code(), url, attempt, wait);
+        Thread.sleep(wait);
+        backoff *= 2;
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted requesting " + url);
       }
-      if (response.body() == null) {
-        return null;
+    }
+  }
+
+  /**
+   * Answer from the cache if there's a fresh response there, otherwise wait for the rate limiter and go to the network
+   */
+  private static Response execute(OkHttpClient client, Request request, @Nullable RateLimiter rateLimiter)
+      throws IOException, InterruptedException {
+    if (client.cache() != null && rateLimiter != null) {
+      Response cached = client.newCall(request.newBuilder().cacheControl(sf_freshOnly).build()).execute();
+      if (!isUnsatisfiable(cached)) {
+        return cached;
       }
-      return response.body().string();
+      cached.close();
+    }
+    if (rateLimiter != null) {
+      rateLimiter.acquire();
+    }
+    return client.newCall(request).execute();
+  }
+
+  /**
+   * OkHttp answers a cache-only request it can't satisfy with a 504 that never went to the network
+   */
+  private static boolean isUnsatisfiable(Response response) {
+    return response.code() == 504 && response.networkResponse() == null && response.cacheResponse() == null;
+  }
+
+  /**
+   * Too many requests or a server error might work if tried again later
+   */
+  static boolean isRetryable(int code) {
+    return code == 429 || code >= 500;
+  }
+
+  /**
+   * Get how long the server asked us to wait, in milliseconds, if it gave the number of seconds in a Retry-After header
+   */
+  private static long retryAfter(Response response, long defaultWait) {
+    String header = response.header("Retry-After");
+    if (header != null && header.strip().matches("\\d+")) {
+      return Long.parseLong(header.strip()) * 1000;
     }
+    return defaultWait;
   }
 
   /**
@@ -0,0 +1,67 @@
+package org.cpicpgx.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket that limits how often something can happen, like requests to an API. The bucket holds up to
+ * <code>burst</code> tokens and refills at a steady rate. Callers that find the bucket empty take a token anyway and
+ * wait until it would have been refilled, so waiting callers are served in the order they arrived.
+ * <p>
+ * This is safe to share between threads.
+ */
+public class RateLimiter {
+  private final double f_nanosPerToken;
+  private final double f_capacity;
+  private final LongSupplier f_clock;
+  private double m_tokens;
+  private long m_lastRefill;
+
+  /**
+   * @param permitsPerSecond the steady rate at which tokens are added
+   * @param burst the most tokens that can be used at once after the limiter has been idle
+   */
+  public RateLimiter(double permitsPerSecond, int burst) {
+    this(permitsPerSecond, burst, System::nanoTime);
+  }
+
+  RateLimiter(double permitsPerSecond, int burst, LongSupplier clock) {
+    if (permitsPerSecond <= 0) {
+      throw new IllegalArgumentException("Rate must be positive");
+    }
+    if (burst < 1) {
+      throw new IllegalArgumentException("Burst must be at least 1");
+    }
+    f_nanosPerToken = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+    f_capacity = burst;
+    f_clock = clock;
+    m_tokens = burst;
+    m_lastRefill = clock.getAsLong();
+  }
+
+  /**
+   * Take a token, waiting until one is available
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void acquire() throws InterruptedException {
+    long wait = reserve();
+    if (wait > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+  }
+
+  /**
+   * Take a token, leaving the bucket in debt if it's empty
+   * @return the number of nanoseconds to wait before the token can be used
+   */
+  synchronized long reserve() {
+    long now = f_clock.getAsLong();
+    m_tokens = Math.min(f_capacity, m_tokens + (now - m_lastRefill) / f_nanosPerToken);
+    m_lastRefill = now;
+    m_tokens -= 1;
+    if (m_tokens >= 0) {
+      return 0;
+    }
+    return (long)Math.ceil(-m_tokens * f_nanosPerToken);
+  }
+}
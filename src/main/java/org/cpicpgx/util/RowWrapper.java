@@ -1,11 +1,11 @@
 package org.cpicpgx.util;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.FastDateFormat;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellAddress;
 import org.apache.poi.xssf.usermodel.XSSFRichTextString;
 
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -17,7 +17,8 @@
  */
 public class RowWrapper {
   private static final Pattern NUMBER_PATTERN = Pattern.compile("[\\d\\.]+");
-  private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("MM/dd/yy");
+  // FastDateFormat is thread-safe, rows from different workbooks may be read at the same time
+  private static final FastDateFormat DATE_FORMAT = FastDateFormat.getInstance("MM/dd/yy");
   
   public Row row;
   private final FormulaEvaluator formulaEvaluator;
@@ -0,0 +1,359 @@
+package org.cpicpgx.util;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link WorkbookWrapper} that streams sheet XML from the file instead of loading the whole workbook into memory.
+ * <p>
+ * Only the shared strings and styles are loaded up front. Rows of the current sheet are read forward on demand and
+ * kept in a small scratch workbook so {@link RowWrapper} works the same way it does for a fully loaded workbook. Only a
+ * sliding window of the most recently read rows is kept, plus the first few rows of each sheet since those are usually
+ * headers that importers hold on to. Reading a row that has already left the window will re-read the sheet from the
+ * start, so this works best for importers that read each sheet top to bottom.
+ * <p>
+ * Formulas are not evaluated, the value cached in the file for a formula cell is used instead.
+ */
+public class StreamingWorkbookWrapper extends WorkbookWrapper implements AutoCloseable {
+  private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  public static final int DEFAULT_WINDOW_SIZE = 200;
+  private static final int DEFAULT_PINNED_ROWS = 10;
+
+  private final OPCPackage f_package;
+  private final XSSFWorkbook f_scratch;
+  private final SharedStrings f_sharedStrings;
+  private final StylesTable f_styles;
+  private final Map<String, PackagePart> f_sheetParts = new LinkedHashMap<>();
+  private final Map<String, Integer> f_lastRowNums = new HashMap<>();
+  private final Map<Integer, CellStyle> f_styleCache = new HashMap<>();
+  private final int f_windowSize;
+  private final int f_pinnedRows;
+
+  private InputStream m_sheetInput;
+  private XMLStreamReader m_sheetReader;
+  private int m_lastReadRow = -1;
+  private int m_windowStart = 0;
+
+  /**
+   * Constructor
+   * @param file an Excel (.xlsx) file
+   * @throws IOException can occur when reading the file
+   */
+  public StreamingWorkbookWrapper(File file) throws IOException {
+    this(file, DEFAULT_WINDOW_SIZE, DEFAULT_PINNED_ROWS);
+  }
+
+  /**
+   * Constructor
+   * @param file an Excel (.xlsx) file
+   * @param windowSize the number of recently read rows to keep in memory
+   * @throws IOException can occur when reading the file
+   */
+  public StreamingWorkbookWrapper(File file, int windowSize) throws IOException {
+    this(file, windowSize, DEFAULT_PINNED_ROWS);
+  }
+
+  StreamingWorkbookWrapper(File file, int windowSize, int pinnedRows) throws IOException {
+    this(file, windowSize, pinnedRows, new XSSFWorkbook());
+  }
+
+  private StreamingWorkbookWrapper(File file, int windowSize, int pinnedRows, XSSFWorkbook scratch) throws IOException {
+    super(scratch);
+    if (windowSize < 1) {
+      throw new IllegalArgumentException("Window size must be at least 1");
+    }
+    f_scratch = scratch;
+    f_windowSize = windowSize;
+    f_pinnedRows = pinnedRows;
+    setFileName(file.getName());
+
+    try {
+      f_package = OPCPackage.open(file, PackageAccess.READ);
+      XSSFReader reader = new XSSFReader(f_package);
+      f_sharedStrings = reader.getSharedStringsTable();
+      f_styles = reader.getStylesTable();
+
+      XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+      while (sheets.hasNext()) {
+        try (InputStream ignored = sheets.next()) {
+          f_sheetParts.put(sheets.getSheetName(), sheets.getSheetPart());
+          f_scratch.createSheet(sheets.getSheetName());
+        }
+      }
+    } catch (OpenXML4JException ex) {
+      throw new IOException("Could not open " + file, ex);
+    }
+
+    if (f_scratch.getNumberOfSheets() > 0) {
+      setCurrentSheet(f_scratch.getSheetAt(0));
+    }
+  }
+
+  @Override
+  protected void setCurrentSheet(Sheet sheet) {
+    if (currentSheet != null && currentSheet != sheet) {
+      closeSheetReader();
+      clearRows(currentSheet);
+    }
+    super.setCurrentSheet(sheet);
+    if (sheet != null && !f_lastRowNums.containsKey(sheet.getSheetName())) {
+      int lastRowNum = scanLastRowNum(sheet.getSheetName());
+      f_lastRowNums.put(sheet.getSheetName(), lastRowNum);
+      // an empty row at the end makes getLastRowNum() correct before the sheet has been read
+      if (lastRowNum >= 0 && sheet.getRow(lastRowNum) == null) {
+        sheet.createRow(lastRowNum);
+      }
+    }
+  }
+
+  @Override
+  public RowWrapper getRow(int i) {
+    if (currentSheet != null && i >= 0 && i <= currentSheet.getLastRowNum()) {
+      try {
+        loadRow(i);
+      } catch (IOException | XMLStreamException ex) {
+        throw new RuntimeException("Error reading row " + (i + 1) + " of " + currentSheet.getSheetName(), ex);
+      }
+    }
+    return super.getRow(i);
+  }
+
+  @Override
+  public void close() throws IOException {
+    closeSheetReader();
+    f_package.revert();
+    f_scratch.close();
+  }
+
+  /**
+   * Make sure the row at the given index has been read into the current sheet and drop rows that have fallen out of
+   * the window
+   */
+  private void loadRow(int i) throws IOException, XMLStreamException {
+    if (i >= f_pinnedRows && i < m_windowStart) {
+      sf_logger.debug("Re-reading {} to get row {}", currentSheet.getSheetName(), i + 1);
+      closeSheetReader();
+    }
+    if (m_sheetReader == null) {
+      m_sheetInput = f_sheetParts.get(currentSheet.getSheetName()).getInputStream();
+      m_sheetReader = XMLHelper.newXMLInputFactory().createXMLStreamReader(m_sheetInput);
+      m_lastReadRow = -1;
+      m_windowStart = 0;
+    }
+
+    while (m_lastReadRow < i && readNextRow()) {
+      // keep reading until we've passed the row we want
+    }
+
+    int lastRowNum = currentSheet.getLastRowNum();
+    for (int k = Math.max(m_windowStart, f_pinnedRows); k <= i - f_windowSize; k++) {
+      Row row = currentSheet.getRow(k);
+      if (row != null && k != lastRowNum) {
+        currentSheet.removeRow(row);
+      }
+    }
+    m_windowStart = Math.max(m_windowStart, i - f_windowSize + 1);
+  }
+
+  /**
+   * Reads the next row element from the current sheet into the scratch sheet
+   * @return true if a row was read, false if there are no more rows in the sheet
+   */
+  private boolean readNextRow() throws XMLStreamException {
+    while (m_sheetReader.hasNext()) {
+      if (m_sheetReader.next() == XMLStreamConstants.START_ELEMENT && m_sheetReader.getLocalName().equals("row")) {
+        String rowRef = m_sheetReader.getAttributeValue(null, "r");
+        int rowIdx = rowRef != null ? Integer.parseInt(rowRef) - 1 : m_lastReadRow + 1;
+        m_lastReadRow = rowIdx;
+
+        Row row = currentSheet.getRow(rowIdx);
+        if (row != null && row.getPhysicalNumberOfCells() > 0) {
+          // already in memory, skip over it
+          skipToEnd("row");
+        } else {
+          readCells(row != null ? row : currentSheet.createRow(rowIdx));
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void readCells(Row row) throws XMLStreamException {
+    int colIdx = -1;
+    while (m_sheetReader.hasNext()) {
+      int event = m_sheetReader.next();
+      if (event == XMLStreamConstants.END_ELEMENT && m_sheetReader.getLocalName().equals("row")) {
+        return;
+      }
+      if (event == XMLStreamConstants.START_ELEMENT && m_sheetReader.getLocalName().equals("c")) {
+        String cellRef = m_sheetReader.getAttributeValue(null, "r");
+        colIdx = cellRef != null ? new CellReference(cellRef).getCol() : colIdx + 1;
+        String type = m_sheetReader.getAttributeValue(null, "t");
+        String styleRef = m_sheetReader.getAttributeValue(null, "s");
+        String value = readCellValue();
+
+        Cell cell = row.createCell(colIdx);
+        if (styleRef != null) {
+          cell.setCellStyle(lookupStyle(Integer.parseInt(styleRef)));
+        }
+        setCellValue(cell, type, value);
+      }
+    }
+  }
+
+  /**
+   * Reads the contents of the current "c" element. Formula text is skipped since the cached value is what we want.
+   * @return the value or inline string of the cell, null if none
+   */
+  private String readCellValue() throws XMLStreamException {
+    StringBuilder value = null;
+    boolean inValue = false;
+    while (m_sheetReader.hasNext()) {
+      int event = m_sheetReader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        String name = m_sheetReader.getLocalName();
+        if (name.equals("v") || name.equals("t")) {
+          inValue = true;
+          if (value == null) {
+            value = new StringBuilder();
+          }
+        }
+      } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+        if (inValue) {
+          value.append(m_sheetReader.getText());
+        }
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        String name = m_sheetReader.getLocalName();
+        if (name.equals("v") || name.equals("t")) {
+          inValue = false;
+        } else if (name.equals("c")) {
+          break;
+        }
+      }
+    }
+    return value == null ? null : value.toString();
+  }
+
+  private void setCellValue(Cell cell, String type, String value) {
+    if (value == null) {
+      // no value means a blank cell that only has formatting
+      return;
+    }
+    if (type == null || type.equals("n")) {
+      cell.setCellValue(Double.parseDouble(value));
+    } else if (type.equals("s")) {
+      cell.setCellValue(f_sharedStrings.getItemAt(Integer.parseInt(value)));
+    } else if (type.equals("b")) {
+      cell.setCellValue(value.equals("1"));
+    } else if (type.equals("e")) {
+      cell.setCellErrorValue(FormulaError.forString(value).getCode());
+    } else {
+      // "str" (cached formula string), "inlineStr" and "d"
+      cell.setCellValue(value);
+    }
+  }
+
+  /**
+   * Gets a style in the scratch workbook with the same number format as the style at the given index in the file. The
+   * number format is all {@link RowWrapper} needs to tell dates from other numbers.
+   */
+  private CellStyle lookupStyle(int styleIdx) {
+    return f_styleCache.computeIfAbsent(styleIdx, (idx) -> {
+      CellStyle style = f_scratch.createCellStyle();
+      String format = f_styles.getStyleAt(idx).getDataFormatString();
+      if (format != null) {
+        style.setDataFormat(f_scratch.createDataFormat().getFormat(format));
+      }
+      return style;
+    });
+  }
+
+  private void skipToEnd(String elementName) throws XMLStreamException {
+    while (m_sheetReader.hasNext()) {
+      if (m_sheetReader.next() == XMLStreamConstants.END_ELEMENT && m_sheetReader.getLocalName().equals(elementName)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Runs through the XML of a sheet to find the index of the last row without keeping any of the rows
+   * @return the 0-based index of the last row in the sheet, -1 if there are no rows
+   */
+  private int scanLastRowNum(String sheetName) {
+    int lastRowNum = -1;
+    try (InputStream in = f_sheetParts.get(sheetName).getInputStream()) {
+      XMLStreamReader reader = XMLHelper.newXMLInputFactory().createXMLStreamReader(in);
+      try {
+        while (reader.hasNext()) {
+          if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("row")) {
+            String rowRef = reader.getAttributeValue(null, "r");
+            lastRowNum = rowRef != null ? Integer.parseInt(rowRef) - 1 : lastRowNum + 1;
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (IOException | XMLStreamException ex) {
+      throw new RuntimeException("Error scanning sheet " + sheetName, ex);
+    }
+    return lastRowNum;
+  }
+
+  /**
+   * Drop the rows read for a sheet we're leaving, other than the pinned rows and the marker for the last row
+   */
+  private void clearRows(Sheet sheet) {
+    int lastRowNum = sheet.getLastRowNum();
+    for (int k = lastRowNum - 1; k >= f_pinnedRows; k--) {
+      Row row = sheet.getRow(k);
+      if (row != null) {
+        sheet.removeRow(row);
+      }
+    }
+    Row lastRow = sheet.getRow(lastRowNum);
+    if (lastRow != null && lastRowNum >= f_pinnedRows) {
+      sheet.removeRow(lastRow);
+      sheet.createRow(lastRowNum);
+    }
+  }
+
+  private void closeSheetReader() {
+    try {
+      if (m_sheetReader != null) {
+        m_sheetReader.close();
+      }
+      if (m_sheetInput != null) {
+        m_sheetInput.close();
+      }
+    } catch (IOException | XMLStreamException ex) {
+      sf_logger.warn("Problem closing sheet reader", ex);
+    } finally {
+      m_sheetReader = null;
+      m_sheetInput = null;
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package org.cpicpgx.util;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import org.cpicpgx.model.FileType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads artifacts with a {@link FileStoreClient} on a pool of threads so files can be submitted as soon as they're
+ * written. Uploads that fail with a retryable error are tried again after a backoff that doubles each time.
+ * <p>
+ * Closing the manager waits for all submitted uploads, logs the throughput, and throws one exception for all the
+ * uploads that failed.
+ */
+public class UploadManager implements AutoCloseable {
+  private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  public static final int DEFAULT_THREADS = 8;
+  static final int MAX_ATTEMPTS = 4;
+  private static final long DEFAULT_BACKOFF_MS = 1000;
+
+  /**
+   * Something that can upload an artifact, returns true if the file was sent and false if it was skipped
+   */
+  interface Uploader {
+    boolean upload(Path filePath, FileType type);
+  }
+
+  private final FileStoreClient f_fileStoreClient;
+  private final Uploader f_uploader;
+  private final long f_backoffMs;
+  private final ExecutorService f_executor;
+  private final List<Future<?>> f_futures = new ArrayList<>();
+  private final Map<String, Exception> f_errors = new ConcurrentSkipListMap<>();
+  private final AtomicInteger f_uploadCount = new AtomicInteger();
+  private final AtomicInteger f_skipCount = new AtomicInteger();
+  private final AtomicLong f_uploadBytes = new AtomicLong();
+  private final long f_start = System.currentTimeMillis();
+
+  /**
+   * Make a manager with its own {@link FileStoreClient}, which is closed when this is closed
+   * @param threads the number of files to upload at the same time
+   */
+  public UploadManager(int threads) {
+    this(new FileStoreClient(), threads);
+  }
+
+  private UploadManager(FileStoreClient fileStoreClient, int threads) {
+    this(fileStoreClient, fileStoreClient::putArtifact, threads, DEFAULT_BACKOFF_MS);
+  }
+
+  UploadManager(FileStoreClient fileStoreClient, Uploader uploader, int threads, long backoffMs) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Must have at least 1 thread");
+    }
+    f_fileStoreClient = fileStoreClient;
+    f_uploader = uploader;
+    f_backoffMs = backoffMs;
+    f_executor = Executors.newFixedThreadPool(threads);
+  }
+
+  /**
+   * Start uploading a file in the background
+   * @param filePath the local file to upload
+   * @param type the type of file
+   */
+  public synchronized void submit(Path filePath, FileType type) {
+    f_futures.add(f_executor.submit(() -> {
+      try {
+        upload(filePath, type);
+      } catch (Exception ex) {
+        sf_logger.error("Error uploading {}", filePath, ex);
+        f_errors.put(filePath.toString(), ex);
+      }
+    }));
+  }
+
+  private void upload(Path filePath, FileType type) throws InterruptedException {
+    long backoff = f_backoffMs;
+    for (int attempt = 1; ; attempt++) {
+      try {
+        if (f_uploader.upload(filePath, type)) {
+          f_uploadCount.incrementAndGet();
+          f_uploadBytes.addAndGet(filePath.toFile().length());
+        } else {
+          f_skipCount.incrementAndGet();
+        }
+        return;
+      } catch (AmazonClientException ex) {
+        if (attempt >= MAX_ATTEMPTS || !isRetryable(ex)) {
+          throw ex;
+        }
+        sf_logger.warn("Upload of {} failed on attempt {}, retrying in {} ms: {}",
+            filePath.getFileName(), attempt, backoff, ex.getMessage());
+        Thread.sleep(backoff);
+        backoff *= 2;
+      }
+    }
+  }
+
+  /**
+   * Client errors (4xx) other than throttling won't go away by trying again
+   */
+  static boolean isRetryable(AmazonClientException ex) {
+    if (ex instanceof AmazonServiceException) {
+      int status = ((AmazonServiceException)ex).getStatusCode();
+      if (status >= 400 && status < 500 && status != 429) {
+        return false;
+      }
+    }
+    return ex.isRetryable();
+  }
+
+  int getUploadCount() {
+    return f_uploadCount.get();
+  }
+
+  int getSkipCount() {
+    return f_skipCount.get();
+  }
+
+  /**
+   * Wait for all submitted uploads to finish
+   * @throws RuntimeException if any uploads failed, with each failure as a suppressed exception
+   */
+  @Override
+  public void close() {
+    try {
+      List<Future<?>> futures;
+      synchronized (this) {
+        futures = new ArrayList<>(f_futures);
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException | ExecutionException ex) {
+      throw new RuntimeException("Error waiting for uploads to finish", ex);
+    } finally {
+      f_executor.shutdown();
+      if (f_fileStoreClient != null) {
+        f_fileStoreClient.close();
+      }
+    }
+
+    long elapsed = Math.max(1, System.currentTimeMillis() - f_start);
+    double megabytes = f_uploadBytes.get() / (1024.0 * 1024.0);
+    sf_logger.info(String.format("Uploaded %d files (%.1f MB) and skipped %d unchanged in %d ms, %.2f MB/s",
+        f_uploadCount.get(), megabytes, f_skipCount.get(), elapsed, megabytes / (elapsed / 1000.0)));
+
+    if (!f_errors.isEmpty()) {
+      RuntimeException ex = new RuntimeException(f_errors.size() + " uploads failed: " +
+          String.join(", ", f_errors.keySet()));
+      f_errors.values().forEach(ex::addSuppressed);
+      throw ex;
+    }
+  }
+}
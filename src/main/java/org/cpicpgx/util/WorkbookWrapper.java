@@ -6,13 +6,13 @@
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.security.InvalidParameterException;
 import java.util.*;
 import java.util.regex.Pattern;
 
 /**
- * Wrapper class for an Excel workbook. Helps read and setup supporting objects.
+ * Wrapper class for an Excel workbook. Helps read and setup supporting objects. This is only for reading, use POI's
+ * {@link Workbook} directly to change or write a workbook.
  * 
  * During construction, this will set the <code>currentSheet</code> to the first sheet in the workbook.
  *
@@ -32,12 +32,32 @@ public class WorkbookWrapper {
    * @throws IOException can occur when reading the file
    */
   public WorkbookWrapper(InputStream in) throws IOException {
+    this(createWorkbook(in));
+  }
+
+  /**
+   * Constructor for subclasses that supply their own {@link Workbook}
+   * @param workbook the workbook to wrap, the first sheet (if any) will be the current sheet
+   */
+  protected WorkbookWrapper(Workbook workbook) {
+    this.workbook = workbook;
+    this.formulaEvaluator = workbook.getCreationHelper().createFormulaEvaluator();
+    this.currentSheet = workbook.getNumberOfSheets() > 0 ? workbook.getSheetAt(0) : null;
+  }
+
+  private static Workbook createWorkbook(InputStream in) throws IOException {
     if (in == null) {
       throw new InvalidParameterException("No valid input stream specified");
     }
-    this.workbook = WorkbookFactory.create(in);
-    this.formulaEvaluator = workbook.getCreationHelper().createFormulaEvaluator();
-    this.currentSheet = workbook.getSheetAt(0);
+    return WorkbookFactory.create(in);
+  }
+
+  /**
+   * Sets the current sheet. All changes of the current sheet go through this method so subclasses can react to them.
+   * @param sheet the new current sheet, possibly null
+   */
+  protected void setCurrentSheet(Sheet sheet) {
+    this.currentSheet = sheet;
   }
 
   /**
@@ -55,7 +75,7 @@ public void currentSheetIs(String name) {
       throw new InvalidParameterException("No sheet with given name found [" + name + "]");
     }
     
-    this.currentSheet = nextSheet;
+    setCurrentSheet(nextSheet);
   }
 
   /**
@@ -79,7 +99,7 @@ public void findSheet(Pattern sheetNamePattern) throws NotFoundException {
     if (foundSheet == null) {
       throw new NotFoundException("Could not find sheet matching pattern " + sheetNamePattern.toString());
     } else {
-      this.currentSheet = foundSheet;
+      setCurrentSheet(foundSheet);
     }
   }
 
@@ -110,9 +130,9 @@ public void switchToSheet(int i) {
     int n = this.workbook.getNumberOfSheets();
     
     if (i+1 <= n) {
-      this.currentSheet = this.workbook.getSheetAt(i);
+      setCurrentSheet(this.workbook.getSheetAt(i));
     } else {
-      this.currentSheet = null;
+      setCurrentSheet(null);
     }
   }
 
@@ -136,10 +156,6 @@ public List<String> getSheetNameList() {
     return sheetNames;
   }
 
-  public void write(OutputStream out) throws IOException {
-    this.workbook.write(out);
-  }
-
   /**
    * Reads all the notes in the workbook. This will look for a sheet named {@link WorkbookWrapper#NOTES_SHEET_NAME}. It
    * will assume the first row is a title row and read the first non-empty cell of every subsequent row.
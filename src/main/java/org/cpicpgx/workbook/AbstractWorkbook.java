@@ -4,6 +4,8 @@
 import org.apache.commons.lang3.StringUtils;
 import org.apache.poi.common.usermodel.HyperlinkType;
 import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import java.io.IOException;
@@ -16,6 +18,10 @@
 
 /**
  * Shared workbook code that all exported workbooks can use.
+ * <p>
+ * Workbooks that only ever write to the newest row of a sheet can opt in to streaming by passing a row window to the
+ * constructor. Only that many rows per sheet are kept in memory, older rows are flushed to a temp file and can't be
+ * changed once they leave the window.
  *
  * @author Ryan Whaley
  */
@@ -26,11 +32,22 @@ public abstract class AbstractWorkbook {
   public static final String NOTES_SHEET_NAME = "Notes";
   public static final String COL_DEF_SHEET_NAME = "Column Definitions";
   public static final String LOG_FILE_CREATED = "File generated and data compiled";
+  public static final String LOG_FILE_WRITTEN = "File created";
   public static final String METHODS_SHEET_NAME = "Methods";
   public static final Pattern METHODS_SHEET_PATTERN = Pattern.compile("^[Mm]ethods( and [Cc]aveats)?$");
+  /** A row window that suits sheets with tens of thousands of rows */
+  static final int DEFAULT_STREAMING_WINDOW = SXSSFWorkbook.DEFAULT_WINDOW_SIZE;
+  /** the font size of the default workbook font, other fonts are measured relative to it */
+  private static final float DEFAULT_FONT_POINTS = 11f;
+  /** how much wider a bold character is than a regular one */
+  private static final float BOLD_SCALE = 1.1f;
+  /** the widest text the m/d/yy date format will display */
+  private static final String DATE_SAMPLE = "12/31/99";
   private final Workbook workbook;
   private final CreationHelper createHelper;
   private final List<SheetWrapper> sheets = new ArrayList<>();
+  private final Map<Sheet, SheetWrapper> sheetLookup = new IdentityHashMap<>();
+  private final Map<Integer, Float> fontScales = new HashMap<>();
   private final CellStyle dateStyle;
   private final CellStyle centerTextStyle;
   CellStyle leftTextStyle;
@@ -49,7 +66,20 @@ public abstract class AbstractWorkbook {
   int colIdx = 1;
 
   AbstractWorkbook() {
-    workbook = new XSSFWorkbook();
+    this(0);
+  }
+
+  /**
+   * @param streamingWindow the number of rows per sheet to keep in memory, 0 to keep the whole workbook in memory
+   */
+  AbstractWorkbook(int streamingWindow) {
+    if (streamingWindow > 0) {
+      SXSSFWorkbook streamingWorkbook = new SXSSFWorkbook(streamingWindow);
+      streamingWorkbook.setCompressTempFiles(true);
+      workbook = streamingWorkbook;
+    } else {
+      workbook = new XSSFWorkbook();
+    }
     createHelper = this.workbook.getCreationHelper();
 
     Font newFont = this.workbook.createFont();
@@ -155,6 +185,13 @@ public List<SheetWrapper> getSheets() {
     return this.sheets;
   }
 
+  /**
+   * Whether rows are streamed to disk as they leave the row window instead of kept in memory
+   */
+  public boolean isStreaming() {
+    return this.workbook instanceof SXSSFWorkbook;
+  }
+
   /**
    * Finds a {@link SheetWrapper} with the given name. If the sheet doesn't exist, it will be created with the given
    * name.
@@ -171,16 +208,44 @@ SheetWrapper findSheet(String name) {
     if (sheet.isPresent()) {
       return sheet.get();
     } else {
-      SheetWrapper sheetWrapper = new SheetWrapper(getWorkbook().createSheet(name), 0);
+      Sheet newSheet = getWorkbook().createSheet(name);
+      SheetWrapper sheetWrapper = new SheetWrapper(newSheet, 0);
       this.sheets.add(sheetWrapper);
+      this.sheetLookup.put(newSheet, sheetWrapper);
       return sheetWrapper;
     }
   }
 
+  /**
+   * Record the text of a cell with the sheet so its column can be sized without POI's autosizing, which has to lay out
+   * the text of every cell in the column
+   */
+  private void measure(Row row, int colIdx, String text, CellStyle style) {
+    SheetWrapper sheetWrapper = this.sheetLookup.get(row.getSheet());
+    if (sheetWrapper != null) {
+      sheetWrapper.measure(colIdx, text, fontScale(style));
+    }
+  }
+
+  /**
+   * The width of a character in the font of the given style relative to the default font. This is calculated once per
+   * font.
+   */
+  private float fontScale(CellStyle style) {
+    return this.fontScales.computeIfAbsent(style.getFontIndex(), (idx) -> {
+      Font font = this.workbook.getFontAt(idx);
+      float scale = font.getFontHeightInPoints() / DEFAULT_FONT_POINTS;
+      return font.getBold() ? scale * BOLD_SCALE : scale;
+    });
+  }
+
   void writeDateCell(Row row, int idx, Date value) {
     Cell nameCell = row.createCell(idx);
     nameCell.setCellStyle(this.dateStyle);
     nameCell.setCellValue(value);
+    if (value != null) {
+      measure(row, idx, DATE_SAMPLE, this.dateStyle);
+    }
   }
 
   void writeStringCell(Row row, int colIdx, String value) {
@@ -203,22 +268,46 @@ void writeTopBorderCell(Row row, int colIdx, String value) {
     writeStringCell(row, colIdx, value, this.topBorderStyle);
   }
 
+  void writeMergedHeaderCell(Row row, int firstCol, int lastCol, String value) {
+    writeMergedCell(row, firstCol, lastCol, value, this.headerStyle);
+  }
+
+  void writeMergedTopBorderCell(Row row, int firstCol, int lastCol, String value) {
+    writeMergedCell(row, firstCol, lastCol, value, this.topBorderStyle);
+  }
+
+  /**
+   * Write text to the first cell of a range of columns in the row and merge the range. The text isn't measured for
+   * column widths since it spreads over all the merged columns, the same way POI's autosizing skipped merged cells.
+   */
+  private void writeMergedCell(Row row, int firstCol, int lastCol, String value, CellStyle style) {
+    Cell cell = row.createCell(firstCol);
+    cell.setCellValue(StringUtils.strip(value));
+    cell.setCellStyle(style);
+    row.getSheet().addMergedRegion(new CellRangeAddress(row.getRowNum(), row.getRowNum(), firstCol, lastCol));
+  }
+
   void writeStringCell(Row row, int colIdx, String value, CellStyle style) {
     Cell nameCell = row.createCell(colIdx);
-    nameCell.setCellValue(StringUtils.strip(value));
+    String text = StringUtils.strip(value);
+    nameCell.setCellValue(text);
     nameCell.setCellStyle(style);
+    measure(row, colIdx, text, style);
   }
 
   void writeNoteCell(Row row, String value) {
     Cell noteCell = row.createCell(0);
-    noteCell.setCellValue(StringUtils.strip(value));
+    String text = StringUtils.strip(value);
+    noteCell.setCellValue(text);
     noteCell.setCellStyle(noteStyle);
+    measure(row, 0, text, noteStyle);
   }
 
   void writeIntegerCell(Row row, int colIdx, int value) {
     Cell cell = row.createCell(colIdx);
     cell.setCellValue(value);
     cell.setCellStyle(this.rightNumberStyle);
+    measure(row, colIdx, String.valueOf(value), this.rightNumberStyle);
   }
 
   private static final BigDecimal sf_exponentThreshold = new BigDecimal("0.0001");
@@ -234,6 +323,7 @@ void write(Row row, int colIdx, BigDecimal value) {
       } else {
         cell.setCellStyle(this.decimalNumberStyle);
       }
+      measure(row, colIdx, value.toString(), cell.getCellStyle());
     }
   }
 
@@ -246,6 +336,7 @@ void writeHighlightCell(Row row, int colIdx, BigDecimal value) {
     cell.setCellStyle(this.highlightDoubleStyle);
     if (value != null) {
       cell.setCellValue(value.toString());
+      measure(row, colIdx, value.toString(), this.highlightDoubleStyle);
     }
   }
 
@@ -255,8 +346,10 @@ void writeLinkCell(Row row, int colIdx, String text, String url) {
     }
     
     Cell nameCell = row.createCell(colIdx);
-    nameCell.setCellValue(StringUtils.strip(text));
+    String strippedText = StringUtils.strip(text);
+    nameCell.setCellValue(strippedText);
     nameCell.setCellStyle(leftTextStyle);
+    measure(row, colIdx, strippedText, leftTextStyle);
     
     Hyperlink link = this.createHelper.createHyperlink(HyperlinkType.URL);
     link.setAddress(url);
@@ -264,12 +357,16 @@ void writeLinkCell(Row row, int colIdx, String text, String url) {
   }
 
   /**
-   * Wrapper around the default POI write method
+   * Wrapper around the default POI write method. A streaming workbook can only be written once, its temp files are
+   * removed after writing.
    * @param out an initialized {@link OutputStream}
    * @throws IOException can occur when writing the workbook
    */
   public void write(OutputStream out) throws IOException {
     getWorkbook().write(out);
+    if (isStreaming()) {
+      ((SXSSFWorkbook)getWorkbook()).dispose();
+    }
   }
 
   /**
@@ -13,7 +13,7 @@ public class AlleleSummaryWorkbook extends AbstractWorkbook {
   private final SheetWrapper sheet;
 
   public AlleleSummaryWorkbook() {
-    super();
+    super(DEFAULT_STREAMING_WINDOW);
     this.sheet = findSheet(SHEET_NAME);
     this.sheet.setColCount(4);
 
@@ -14,7 +14,7 @@ public class DiplotypeWorkbook extends AbstractWorkbook {
   private final SheetWrapper dataSheet;
 
   public DiplotypeWorkbook(String gene) {
-    super();
+    super(DEFAULT_STREAMING_WINDOW);
     this.gene = gene;
     
     this.dataSheet = findSheet(SHEET_NAME);
@@ -2,7 +2,6 @@
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.util.CellRangeAddress;
 import org.cpicpgx.db.LookupMethod;
 
 import java.math.BigDecimal;
@@ -111,11 +110,10 @@ public void writePopulation(String[] authors, Integer year, String pmid, String
 
   public void writeEthnicityHeader(String ethnicity, int numAlleles) {
     Row row = sheetReferences.nextRow();
-    writeTopBorderCell(row, 0, ethnicity);
+    writeMergedTopBorderCell(row, 0, REFERENCE_POP_HEADER_COL_COUNT + numAlleles, ethnicity);
     for (int i = 1; i < REFERENCE_POP_HEADER_COL_COUNT + numAlleles; i++) {
       writeTopBorderCell(row, i, "");
     }
-    sheetReferences.sheet.addMergedRegion(new CellRangeAddress(row.getRowNum(), row.getRowNum(), 0, REFERENCE_POP_HEADER_COL_COUNT + numAlleles));
   }
 
   public void startPopulationSummary() {
@@ -160,8 +158,7 @@ public void writeReferencePopulationSummary(BigDecimal freq) {
   public void writeAlleleFrequencyHeader(List<String> bioGeoGroups) {
     sheetAllele = findSheet(SHEET_NAME_ALLELE);
     Row header = sheetAllele.nextRow();
-    writeHeaderCell(header, 0, String.format(TITLE_TEMPLATE, geneSymbol));
-    sheetAllele.sheet.addMergedRegion(new CellRangeAddress(0, 0, 0, bioGeoGroups.size()));
+    writeMergedHeaderCell(header, 0, bioGeoGroups.size(), String.format(TITLE_TEMPLATE, geneSymbol));
 
     header = sheetAllele.nextRow();
     writeHeaderCell(header, 0, String.format(GENE_CELL_TEMPLATE, geneSymbol));
@@ -194,8 +191,7 @@ public void writeAlleleFrequency(String allele, BigDecimal[] frequencies) {
   public void writeDiplotypeFrequencyHeader(List<String> bioGeoGroups) {
     sheetDiplotype = findSheet(SHEET_DIPLOTYPE);
     Row header = sheetDiplotype.nextRow();
-    writeHeaderCell(header, 0, String.format(TITLE_DIPLO_TEMPLATE, geneSymbol));
-    sheetDiplotype.sheet.addMergedRegion(new CellRangeAddress(0, 0, 0, bioGeoGroups.size()));
+    writeMergedHeaderCell(header, 0, bioGeoGroups.size(), String.format(TITLE_DIPLO_TEMPLATE, geneSymbol));
 
     header = sheetDiplotype.nextRow();
     writeHeaderCell(header, 0, String.format(GENE_CELL_TEMPLATE, geneSymbol));
@@ -223,8 +219,7 @@ public void writeDiplotypeFrequency(String diplotype, BigDecimal[] frequencies)
   public void writePhenotypeFrequencyHeader(List<String> bioGeoGroups) {
     sheetPhenotype = findSheet(SHEET_PHENOTYPE);
     Row header = sheetPhenotype.nextRow();
-    writeHeaderCell(header, 0, String.format(TITLE_PHENO_TEMPLATE, geneSymbol));
-    sheetPhenotype.sheet.addMergedRegion(new CellRangeAddress(0, 0, 0, bioGeoGroups.size()));
+    writeMergedHeaderCell(header, 0, bioGeoGroups.size(), String.format(TITLE_PHENO_TEMPLATE, geneSymbol));
 
     header = sheetPhenotype.nextRow();
     writeHeaderCell(header, 0, byActivityScore ? "Activity Score" : "Phenotype");
@@ -3,16 +3,24 @@
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 
+import java.util.Arrays;
+
 /**
  * Wrapper class to track state while writing to an Excel sheet
  *
  * @author Ryan Whaley
  */
 public class SheetWrapper {
+  /** the most a column can be in 1/256's of a character, this is the Excel limit */
+  private static final int MAX_WIDTH = 255 * 256;
+  /** extra space, in characters, so text doesn't touch the cell border */
+  private static final float PADDING = 1.5f;
+
   public Sheet sheet;
   private Integer[] widths;
   private int colCount;
   private int rowIdx = 0;
+  private float[] measuredWidths = new float[0];
 
   public SheetWrapper(Sheet sheet, int colCount) {
     this.sheet = sheet;
@@ -49,20 +57,57 @@ Row nextRow() {
   }
 
   /**
-   * Automatically set the width of the columns to display the contents or follow the widths specified in setWidths
+   * Record the text written to a cell so the column can be sized to fit it later. Only the longest line of the text is
+   * measured.
+   * @param colIdx the column the text was written to
+   * @param text the text written to the cell
+   * @param fontScale the width of a character in the cell's font relative to the default font
+   */
+  void measure(int colIdx, String text, float fontScale) {
+    if (text == null || text.isEmpty()) return;
+
+    int longestLine = 0;
+    int lineStart = 0;
+    for (int i = 0; i <= text.length(); i++) {
+      if (i == text.length() || text.charAt(i) == '\n') {
+        longestLine = Math.max(longestLine, i - lineStart);
+        lineStart = i + 1;
+      }
+    }
+
+    if (colIdx >= measuredWidths.length) {
+      measuredWidths = Arrays.copyOf(measuredWidths, Math.max(colIdx + 1, measuredWidths.length * 2));
+    }
+    measuredWidths[colIdx] = Math.max(measuredWidths[colIdx], longestLine * fontScale);
+  }
+
+  /**
+   * Get the width the column needs to fit the text measured for it, in the same units as POI
+   * @param colIdx the column index
+   * @return a width in 1/256's of a character or null if nothing was written to the column
+   */
+  Integer getMeasuredWidth(int colIdx) {
+    if (colIdx >= measuredWidths.length || measuredWidths[colIdx] == 0) {
+      return null;
+    }
+    return Math.min(MAX_WIDTH, Math.round((measuredWidths[colIdx] + PADDING) * 256));
+  }
+
+  /**
+   * Set the width of the columns to display the contents or follow the widths specified in setWidths. Contents are
+   * sized from the text measured as cells were written so this doesn't need to go back through the rows.
    */
   public void autosizeColumns() {
-    if (widths == null) {
-      for (int i = 0; i < this.colCount; i++) {
-        sheet.autoSizeColumn(i);
+    for (int i = 0; i < this.colCount; i++) {
+      Integer width = null;
+      if (widths != null && widths.length > i) {
+        width = widths[i];
+      }
+      if (width == null) {
+        width = getMeasuredWidth(i);
       }
-    } else {
-      for (int i = 0; i < this.colCount; i++) {
-        if (widths.length > i && widths[i] != null) {
-          sheet.setColumnWidth(i, widths[i]);
-        } else {
-          sheet.autoSizeColumn(i);
-        }
+      if (width != null) {
+        sheet.setColumnWidth(i, width);
       }
     }
   }
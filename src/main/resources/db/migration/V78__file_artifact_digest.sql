@@ -0,0 +1,3 @@
+-- keep a digest of the last uploaded version of each file so uploads of unchanged files can be skipped
+alter table file_artifact add column digest text;
+COMMENT ON COLUMN file_artifact.digest IS 'The SHA-256 digest (hex) of the last uploaded version of this file, optional';
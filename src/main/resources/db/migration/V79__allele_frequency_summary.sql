@@ -0,0 +1,79 @@
+-- keep the allele_frequency aggregates by allele and population group in a table so reads don't regroup every row
+create table allele_frequency_summary (
+    alleleid integer not null references allele(id) on delete cascade,
+    population_group text not null,
+    subjectcount bigint,
+    freq_weighted_avg numeric,
+    freq_avg numeric,
+    freq_max numeric,
+    freq_min numeric,
+
+    primary key (alleleid, population_group)
+);
+comment on table allele_frequency_summary is 'A summary of allele_frequency by allele and major population group, refreshed by gene with refresh_allele_frequency_summary';
+comment on column allele_frequency_summary.alleleid is 'The ID of the allele, required';
+comment on column allele_frequency_summary.population_group is 'The major grouping of population (the ethnicity of the population), required';
+comment on column allele_frequency_summary.subjectcount is 'The count of subjects in all populations of the group';
+comment on column allele_frequency_summary.freq_weighted_avg is 'The frequency averaged over populations with a frequency, weighted by their subjects';
+comment on column allele_frequency_summary.freq_avg is 'The unweighted average frequency (use with caution)';
+comment on column allele_frequency_summary.freq_max is 'The maximum frequency observed';
+comment on column allele_frequency_summary.freq_min is 'The minimum frequency observed';
+
+
+-- only rows whose aggregates changed are written so a refresh over unchanged data writes nothing
+create or replace function refresh_allele_frequency_summary(genes text[]) returns void as
+$$
+with fresh as (
+    select
+        f.alleleid,
+        p.ethnicity as population_group,
+        sum(p.subjectcount) as subjectcount,
+        sum(p.subjectcount::numeric * f.frequency) filter (where f.frequency is not null) /
+            nullif(sum(p.subjectcount) filter (where f.frequency is not null), 0)::numeric as freq_weighted_avg,
+        avg(f.frequency) as freq_avg,
+        max(f.frequency) as freq_max,
+        min(f.frequency) as freq_min
+    from allele_frequency f
+        join allele a on f.alleleid = a.id
+        join population p on f.population = p.id
+    where a.genesymbol = any(genes)
+    group by f.alleleid, p.ethnicity
+), upserted as (
+    insert into allele_frequency_summary(alleleid, population_group, subjectcount, freq_weighted_avg, freq_avg, freq_max, freq_min)
+    select alleleid, population_group, subjectcount, freq_weighted_avg, freq_avg, freq_max, freq_min from fresh
+    on conflict (alleleid, population_group) do update set
+        subjectcount=excluded.subjectcount,
+        freq_weighted_avg=excluded.freq_weighted_avg,
+        freq_avg=excluded.freq_avg,
+        freq_max=excluded.freq_max,
+        freq_min=excluded.freq_min
+    where (allele_frequency_summary.subjectcount, allele_frequency_summary.freq_weighted_avg,
+           allele_frequency_summary.freq_avg, allele_frequency_summary.freq_max, allele_frequency_summary.freq_min)
+        is distinct from
+          (excluded.subjectcount, excluded.freq_weighted_avg, excluded.freq_avg, excluded.freq_max, excluded.freq_min)
+)
+delete from allele_frequency_summary s using allele a
+where s.alleleid = a.id and a.genesymbol = any(genes)
+  and not exists (select 1 from fresh x where x.alleleid = s.alleleid and x.population_group = s.population_group);
+$$ language sql volatile;
+comment on function refresh_allele_frequency_summary(genes text[]) is 'Brings allele_frequency_summary up to date for the alleles of the given genes, only changed rows are written, call this after writing to allele_frequency';
+
+select refresh_allele_frequency_summary(array(select distinct genesymbol from allele));
+
+
+-- read the view from the summary, the weighted average still comes from the calculated allele frequency
+CREATE OR REPLACE VIEW population_frequency_view AS
+select a.genesymbol,
+       a.name,
+       s.population_group,
+       s.subjectcount,
+       case
+           when jsonb_typeof(a.frequency -> s.population_group) = 'null' then null
+           else (a.frequency ->> s.population_group)::numeric
+           end freq_weighted_avg,
+       s.freq_avg,
+       s.freq_max,
+       s.freq_min
+from allele_frequency_summary s
+    join allele a on s.alleleid = a.id
+where a.frequency -> s.population_group is not null;
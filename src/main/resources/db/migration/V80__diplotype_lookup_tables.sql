@@ -0,0 +1,31 @@
+-- precomputed answers of recommendation_lookup and test_alert_lookup for every single-gene diplotype, rebuilt in bulk
+-- after recommendations and test alerts are imported
+create table diplotype_recommendation (
+    genesymbol text not null,
+    diplotype text not null,
+    drugname text not null,
+    population text,
+    recommendationid integer not null references recommendation(id) on delete cascade
+);
+create index diplotype_recommendation_lookup on diplotype_recommendation(genesymbol, diplotype);
+comment on table diplotype_recommendation is 'The recommendations that recommendation_lookup gives for each diplotype of a gene, rebuilt after recommendations are imported';
+comment on column diplotype_recommendation.genesymbol is 'The HGNC symbol of the gene, required';
+comment on column diplotype_recommendation.diplotype is 'A diplotype for the gene in the form Allele1/Allele2, required';
+comment on column diplotype_recommendation.drugname is 'The name of the drug the recommendation is for, required';
+comment on column diplotype_recommendation.population is 'The population the recommendation is for';
+comment on column diplotype_recommendation.recommendationid is 'The ID of the recommendation, required';
+
+create table diplotype_test_alert (
+    genesymbol text not null,
+    diplotype text not null,
+    drugname text not null,
+    population text,
+    testalertid integer not null references test_alert(id) on delete cascade
+);
+create index diplotype_test_alert_lookup on diplotype_test_alert(genesymbol, diplotype);
+comment on table diplotype_test_alert is 'The test alerts that test_alert_lookup gives for each diplotype of a gene, rebuilt after test alerts are imported';
+comment on column diplotype_test_alert.genesymbol is 'The HGNC symbol of the gene, required';
+comment on column diplotype_test_alert.diplotype is 'A diplotype for the gene in the form Allele1/Allele2, required';
+comment on column diplotype_test_alert.drugname is 'The name of the drug the test alert is for, required';
+comment on column diplotype_test_alert.population is 'The population the test alert is for';
+comment on column diplotype_test_alert.testalertid is 'The ID of the test alert, required';
@@ -0,0 +1,63 @@
+package org.cpicpgx;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrequencyModelTest {
+
+  @Test
+  void testCalculate() {
+    FrequencyModel model = new FrequencyModel(List.of("African", "European"));
+    model.setAlleleFrequency("*1", "African", 0.5f);
+    model.setAlleleFrequency("*1", "European", 0.75f);
+    model.setAlleleFrequency("*2", "African", 0.25f);
+    model.setAlleleFrequency("*2", "Unknown", 0.1f);
+
+    int normal = model.addPhenotype(100);
+    int intermediate = model.addPhenotype(200);
+    int empty = model.addPhenotype(300);
+    model.addDiplotype(1, normal, "*1", null);
+    model.addDiplotype(2, intermediate, "*1", "*2");
+    model.addDiplotype(3, intermediate, "*2", "*3");
+    model.calculate();
+
+    assertEquals(0.25f, model.getDiplotypeFrequency(0, 0));
+    assertEquals(0.5625f, model.getDiplotypeFrequency(0, 1));
+    assertEquals(0.25f, model.getDiplotypeFrequency(1, 0));
+    assertTrue(Float.isNaN(model.getDiplotypeFrequency(1, 1)));
+    assertTrue(Float.isNaN(model.getDiplotypeFrequency(2, 0)));
+
+    assertEquals(0.25f, model.getPhenotypeFrequency(intermediate, 0));
+    assertEquals(0f, model.getPhenotypeFrequency(intermediate, 1));
+    assertEquals(0f, model.getPhenotypeFrequency(empty, 0));
+
+    assertEquals("{\"African\":0.25,\"European\":0.5625}", model.diplotypeFrequencyJson(0));
+    assertEquals("{\"African\":0.25,\"European\":null}", model.diplotypeFrequencyJson(1));
+    assertEquals("{\"African\":0.0,\"European\":0.0}", model.phenotypeFrequencyJson(empty));
+    assertEquals(300, model.getPhenotypeId(empty));
+  }
+
+  @Test
+  void testManyAlleles() {
+    FrequencyModel model = new FrequencyModel(List.of("European"));
+    int phenotype = model.addPhenotype(1);
+    for (int i = 0; i < 100; i++) {
+      model.setAlleleFrequency("*" + i, "European", 0.01f);
+      model.addDiplotype(i, phenotype, "*" + i, null);
+    }
+    model.calculate();
+
+    assertEquals(100, model.getDiplotypeCount());
+    assertEquals(0.01f, model.getAlleleFrequency("*99", "European"));
+    assertEquals(0.0001f * 100, model.getPhenotypeFrequency(phenotype, 0), 0.000001f);
+  }
+
+  @Test
+  void testNotCalculated() {
+    FrequencyModel model = new FrequencyModel(List.of("European"));
+    assertThrows(IllegalStateException.class, () -> model.diplotypeFrequencyJson(0));
+  }
+}
@@ -0,0 +1,84 @@
+package org.cpicpgx;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImportSchedulerTest {
+
+  @Test
+  void testDependencies() {
+    ImportScheduler scheduler = new ImportScheduler(2);
+    scheduler.add("gene", () -> {}, new String[]{}, new String[]{"gene"});
+    scheduler.add("drug", () -> {}, new String[]{}, new String[]{"drug"});
+    scheduler.add("allele", () -> {}, new String[]{"gene"}, new String[]{"allele"});
+    scheduler.add("frequency", () -> {}, new String[]{"allele"}, new String[]{"allele_frequency"});
+
+    assertEquals(Set.of(), scheduler.getDependencies("gene"));
+    assertEquals(Set.of(), scheduler.getDependencies("drug"));
+    assertEquals(new TreeSet<>(Set.of("gene")), scheduler.getDependencies("allele"));
+    assertEquals(new TreeSet<>(Set.of("allele")), scheduler.getDependencies("frequency"));
+  }
+
+  @Test
+  void testSharedProvides() {
+    ImportScheduler scheduler = new ImportScheduler(2);
+    scheduler.add("phenotype", () -> {}, new String[]{}, new String[]{"gene_result"});
+    scheduler.add("cds", () -> {}, new String[]{}, new String[]{"gene_result"});
+    scheduler.add("drug", () -> {}, new String[]{}, new String[]{"drug"});
+
+    // writes the same table so has to wait even though it doesn't require it
+    assertEquals(new TreeSet<>(Set.of("phenotype")), scheduler.getDependencies("cds"));
+    assertEquals(Set.of(), scheduler.getDependencies("drug"));
+  }
+
+  @Test
+  void testRunOrder() throws Exception {
+    List<String> finished = Collections.synchronizedList(new ArrayList<>());
+    ImportScheduler scheduler = new ImportScheduler(4);
+    scheduler.add("gene", () -> {
+      Thread.sleep(50);
+      finished.add("gene");
+    }, new String[]{}, new String[]{"gene"});
+    scheduler.add("drug", () -> finished.add("drug"), new String[]{}, new String[]{"drug"});
+    scheduler.add("allele", () -> finished.add("allele"), new String[]{"gene"}, new String[]{"allele"});
+    scheduler.run();
+
+    assertEquals(3, finished.size());
+    assertTrue(finished.indexOf("gene") < finished.indexOf("allele"));
+    // drug doesn't wait on the slow gene stage
+    assertEquals("drug", finished.get(0));
+  }
+
+  @Test
+  void testFailure() {
+    List<String> finished = Collections.synchronizedList(new ArrayList<>());
+    ImportScheduler scheduler = new ImportScheduler(1);
+    scheduler.add("gene", () -> {
+      throw new IllegalStateException("bad gene");
+    }, new String[]{}, new String[]{"gene"});
+    scheduler.add("allele", () -> finished.add("allele"), new String[]{"gene"}, new String[]{"allele"});
+
+    Exception ex = assertThrows(IllegalStateException.class, scheduler::run);
+    assertEquals("bad gene", ex.getMessage());
+    assertTrue(finished.isEmpty());
+  }
+
+  @Test
+  void testStageListener() throws Exception {
+    List<String> events = Collections.synchronizedList(new ArrayList<>());
+    ImportScheduler scheduler = new ImportScheduler(2);
+    scheduler.setStageListener((name, provides) -> events.add("finished " + name + " " + provides));
+    scheduler.add("gene", () -> events.add("gene"), new String[]{}, new String[]{"gene"});
+    scheduler.add("allele", () -> events.add("allele"), new String[]{"gene"}, new String[]{"allele"});
+    scheduler.run();
+
+    assertEquals(List.of("gene", "finished gene [gene]", "allele", "finished allele [allele]"), events);
+  }
+}
@@ -1,8 +1,9 @@
 package org.cpicpgx.db;
 
+import com.zaxxer.hikari.HikariConfig;
 import org.junit.jupiter.api.Test;
 
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * Quick check to make sure environment variables are being translated to DB connection string
@@ -16,4 +17,12 @@ public void testMakeJdbcUrl() {
     assertNotNull(ConnectionFactory.getJdbcUrl());
     assertNotNull(ConnectionFactory.getUser());
   }
+
+  @Test
+  public void testPoolConfig() {
+    HikariConfig config = ConnectionFactory.makePoolConfig();
+    assertEquals(ConnectionFactory.getJdbcUrl(), config.getJdbcUrl());
+    assertTrue(config.getMaximumPoolSize() >= 1);
+    assertNotNull(config.getConnectionInitSql());
+  }
 }
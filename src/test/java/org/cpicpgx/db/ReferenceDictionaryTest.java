@@ -0,0 +1,65 @@
+package org.cpicpgx.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReferenceDictionaryTest {
+
+  @Test
+  void testLookups() throws Exception {
+    AtomicInteger loads = new AtomicInteger();
+    ReferenceDictionary dictionary = new ReferenceDictionary(() -> {
+      loads.incrementAndGet();
+      ReferenceDictionary.Entries entries = new ReferenceDictionary.Entries();
+      entries.addDrug("Clopidogrel", "RxNorm:32968");
+      entries.addGene("CYP2C19");
+      entries.addGuideline("https://cpicpgx.org/guidelines/guideline-for-clopidogrel-and-cyp2c19/", 100);
+      entries.addGeneResult("CYP2C19", "Poor Metabolizer", null);
+      entries.addGeneResult("CYP2D6", "Normal Metabolizer", "2.0");
+      return entries;
+    });
+
+    assertEquals("RxNorm:32968", dictionary.lookupDrug(" clopidogrel "));
+    assertNull(dictionary.lookupDrug("warfarin"));
+    assertTrue(dictionary.hasGene("CYP2C19"));
+    assertFalse(dictionary.hasGene("CYP2D6"));
+    assertEquals(100, dictionary.lookupGuideline("https://cpicpgx.org/guidelines/guideline-for-clopidogrel-and-cyp2c19/"));
+    assertEquals("Poor Metabolizer", dictionary.lookupPhenotype("CYP2C19", "poor metabolizer"));
+    // phenotypes are per gene
+    assertNull(dictionary.lookupPhenotype("CYP2D6", "Poor Metabolizer"));
+    assertEquals("2.0", dictionary.lookupActivityScore("CYP2D6", "2.0"));
+    assertNull(dictionary.lookupActivityScore("CYP2C19", "2.0"));
+    assertEquals(1, loads.get());
+
+    dictionary.invalidate();
+    assertTrue(dictionary.hasGene("CYP2C19"));
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  void testInvalidateDuringLoad() throws Exception {
+    AtomicInteger loads = new AtomicInteger();
+    AtomicReference<ReferenceDictionary> dictionaryRef = new AtomicReference<>();
+    ReferenceDictionary dictionary = new ReferenceDictionary(() -> {
+      ReferenceDictionary.Entries entries = new ReferenceDictionary.Entries();
+      if (loads.incrementAndGet() == 1) {
+        // the data changes while the first load is running
+        dictionaryRef.get().invalidate();
+      } else {
+        entries.addGene("CYP2C19");
+      }
+      return entries;
+    });
+    dictionaryRef.set(dictionary);
+
+    // the stale load still answers the lookup that started it but isn't kept
+    assertFalse(dictionary.hasGene("CYP2C19"));
+    assertTrue(dictionary.hasGene("CYP2C19"));
+    assertTrue(dictionary.hasGene("CYP2C19"));
+    assertEquals(2, loads.get());
+  }
+}
@@ -0,0 +1,45 @@
+package org.cpicpgx.exporter;
+
+import org.cpicpgx.workbook.DiplotypeWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DelimitedFileWriterTest {
+
+  @Test
+  void testParseList() {
+    assertEquals(EnumSet.of(OutputFormat.XLSX), OutputFormat.parseList(null));
+    assertEquals(EnumSet.of(OutputFormat.XLSX, OutputFormat.TSV), OutputFormat.parseList("tsv, XLSX"));
+    assertThrows(IllegalArgumentException.class, () -> OutputFormat.parseList("parquet"));
+  }
+
+  @Test
+  void testWrite(@TempDir Path dir) throws Exception {
+    DiplotypeWorkbook workbook = new DiplotypeWorkbook("CYP2C19");
+    workbook.writeDiplotype("*1/*2", "Intermediate Metabolizer", "Abnormal/Priority/High Risk", "n/a");
+    workbook.writeDiplotype("*1/*17", "Rapid Metabolizer, \"RM\"", "Abnormal/Priority/High Risk", "n/a");
+    Path xlsx = dir.resolve(workbook.getFilename());
+    try (OutputStream out = Files.newOutputStream(xlsx)) {
+      workbook.write(out);
+    }
+
+    List<Path> files = new DelimitedFileWriter(OutputFormat.CSV).write(xlsx, dir, "CYP2C19_Diplotype_Phenotype_Table");
+    assertEquals(1, files.size());
+    assertEquals("CYP2C19_Diplotype_Phenotype_Table-Diplotypes.csv", files.get(0).getFileName().toString());
+    assertEquals(List.of(
+        "CYP2C19 Diplotype,Activity Score,Coded Diplotype/Phenotype Summary,EHR Priority Notation",
+        "*1/*2,n/a,Intermediate Metabolizer,Abnormal/Priority/High Risk",
+        "*1/*17,n/a,\"Rapid Metabolizer, \"\"RM\"\"\",Abnormal/Priority/High Risk"
+    ), Files.readAllLines(files.get(0)));
+
+    assertThrows(IllegalArgumentException.class, () -> new DelimitedFileWriter(OutputFormat.XLSX));
+  }
+}
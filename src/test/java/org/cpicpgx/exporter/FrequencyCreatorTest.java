@@ -0,0 +1,44 @@
+package org.cpicpgx.exporter;
+
+import com.google.gson.stream.JsonReader;
+import org.cpicpgx.model.AlleleDistribution;
+import org.cpicpgx.model.GnomadPopulation;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrequencyCreatorTest {
+
+  @Test
+  void testParseFrequencies() throws Exception {
+    String response = "{\"status\":\"success\",\"data\":{\"id\":\"rs123\",\"populations\":[" +
+        "{\"bases\":[{\"base\":\"C\",\"freq\":0.75,\"size\":300},{\"base\":\"T\",\"freq\":0.25,\"size\":100}],\"population\":\"AFR\"}," +
+        "{\"population\":\"EAS\",\"bases\":[{\"base\":\"C\",\"freq\":1.0,\"size\":200}]}" +
+        "]}}";
+    AlleleDistribution star2 = new AlleleDistribution("CYP2C19", "*2");
+    AlleleDistribution star3 = new AlleleDistribution("CYP2C19", "*3");
+
+    assertTrue(FrequencyCreator.parseFrequencies(new JsonReader(new StringReader(response)),
+        List.of(star2, star3), List.of("T", "C")));
+
+    assertEquals(new BigDecimal("0.25"), star2.getFreq(GnomadPopulation.AFR));
+    assertEquals(new BigDecimal("0.75"), star3.getFreq(GnomadPopulation.AFR));
+    assertEquals(400, star2.getSize(GnomadPopulation.AFR));
+    // no record of the variant base means a frequency of 0
+    assertEquals(BigDecimal.ZERO, star2.getFreq(GnomadPopulation.EAS));
+    assertEquals(200, star3.getSize(GnomadPopulation.EAS));
+    assertNull(star2.getFreq(GnomadPopulation.NFE));
+  }
+
+  @Test
+  void testParseNoData() throws Exception {
+    AlleleDistribution star2 = new AlleleDistribution("CYP2C19", "*2");
+    assertFalse(FrequencyCreator.parseFrequencies(new JsonReader(new StringReader("{\"status\":\"success\",\"data\":null}")),
+        List.of(star2), List.of("T")));
+    assertFalse(FrequencyCreator.parseFrequencies(new JsonReader(new StringReader("")), List.of(star2), List.of("T")));
+  }
+}
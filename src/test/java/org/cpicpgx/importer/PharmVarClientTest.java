@@ -0,0 +1,78 @@
+package org.cpicpgx.importer;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.cpicpgx.exception.NotFoundException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PharmVarClientTest {
+  private MockWebServer server;
+  private final AtomicInteger unavailableCount = new AtomicInteger();
+
+  @BeforeEach
+  void startServer() throws Exception {
+    server = new MockWebServer();
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) {
+        if (!"key".equals(request.getHeader("Api-Key"))) {
+          return new MockResponse().setResponseCode(401);
+        }
+        switch (request.getPath()) {
+          case "/genes/list":
+            return new MockResponse().setBody("[\"CYP2C9\",\"CYP2D6\"]");
+          case "/alleles/CYP2D6*1/pvid":
+            return new MockResponse().setBody("[\"PV00001\"]");
+          case "/alleles/CYP2D6*2.001/pvid":
+            return new MockResponse().setBody("[\"PV00002\"]");
+          case "/alleles/CYP2C9*3/pvid":
+            // fail the first time to check the retry
+            if (unavailableCount.getAndIncrement() == 0) {
+              return new MockResponse().setResponseCode(503).setHeader("Retry-After", "0");
+            }
+            return new MockResponse().setBody("[\"PV00003\"]");
+          default:
+            return new MockResponse().setResponseCode(404);
+        }
+      }
+    });
+    server.start();
+  }
+
+  @AfterEach
+  void stopServer() throws Exception {
+    server.shutdown();
+  }
+
+  private PharmVarClient newClient() {
+    String url = server.url("/").toString();
+    return new PharmVarClient(url.substring(0, url.length() - 1), "key", 4, 100);
+  }
+
+  @Test
+  void testRequests() throws Exception {
+    try (PharmVarClient client = newClient()) {
+      assertArrayEquals(new String[]{"CYP2C9", "CYP2D6"}, client.requestGenes());
+
+      assertArrayEquals(new String[]{"PV00001"}, client.submitPvidRequest("CYP2D6", "*1").get());
+      // falls back to the .001 suffix
+      assertArrayEquals(new String[]{"PV00002"}, client.submitPvidRequest("CYP2D6", "*2").get());
+      // retried after a 503
+      assertArrayEquals(new String[]{"PV00003"}, client.submitPvidRequest("CYP2C9", "*3").get());
+      assertEquals(2, unavailableCount.get());
+
+      ExecutionException ex = assertThrows(ExecutionException.class,
+          () -> client.submitPvidRequest("CYP2D6", "*4x2").get());
+      assertInstanceOf(NotFoundException.class, ex.getCause());
+    }
+  }
+}
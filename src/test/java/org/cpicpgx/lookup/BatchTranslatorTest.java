@@ -0,0 +1,109 @@
+package org.cpicpgx.lookup;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchTranslatorTest {
+  private RecommendationLookupEngine m_engine;
+
+  @BeforeEach
+  void setup() {
+    DiplotypeIndex diplotypes = new DiplotypeIndex();
+    diplotypes.add(json("{\"CYP2C19\": {\"*1\": 1, \"*2\": 1}}"), json("{\"CYP2C19\": \"Intermediate Metabolizer\"}"));
+    diplotypes.add(json("{\"CYP2C19\": {\"*2\": 2}}"), json("{\"CYP2C19\": \"Poor Metabolizer\"}"));
+    diplotypes.add(json("{\"CYP2D6\": {\"*1\": 1, \"*4\": 1}}"), json("{\"CYP2D6\": \"1.0\"}"));
+
+    LookupKeyIndex<Recommendation> recommendations = new LookupKeyIndex<>();
+    addRecommendation(recommendations, 1, "{\"CYP2C19\": \"Intermediate Metabolizer\"}", "clopidogrel");
+    addRecommendation(recommendations, 2, "{\"CYP2C19\": \"Poor Metabolizer\"}", "clopidogrel");
+    addRecommendation(recommendations, 3, "{\"CYP2D6\": \"1.0\"}", "codeine");
+
+    LookupKeyIndex<TestAlert> testAlerts = new LookupKeyIndex<>();
+    TestAlert testAlert = new TestAlert(4, json("{\"CYP2C19\": \"Poor Metabolizer\"}"), "clopidogrel", "general",
+        List.of("Consider an alternative"), "Post-test");
+    testAlerts.add(testAlert.getLookupKey(), testAlert);
+
+    m_engine = new RecommendationLookupEngine(diplotypes, recommendations, testAlerts);
+  }
+
+  @Test
+  void testParseDiplotype() {
+    assertEquals(json("{\"*1\": 1, \"*4\": 1}"), BatchTranslator.parseDiplotype("*1/*4"));
+    assertEquals(json("{\"*4\": 2}"), BatchTranslator.parseDiplotype(" *4 / *4 "));
+    assertEquals(json("{\"B\": 1}"), BatchTranslator.parseDiplotype("B"));
+    assertNull(BatchTranslator.parseDiplotype(" "));
+    assertThrows(IllegalArgumentException.class, () -> BatchTranslator.parseDiplotype("*1/*2/*3"));
+    assertThrows(IllegalArgumentException.class, () -> BatchTranslator.parseDiplotype("*1/"));
+    assertThrows(IllegalArgumentException.class, () -> BatchTranslator.parseDiplotype("/*1"));
+    assertThrows(IllegalArgumentException.class, () -> BatchTranslator.parseDiplotype("*1/ "));
+  }
+
+  @Test
+  void testTranslateJson() throws Exception {
+    StringBuilder input = new StringBuilder("patient\tCYP2C19\tCYP2D6\n");
+    // more than one chunk so results have to be put back in order
+    int patients = BatchTranslator.CHUNK_SIZE * 3 + 1;
+    for (int i = 0; i < patients; i++) {
+      input.append("p").append(i).append(i % 2 == 0 ? "\t*2/*2\t\n" : "\t*1/*2\t*1/*4\n");
+    }
+    // wrong number of columns, bad diplotypes and no matching diplotypes
+    input.append("bad\t*1/*2\n");
+    input.append("bad\t*1/*2/*3\t\n");
+    input.append("bad\t*2/\t\n");
+    input.append("unknown\t*17/*17\t\n");
+
+    BatchTranslator translator = new BatchTranslator(m_engine, BatchTranslator.Format.NDJSON, 4);
+    StringWriter output = new StringWriter();
+    assertEquals(patients + 1, translator.translate(new BufferedReader(new StringReader(input.toString())), output));
+    assertEquals(3, translator.getSkipCount());
+    assertEquals(1, translator.getUnmatchedCount());
+
+    String[] lines = output.toString().split("\n");
+    assertEquals(patients + 1, lines.length);
+    for (int i = 0; i < patients; i++) {
+      JsonObject json = json(lines[i]);
+      assertEquals("p" + i, json.get("patient").getAsString());
+      assertEquals(i % 2 == 0 ? 1 : 2, json.getAsJsonArray("recommendations").size());
+      assertEquals(i % 2 == 0 ? 1 : 0, json.getAsJsonArray("testAlerts").size());
+    }
+    JsonObject unknown = json(lines[patients]);
+    assertFalse(unknown.has("lookupKey"));
+    assertEquals(0, unknown.getAsJsonArray("recommendations").size());
+  }
+
+  @Test
+  void testTranslateTsv() throws Exception {
+    String input = "patient\tCYP2C19\np1\t*2/*2\n\np2\t*1/*2\n";
+    BatchTranslator translator = new BatchTranslator(m_engine, BatchTranslator.Format.TSV, 1);
+    StringWriter output = new StringWriter();
+    assertEquals(2, translator.translate(new BufferedReader(new StringReader(input)), output));
+
+    String[] lines = output.toString().split("\n");
+    assertEquals(4, lines.length);
+    assertTrue(lines[0].startsWith("patient\ttype\tid"));
+    assertTrue(lines[1].startsWith("p1\trecommendation\t2\tclopidogrel\t"));
+    assertTrue(lines[2].startsWith("p1\ttest_alert\t4\tclopidogrel\t"));
+    assertTrue(lines[2].endsWith("\tConsider an alternative"));
+    assertTrue(lines[3].startsWith("p2\trecommendation\t1\t"));
+    assertEquals(3, translator.getRecommendationCount() + translator.getTestAlertCount());
+  }
+
+  private static void addRecommendation(LookupKeyIndex<Recommendation> index, int id, String lookupKey, String drug) {
+    Recommendation recommendation = new Recommendation(id, json(lookupKey), drug, "guideline", "https://cpicpgx.org",
+        null, "Use it", "Strong", null, null, "general", null);
+    index.add(recommendation.getLookupKey(), recommendation);
+  }
+
+  private static JsonObject json(String json) {
+    return JsonParser.parseString(json).getAsJsonObject();
+  }
+}
@@ -0,0 +1,73 @@
+package org.cpicpgx.lookup;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiplotypeLookupTablesTest {
+  private RecommendationLookupEngine m_engine;
+
+  @BeforeEach
+  void setup() {
+    DiplotypeIndex diplotypes = new DiplotypeIndex();
+    diplotypes.add(json("{\"CYP2C19\": {\"*1\": 1, \"*2\": 1}}"), json("{\"CYP2C19\": \"Intermediate Metabolizer\"}"));
+    diplotypes.add(json("{\"CYP2C19\": {\"*2\": 2}}"), json("{\"CYP2C19\": \"Poor Metabolizer\"}"));
+
+    LookupKeyIndex<Recommendation> recommendations = new LookupKeyIndex<>();
+    addRecommendation(recommendations, 1, "{\"CYP2C19\": \"Poor Metabolizer\"}", "clopidogrel");
+    addRecommendation(recommendations, 2, "{\"CYP2C19\": \"Poor Metabolizer\"}", "voriconazole");
+    // needs a second gene so a single diplotype can't match it
+    addRecommendation(recommendations, 3,
+        "{\"CYP2C19\": \"Poor Metabolizer\", \"CYP2D6\": \"1.0\"}", "amitriptyline");
+
+    LookupKeyIndex<TestAlert> testAlerts = new LookupKeyIndex<>();
+    TestAlert testAlert = new TestAlert(4, json("{\"CYP2C19\": \"Poor Metabolizer\"}"), "clopidogrel", "general",
+        List.of("Consider an alternative"), "Post-test");
+    testAlerts.add(testAlert.getLookupKey(), testAlert);
+
+    m_engine = new RecommendationLookupEngine(diplotypes, recommendations, testAlerts);
+  }
+
+  @Test
+  void testRecommendationRows() {
+    List<Object[]> rows = new ArrayList<>();
+    DiplotypeLookupTables.Mapping.RECOMMENDATION.addRows(m_engine, "CYP2C19", "*2/*2",
+        json("{\"CYP2C19\": {\"*2\": 2}}"), rows);
+    assertEquals(2, rows.size());
+    assertArrayEquals(new Object[]{"CYP2C19", "*2/*2", "clopidogrel", "general", 1}, rows.get(0));
+    assertArrayEquals(new Object[]{"CYP2C19", "*2/*2", "voriconazole", "general", 2}, rows.get(1));
+
+    // no recommendation for the phenotype
+    DiplotypeLookupTables.Mapping.RECOMMENDATION.addRows(m_engine, "CYP2C19", "*1/*2",
+        json("{\"CYP2C19\": {\"*1\": 1, \"*2\": 1}}"), rows);
+    // no phenotype for the diplotype
+    DiplotypeLookupTables.Mapping.RECOMMENDATION.addRows(m_engine, "CYP2C19", "*17/*17",
+        json("{\"CYP2C19\": {\"*17\": 2}}"), rows);
+    assertEquals(2, rows.size());
+  }
+
+  @Test
+  void testTestAlertRows() {
+    List<Object[]> rows = new ArrayList<>();
+    DiplotypeLookupTables.Mapping.TEST_ALERT.addRows(m_engine, "CYP2C19", "*2/*2",
+        json("{\"CYP2C19\": {\"*2\": 2}}"), rows);
+    assertEquals(1, rows.size());
+    assertArrayEquals(new Object[]{"CYP2C19", "*2/*2", "clopidogrel", "general", 4}, rows.get(0));
+  }
+
+  private static void addRecommendation(LookupKeyIndex<Recommendation> index, int id, String lookupKey, String drug) {
+    Recommendation recommendation = new Recommendation(id, json(lookupKey), drug, "guideline", "https://cpicpgx.org",
+        null, "Use it", "Strong", null, null, "general", null);
+    index.add(recommendation.getLookupKey(), recommendation);
+  }
+
+  private static JsonObject json(String json) {
+    return JsonParser.parseString(json).getAsJsonObject();
+  }
+}
@@ -0,0 +1,109 @@
+package org.cpicpgx.lookup;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecommendationLookupEngineTest {
+  private RecommendationLookupEngine m_engine;
+
+  @BeforeEach
+  void setup() {
+    DiplotypeIndex diplotypes = new DiplotypeIndex();
+    diplotypes.add(json("{\"CYP2C19\": {\"*1\": 1, \"*2\": 1}}"), json("{\"CYP2C19\": \"Intermediate Metabolizer\"}"));
+    diplotypes.add(json("{\"CYP2C19\": {\"*2\": 2}}"), json("{\"CYP2C19\": \"Poor Metabolizer\"}"));
+    diplotypes.add(json("{\"CYP2D6\": {\"*1\": 1, \"*4\": 1}}"), json("{\"CYP2D6\": \"1.0\"}"));
+    diplotypes.add(json("{\"G6PD\": {\"B\": 1}}"), json("{\"G6PD\": \"Normal\"}"));
+    diplotypes.add(json("{\"G6PD\": {\"A-\": 1, \"B\": 1}}"), json("{\"G6PD\": \"Variable\"}"));
+
+    LookupKeyIndex<Recommendation> recommendations = new LookupKeyIndex<>();
+    add(recommendations, 3, "{\"CYP2C19\": \"Poor Metabolizer\"}", "clopidogrel");
+    add(recommendations, 1, "{\"CYP2C19\": \"Intermediate Metabolizer\"}", "clopidogrel");
+    add(recommendations, 2, "{\"CYP2C19\": \"Intermediate Metabolizer\"}", "voriconazole");
+    add(recommendations, 4, "{\"CYP2C19\": \"Intermediate Metabolizer\", \"CYP2D6\": \"1.0\"}", "amitriptyline");
+    add(recommendations, 5, "{\"CYP2D6\": \"1.0\"}", "codeine");
+    add(recommendations, 6, "{\"G6PD\": \"Variable\"}", "rasburicase");
+    add(recommendations, 7, "{\"G6PD\": [\"Normal\", \"Variable\"]}", "dapsone");
+
+    LookupKeyIndex<TestAlert> testAlerts = new LookupKeyIndex<>();
+    TestAlert testAlert = new TestAlert(8, json("{\"CYP2C19\": \"Poor Metabolizer\"}"), "clopidogrel", "general",
+        List.of("Consider an alternative"), "Post-test");
+    testAlerts.add(testAlert.getLookupKey(), testAlert);
+
+    m_engine = new RecommendationLookupEngine(diplotypes, recommendations, testAlerts);
+  }
+
+  @Test
+  void testLookup() {
+    assertEquals(List.of(1, 2), ids(m_engine.lookup("{\"CYP2C19\": {\"*2\": 1, \"*1\": 1}}")));
+    assertEquals(List.of(3), ids(m_engine.lookup("{\"CYP2C19\": {\"*2\": 2}}")));
+    // numbers are compared by value like jsonb
+    assertEquals(List.of(3), ids(m_engine.lookup("{\"CYP2C19\": {\"*2\": 2.0}}")));
+    // multi-gene recommendations need all their genes
+    assertEquals(List.of(1, 2, 4, 5),
+        ids(m_engine.lookup("{\"CYP2C19\": {\"*1\": 1, \"*2\": 1}, \"CYP2D6\": {\"*1\": 1, \"*4\": 1}}")));
+    assertEquals(List.of(5), ids(m_engine.lookup("{\"CYP2D6\": {\"*4\": 1, \"*1\": 1}, \"CYP2C9\": {\"*1\": 2}}")));
+  }
+
+  @Test
+  void testTestAlerts() {
+    List<TestAlert> testAlerts = m_engine.lookupTestAlerts(json("{\"CYP2C19\": {\"*2\": 2}}"));
+    assertEquals(1, testAlerts.size());
+    assertEquals(8, testAlerts.get(0).getId());
+    assertTrue(m_engine.lookupTestAlerts(json("{\"CYP2C19\": {\"*1\": 1, \"*2\": 1}}")).isEmpty());
+  }
+
+  @Test
+  void testNoMatch() {
+    assertTrue(m_engine.lookup("{\"CYP2C19\": {\"*1\": 2}}").isEmpty());
+    assertTrue(m_engine.lookup("{\"CYP2C19\": {\"*2\": 1}}").isEmpty());
+    assertTrue(m_engine.lookup("{}").isEmpty());
+    assertNull(m_engine.resolveLookupKey(json("{\"CYP3A5\": {\"*3\": 2}}")));
+  }
+
+  @Test
+  void testLastMatchWins() {
+    // both G6PD keys are contained in the lookup, the one loaded last gives the value
+    JsonObject lookupKey = m_engine.resolveLookupKey(json("{\"G6PD\": {\"B\": 1, \"A-\": 1}}"));
+    assertEquals(json("{\"G6PD\": \"Variable\"}"), lookupKey);
+    assertEquals(List.of(6), ids(m_engine.lookup(json("{\"G6PD\": {\"B\": 1, \"A-\": 1}}"))));
+    assertEquals(json("{\"G6PD\": \"Normal\"}"), m_engine.resolveLookupKey(json("{\"G6PD\": {\"B\": 1}}")));
+  }
+
+  @Test
+  void testDrugFilter() {
+    JsonObject lookup = json("{\"CYP2C19\": {\"*1\": 1, \"*2\": 1}, \"CYP2D6\": {\"*1\": 1, \"*4\": 1}}");
+    assertEquals(List.of(4), ids(m_engine.lookup(lookup, "Amitriptyline")));
+    assertTrue(m_engine.lookup(lookup, "warfarin").isEmpty());
+  }
+
+  @Test
+  void testContains() {
+    assertTrue(Jsonb.contains(json("{\"a\": 1, \"b\": {\"c\": 1.50}}"), json("{\"b\": {\"c\": 1.5}}")));
+    assertTrue(Jsonb.contains(json("{\"a\": [1, 2, 3]}"), json("{\"a\": [3, 1]}")));
+    assertTrue(Jsonb.contains(json("{\"a\": 1}"), json("{}")));
+    assertFalse(Jsonb.contains(json("{\"a\": \"1\"}"), json("{\"a\": 1}")));
+    assertFalse(Jsonb.contains(json("{\"a\": [1]}"), json("{\"a\": 1}")));
+    assertTrue(Jsonb.contains(JsonParser.parseString("[1, 2]"), JsonParser.parseString("2")));
+  }
+
+  private static void add(LookupKeyIndex<Recommendation> index, int id, String lookupKey, String drug) {
+    Recommendation recommendation = new Recommendation(id, json(lookupKey), drug, "guideline", "https://cpicpgx.org",
+        null, null, null, null, null, "general", null);
+    index.add(recommendation.getLookupKey(), recommendation);
+  }
+
+  private static List<Integer> ids(List<Recommendation> recommendations) {
+    return recommendations.stream().map(Recommendation::getId).collect(Collectors.toList());
+  }
+
+  private static JsonObject json(String json) {
+    return JsonParser.parseString(json).getAsJsonObject();
+  }
+}
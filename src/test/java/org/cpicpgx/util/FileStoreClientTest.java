@@ -1,8 +1,16 @@
 package org.cpicpgx.util;
 
+import org.cpicpgx.workbook.DiplotypeWorkbook;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 
 public class FileStoreClientTest {
 
@@ -18,4 +26,37 @@ void testEscapeUrl() {
         "https://files.cpicpgx.org/data/guideline/staging/1643371462/rosuvastatin%20recommendation.xlsx",
         FileStoreClient.escapeUrl("https://files.cpicpgx.org/data/guideline/staging/1643371462/rosuvastatin recommendation.xlsx"));
   }
+
+  @Test
+  void testDigest(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("test.txt");
+    Files.writeString(file, "abc");
+    assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", FileStoreClient.digest(file.toFile()));
+
+    Files.writeString(file, "abcd");
+    assertNotEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", FileStoreClient.digest(file.toFile()));
+  }
+
+  @Test
+  void testWorkbookDigest(@TempDir Path dir) throws Exception {
+    Path first = writeWorkbook(dir.resolve("first.xlsx"), "2.0");
+    // let the clock move on so the creation time and the generated dates are different
+    Thread.sleep(1100);
+    Path second = writeWorkbook(dir.resolve("second.xlsx"), "2.0");
+    Path changed = writeWorkbook(dir.resolve("changed.xlsx"), "3.0");
+
+    assertEquals(FileStoreClient.digest(first.toFile()), FileStoreClient.digest(second.toFile()));
+    assertNotEquals(FileStoreClient.digest(first.toFile()), FileStoreClient.digest(changed.toFile()));
+  }
+
+  private static Path writeWorkbook(Path file, String activityScore) throws IOException {
+    DiplotypeWorkbook workbook = new DiplotypeWorkbook("CYP2D6");
+    workbook.writeDiplotype("*1/*1", "Normal Metabolizer", "Normal/Routine/Low Risk", activityScore);
+    workbook.writeStarterChangeLogMessage();
+    workbook.writeGenerated();
+    try (OutputStream out = Files.newOutputStream(file)) {
+      workbook.write(out);
+    }
+    return file;
+  }
 }
@@ -0,0 +1,88 @@
+package org.cpicpgx.util;
+
+import okhttp3.Cache;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpUtilsTest {
+  private MockWebServer server;
+
+  @BeforeEach
+  void startServer() throws Exception {
+    server = new MockWebServer();
+    server.start();
+  }
+
+  @AfterEach
+  void stopServer() throws Exception {
+    server.shutdown();
+  }
+
+  @Test
+  void testCacheTtl(@TempDir Path dir) throws Exception {
+    server.enqueue(new MockResponse().setBody("first").setHeader("Cache-Control", "no-cache"));
+    String url = server.url("/data").toString();
+
+    OkHttpClient client = HttpUtils.newClientBuilder(new Cache(dir.toFile(), 1024 * 1024), 3600, false).build();
+    RateLimiter limiter = new RateLimiter(1, 1);
+    assertEquals("first", HttpUtils.apiRequest(client, url, null, limiter));
+    // served from the cache without asking the server or waiting on the limiter
+    assertEquals("first", HttpUtils.apiRequest(client, url, null, limiter));
+    assertEquals(1, server.getRequestCount());
+  }
+
+  @Test
+  void testRevalidate(@TempDir Path dir) throws Exception {
+    server.enqueue(new MockResponse().setBody("first").setHeader("ETag", "\"v1\""));
+    server.enqueue(new MockResponse().setResponseCode(304).setHeader("ETag", "\"v1\""));
+    String url = server.url("/data").toString();
+
+    OkHttpClient client = HttpUtils.newClientBuilder(new Cache(dir.toFile(), 1024 * 1024), 0, false).build();
+    assertEquals("first", HttpUtils.apiRequest(client, url));
+    assertEquals("first", HttpUtils.apiRequest(client, url));
+
+    server.takeRequest();
+    RecordedRequest revalidation = server.takeRequest();
+    assertEquals("\"v1\"", revalidation.getHeader("If-None-Match"));
+  }
+
+  @Test
+  void testOffline(@TempDir Path dir) throws Exception {
+    server.enqueue(new MockResponse().setBody("first"));
+    String url = server.url("/data").toString();
+
+    Cache cache = new Cache(dir.toFile(), 1024 * 1024);
+    OkHttpClient online = HttpUtils.newClientBuilder(cache, 0, false).build();
+    assertEquals("first", HttpUtils.apiRequest(online, url));
+
+    // an expired response is still used when offline
+    OkHttpClient offline = HttpUtils.newClientBuilder(cache, 0, true).build();
+    assertEquals("first", HttpUtils.apiRequest(offline, url));
+    assertThrows(IOException.class, () -> HttpUtils.apiRequest(offline, server.url("/other").toString()));
+    assertEquals(1, server.getRequestCount());
+
+    assertThrows(IllegalStateException.class, () -> HttpUtils.newClientBuilder(null, 0, true));
+  }
+
+  @Test
+  void testRetry() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "0"));
+    server.enqueue(new MockResponse().setBody("ok"));
+    assertEquals("ok", HttpUtils.apiRequest(new OkHttpClient(), server.url("/data").toString()));
+    assertEquals(2, server.getRequestCount());
+
+    server.enqueue(new MockResponse().setResponseCode(400));
+    assertThrows(IOException.class, () -> HttpUtils.apiRequest(new OkHttpClient(), server.url("/bad").toString()));
+  }
+}
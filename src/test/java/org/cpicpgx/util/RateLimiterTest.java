@@ -0,0 +1,36 @@
+package org.cpicpgx.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimiterTest {
+
+  @Test
+  void testReserve() {
+    AtomicLong clock = new AtomicLong(0);
+    RateLimiter limiter = new RateLimiter(2, 2, clock::get);
+
+    // the burst is available right away
+    assertEquals(0, limiter.reserve());
+    assertEquals(0, limiter.reserve());
+    // then callers wait in line at 2 per second
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(500), limiter.reserve());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), limiter.reserve());
+
+    // an idle limiter only refills up to the burst size
+    clock.set(TimeUnit.SECONDS.toNanos(10));
+    assertEquals(0, limiter.reserve());
+    assertEquals(0, limiter.reserve());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(500), limiter.reserve());
+  }
+
+  @Test
+  void testBadArguments() {
+    assertThrows(IllegalArgumentException.class, () -> new RateLimiter(0, 1));
+    assertThrows(IllegalArgumentException.class, () -> new RateLimiter(1, 0));
+  }
+}
@@ -0,0 +1,56 @@
+package org.cpicpgx.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that {@link StreamingWorkbookWrapper} reads the same values as a fully loaded {@link WorkbookWrapper}
+ */
+public class StreamingWorkbookWrapperTest {
+  private static final String TEST_EXCEL = "superscript_example.xlsx";
+
+  private File getTestFile() throws URISyntaxException {
+    return Paths.get(getClass().getResource(TEST_EXCEL).toURI()).toFile();
+  }
+
+  @Test
+  public void testSameAsLoaded() throws Exception {
+    try (
+        InputStream in = getClass().getResourceAsStream(TEST_EXCEL);
+        StreamingWorkbookWrapper streamed = new StreamingWorkbookWrapper(getTestFile())
+    ) {
+      WorkbookWrapper loaded = new WorkbookWrapper(in);
+      assertEquals(TEST_EXCEL, streamed.getFileName());
+      assertEquals(loaded.getSheetNameList(), streamed.getSheetNameList());
+      assertEquals(loaded.currentSheet.getLastRowNum(), streamed.currentSheet.getLastRowNum());
+
+      for (int i = 0; i <= loaded.currentSheet.getLastRowNum(); i++) {
+        RowWrapper loadedRow = loaded.getRow(i);
+        RowWrapper streamedRow = streamed.getRow(i);
+        assertEquals(loadedRow.getLastCellNum(), streamedRow.getLastCellNum(), "row " + i);
+        for (int j = 0; j < loadedRow.getLastCellNum(); j++) {
+          assertEquals(loadedRow.getNullableText(j), streamedRow.getNullableText(j), "row " + i + " cell " + j);
+          assertEquals(loadedRow.getFootnote(j), streamedRow.getFootnote(j), "row " + i + " cell " + j);
+        }
+      }
+      assertNull(streamed.getRow(streamed.currentSheet.getLastRowNum() + 1));
+    }
+  }
+
+  @Test
+  public void testSlidingWindow() throws Exception {
+    try (StreamingWorkbookWrapper workbook = new StreamingWorkbookWrapper(getTestFile(), 1, 0)) {
+      assertEquals("1.25", workbook.getRow(2).getNullableText(0));
+      assertEquals("3.75", workbook.getRow(3).getNullableText(0));
+      // row 0 has left the window so the sheet has to be read again
+      assertEquals("CYP2C19 Diplotype", workbook.getRow(0).getNullableText(0));
+      assertEquals("11/11/18", workbook.getRow(2).getNullableText(2));
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package org.cpicpgx.util;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import org.cpicpgx.model.FileType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadManagerTest {
+
+  @Test
+  void testRetry() {
+    AtomicInteger attempts = new AtomicInteger();
+    UploadManager manager = new UploadManager(null, (p, t) -> {
+      if (attempts.incrementAndGet() < 3) {
+        throw new AmazonClientException("connection reset");
+      }
+      return true;
+    }, 2, 1);
+    manager.submit(Paths.get("test.xlsx"), FileType.ALLELE_DEFINITION);
+    manager.close();
+    assertEquals(3, attempts.get());
+    assertEquals(1, manager.getUploadCount());
+  }
+
+  @Test
+  void testFailures() {
+    AtomicInteger attempts = new AtomicInteger();
+    UploadManager manager = new UploadManager(null, (p, t) -> {
+      attempts.incrementAndGet();
+      if (p.toString().startsWith("bad")) {
+        throw new AmazonClientException("connection reset");
+      }
+      return p.toString().startsWith("new");
+    }, 2, 1);
+    manager.submit(Paths.get("bad.xlsx"), FileType.ALLELE_DEFINITION);
+    manager.submit(Paths.get("new.xlsx"), FileType.ALLELE_DEFINITION);
+    manager.submit(Paths.get("same.xlsx"), FileType.ALLELE_DEFINITION);
+    RuntimeException ex = assertThrows(RuntimeException.class, manager::close);
+    assertEquals(1, ex.getSuppressed().length);
+    assertEquals(UploadManager.MAX_ATTEMPTS + 2, attempts.get());
+    assertEquals(1, manager.getUploadCount());
+    assertEquals(1, manager.getSkipCount());
+  }
+
+  @Test
+  void testIsRetryable() {
+    AmazonS3Exception notFound = new AmazonS3Exception("not found");
+    notFound.setStatusCode(404);
+    assertFalse(UploadManager.isRetryable(notFound));
+
+    AmazonS3Exception unavailable = new AmazonS3Exception("slow down");
+    unavailable.setStatusCode(503);
+    assertTrue(UploadManager.isRetryable(unavailable));
+  }
+}
@@ -0,0 +1,39 @@
+package org.cpicpgx.workbook;
+
+import org.cpicpgx.util.WorkbookWrapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that a streaming workbook writes every row even when the sheet is larger than the row window
+ */
+class DiplotypeWorkbookTest {
+  private static final int ROW_COUNT = AbstractWorkbook.DEFAULT_STREAMING_WINDOW * 3;
+
+  @Test
+  void testStreamingWrite() throws Exception {
+    DiplotypeWorkbook workbook = new DiplotypeWorkbook("CYP2D6");
+    assertTrue(workbook.isStreaming());
+
+    for (int i = 0; i < ROW_COUNT; i++) {
+      workbook.writeDiplotype("*1/*" + i, "Normal Metabolizer", "Normal/Routine/Low Risk", "2.0");
+    }
+    workbook.getSheets().forEach(SheetWrapper::autosizeColumns);
+    // sized to the 33 character bold 14pt header: (33 * 14/11 * 1.1 + 1.5) * 256
+    assertEquals(12211, workbook.getSheets().get(0).sheet.getColumnWidth(2));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    workbook.write(out);
+
+    WorkbookWrapper written = new WorkbookWrapper(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(ROW_COUNT, written.currentSheet.getLastRowNum());
+    assertEquals("CYP2D6 Diplotype", written.getRow(0).getNullableText(0));
+    assertEquals("*1/*0", written.getRow(1).getNullableText(0));
+    assertEquals("*1/*" + (ROW_COUNT - 1), written.getRow(ROW_COUNT).getNullableText(0));
+    assertEquals("2.0", written.getRow(ROW_COUNT).getNullableText(1));
+  }
+}
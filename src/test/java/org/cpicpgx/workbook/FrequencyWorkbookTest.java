@@ -0,0 +1,31 @@
+package org.cpicpgx.workbook;
+
+import org.cpicpgx.db.LookupMethod;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that titles merged across columns don't widen the first column they're written to
+ */
+class FrequencyWorkbookTest {
+
+  @Test
+  void testMergedCellWidths() {
+    FrequencyWorkbook workbook = new FrequencyWorkbook("CYP2D6", LookupMethod.ACTIVITY_SCORE);
+    workbook.writeReferenceHeader(Set.of("*1"));
+    workbook.writeEthnicityHeader("Sub-Saharan African and some more words to be long", 1);
+    workbook.writeAlleleFrequencyHeader(List.of("European", "East Asian"));
+    workbook.writeAlleleFrequency("*1", new BigDecimal[]{new BigDecimal("0.5"), new BigDecimal("0.25")});
+    workbook.getSheets().forEach(SheetWrapper::autosizeColumns);
+
+    // sized to the 13 character bold 14pt "CYP2D6 allele" header: (13 * 14/11 * 1.1 + 1.5) * 256
+    assertEquals(5043, workbook.findSheet("Allele frequency").sheet.getColumnWidth(0));
+    // sized to the 7 character "Authors" header, not the ethnicity merged across the row
+    assertEquals(2893, workbook.findSheet("References").sheet.getColumnWidth(0));
+  }
+}